@@ -0,0 +1,136 @@
+package chessosisnbproject.data;
+
+import java.util.EnumSet;
+
+/**
+ * Primitive operations on bitboards. Counting and locating set bits is done
+ * with Long.bitCount() and Long.numberOfTrailingZeros(), which the JVM
+ * compiles into single POPCNT and TZCNT/BSF instructions where available,
+ * instead of looping over all 64 bits. The squares of a bitboard are
+ * visited by repeatedly taking the lowest set bit and clearing it with
+ * x &amp; (x - 1):
+ * <pre>
+ *   while ( bb != 0 ) {
+ *       int sq = Bitboards.lsb( bb );
+ *       ...
+ *       bb = Bitboards.clearLsb( bb );
+ *   }
+ * </pre>
+ * The bit index of a square equals the ordinal of its Square constant (see
+ * the diagram at the beginning of CSS.java).
+ *
+ * @author Henrik Lindberg
+ */
+public class Bitboards {
+
+    // Square constants indexed by bit index. Square.values() returns
+    // a fresh copy of the array on every call so it's cached here.
+    private static final Square[] SQUARES = Square.values();
+
+    // Private constructor -- no instances, no Javadoc
+    private Bitboards() {
+    }
+
+    /**
+     * Counts the number of set bits in a bitboard.
+     *
+     * @param bitboard a bitboard with 0 to 64 set bits
+     * @return a value between 0 and 64
+     */
+    public static int popCount( long bitboard ) {
+        return Long.bitCount( bitboard );
+    }
+
+    /**
+     * Returns the bit index of the lowest set bit of a bitboard.
+     *
+     * @param bitboard a bitboard
+     * @return a value between 0 and 63, or 64 if the bitboard is empty
+     */
+    public static int lsb( long bitboard ) {
+        return Long.numberOfTrailingZeros( bitboard );
+    }
+
+    /**
+     * Returns the bitboard with its lowest set bit cleared.
+     *
+     * @param bitboard a bitboard
+     * @return the bitboard minus its lowest set bit
+     */
+    public static long clearLsb( long bitboard ) {
+        return bitboard & ( bitboard - 1 );
+    }
+
+    /**
+     * Determines whether a bitboard is a square bit, i.e., has exactly one
+     * bit set.
+     *
+     * @param bitboard the bitboard to examine
+     * @return true when bitboard is a square bit
+     */
+    public static boolean isSquareBit( long bitboard ) {
+        return bitboard != 0 && ( bitboard & ( bitboard - 1 ) ) == 0;
+    }
+
+    /**
+     * Returns the Square constant of a bit index.
+     *
+     * @param index bit index between 0 and 63
+     * @return the Square constant with the same ordinal
+     */
+    public static Square square( int index ) {
+        return SQUARES[ index ];
+    }
+
+    /**
+     * Returns the Square constant of the lowest set bit of a bitboard. For a
+     * square bit this is the square in question.
+     *
+     * @param bitboard a non-empty bitboard
+     * @return a Square constant
+     */
+    public static Square lsbSquare( long bitboard ) {
+        return SQUARES[ Long.numberOfTrailingZeros( bitboard ) ];
+    }
+
+    /**
+     * Flips a bitboard vertically, i.e., moves each square to the same file
+     * on the opposite rank (A1 to A8, E2 to E7). The ranks are the bytes of
+     * the bitboard, so this is a byte swap.
+     *
+     * @param bitboard the bitboard to flip
+     * @return the flipped bitboard
+     */
+    public static long flipVertical( long bitboard ) {
+        return Long.reverseBytes( bitboard );
+    }
+
+    /**
+     * Mirrors a bitboard horizontally, i.e., moves each square to the same
+     * rank on the opposite file (A1 to H1, D5 to E5). Reversing all 64 bits
+     * mirrors and flips the board; swapping the bytes back undoes the flip.
+     *
+     * @param bitboard the bitboard to mirror
+     * @return the mirrored bitboard
+     */
+    public static long mirrorHorizontal( long bitboard ) {
+        return Long.reverseBytes( Long.reverse( bitboard ) );
+    }
+
+    /**
+     * Converts a bitboard into a Square EnumSet.
+     *
+     * @param bitboard the bitboard to convert
+     * @return a new EnumSet of the squares whose bits are set
+     */
+    public static EnumSet<Square> toSquareSet( long bitboard ) {
+        EnumSet<Square> squareSet = EnumSet.noneOf( Square.class );
+
+        while ( bitboard != 0 ) {
+            squareSet.add( SQUARES[ Long.numberOfTrailingZeros( bitboard ) ] );
+            bitboard &= bitboard - 1;
+        }
+
+        return squareSet;
+    }
+}
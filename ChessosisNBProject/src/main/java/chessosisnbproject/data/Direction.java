@@ -12,17 +12,19 @@ public enum Direction {
 
     NORTH, NORTHEAST, EAST, SOUTHEAST, SOUTH, SOUTHWEST, WEST, NORTHWEST;
 
+    private static final Direction[] CARDINAL_DIRECTIONS
+        = { NORTH, EAST, SOUTH, WEST },
+        INTERMEDIATE_DIRECTIONS = { NORTHEAST, SOUTHEAST, SOUTHWEST, NORTHWEST };
+
     /**
      * Return the set of the four cardinal directions conveniently packed
-     * as an array.
+     * as an array. The array is a copy of a constant array, so the caller
+     * may modify it.
      *
      * @return the four cardinal directions
      */
     public static Direction[] cardinalDirections() {
-        Direction north = Direction.NORTH, east = Direction.EAST,
-            south = Direction.SOUTH, west = Direction.WEST;
-
-        return new Direction[]{ north, east, south, west };
+        return CARDINAL_DIRECTIONS.clone();
     }
 
     /**
@@ -31,9 +33,6 @@ public enum Direction {
      @return the four intermediate directions (NE, SE, SW and NW)
      */
     public static Direction[] intermediateDirections() {
-        Direction ne = Direction.NORTHEAST, se = Direction.SOUTHEAST,
-            sw = Direction.SOUTHWEST, nw = Direction.NORTHWEST;
-
-        return new Direction[]{ ne, se, sw, nw };
+        return INTERMEDIATE_DIRECTIONS.clone();
     }
 }
@@ -8,28 +8,48 @@ import java.util.Objects;
  * object corresponds to a single move such as E2-E4. When treated as a String
  * a Move object returns its string representation in coordinate notation
  * form.
+ * <p>
+ * A Move object is a thin view of a packed move (see class PackedMove) and
+ * its context position. The move generator works with packed moves; Move
+ * objects are for the GUI and other code that prefers objects to ints.
  *
  * @author Henrik Lindberg
  */
 public class Move {
 
-    // Every move involves a source ("from") and a destination ("to") square
-    private final Square fromSquare, toSquare;
+    // Source and destination square and flags packed into an int
+    private final int move;
 
     // Each Move object is made truly unique by specifying the position
     // in which it was discovered
     private final Position context;
 
+    // The bits of a packed move that identify it: the two squares. The
+    // promotion is compared separately.
+    private static final int IDENTITY_BITS = 0xfff;
+
     /**
-     Initialize a Move object.
+     Initialize a Move object. The move gets no flags, so the details of
+     special moves such as castling are worked out from the context position
+     when the move is made.
     
      @param fromSquare source square
      @param toSquare destination square
      @param contextPos context position (where the move was discovered)
      */
     public Move( Square fromSquare, Square toSquare, Position contextPos ) {
-        this.fromSquare = fromSquare;
-        this.toSquare = toSquare;
+        this( PackedMove.of( fromSquare.ordinal(), toSquare.ordinal(),
+            PackedMove.QUIET ), contextPos );
+    }
+
+    /**
+     Initialize a Move object from a packed move.
+    
+     @param packedMove the move packed into an int
+     @param contextPos context position (where the move was discovered)
+     */
+    public Move( int packedMove, Position contextPos ) {
+        this.move = packedMove;
         this.context = contextPos;
     }
 
@@ -39,7 +59,7 @@ public class Move {
      @return source ("from") square
      */
     public Square from() {
-        return this.fromSquare;
+        return PackedMove.fromSquare( this.move );
     }
 
     /**
@@ -48,7 +68,25 @@ public class Move {
      @return destination ("to") square
      */
     public Square to() {
-        return this.toSquare;
+        return PackedMove.toSquare( this.move );
+    }
+
+    /**
+     Accessor method.
+    
+     @return the piece type promoted to or null if not a promotion
+     */
+    public PieceType promotion() {
+        return PackedMove.promotion( this.move );
+    }
+
+    /**
+     Accessor method.
+    
+     @return the move packed into an int
+     */
+    public int packed() {
+        return this.move;
     }
 
     /**
@@ -68,8 +106,7 @@ public class Move {
      */
     @Override
     public String toString() {
-        String fromHyphenTo = this.from() + "-" + this.to(),
-            fullmoveNumber = "";
+        String fullmoveNumber = "";
 
         if ( this.context() != null ) {
             fullmoveNumber
@@ -78,33 +115,34 @@ public class Move {
                 += ( this.context().turn() == Colour.WHITE ) ? "." : "...";
         }
 
-        return fullmoveNumber + this.from() + "-" + this.to();
+        return fullmoveNumber + PackedMove.toString( this.move );
     }
 
     /**
-     * Generated automatically by NetBeans. It was necessary to override
-     * Object's method equals(), so also hashCode() had to be overridden.
-     * This is because equals() and hashCode() are tied to each other
-     * by a certain requirement: any two objects found to be equal by
-     * equals() must have the same hashCode() value.
+     * It was necessary to override Object's method equals(), so also
+     * hashCode() had to be overridden. This is because equals() and
+     * hashCode() are tied to each other by a certain requirement: any two
+     * objects found to be equal by equals() must have the same hashCode()
+     * value. The hash code is computed from the squares and the promotion
+     * only; hashing the context position as well would make every call
+     * more expensive without spreading the moves of a single position
+     * any better.
      *
      * @return the hash code of the Object
      */
     @Override
     public int hashCode() {
-        int hash = 3;
-        hash = 41 * hash + Objects.hashCode( this.fromSquare );
-        hash = 41 * hash + Objects.hashCode( this.toSquare );
-        hash = 41 * hash + Objects.hashCode( this.context );
-        return hash;
+        return this.move & IDENTITY_BITS;
     }
 
     /**
-     * Generated automatically by NetBeans. In Chessosis Move objects are
-     * frequently placed in sets (as in interface Set). As sets cannot contain
-     * duplicate elements, placing one in a set implies comparison. The
-     * overridden equals() is used to determine whether two Move objects
-     * represent the same move.
+     * In Chessosis Move objects are frequently placed in sets (as in
+     * interface Set). As sets cannot contain duplicate elements, placing one
+     * in a set implies comparison. The overridden equals() is used to
+     * determine whether two Move objects represent the same move. Two moves
+     * are the same if they have the same squares, the same promotion (if
+     * any) and the same context. The rest of the flags describe the move
+     * in its context and are not compared.
      *
      * @return the comparison result
      */
@@ -117,10 +155,10 @@ public class Move {
             return false;
         }
         final Move other = (Move) obj;
-        if ( this.fromSquare != other.fromSquare ) {
+        if ( ( this.move & IDENTITY_BITS ) != ( other.move & IDENTITY_BITS ) ) {
             return false;
         }
-        if ( this.toSquare != other.toSquare ) {
+        if ( this.promotion() != other.promotion() ) {
             return false;
         }
         return Objects.equals( this.context, other.context );
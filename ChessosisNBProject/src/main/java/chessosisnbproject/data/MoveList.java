@@ -0,0 +1,151 @@
+package chessosisnbproject.data;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of packed moves (see class PackedMove) backed by an int
+ * array. A MoveList is meant to be created once and reused: clearing the
+ * list only resets its size, so filling it again allocates nothing unless
+ * the list has to grow. The default capacity is more than the number of
+ * legal moves in any chess position, so growing is rare in practice. The
+ * list is a MoveVisitor, so the move generator can fill it directly.
+ *
+ * @author Henrik Lindberg
+ */
+public class MoveList implements MoveVisitor {
+
+    // No legal chess position is known to have more than 218 moves
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private int[] moves;
+    private int size;
+
+    /**
+     * Creates an empty list with the default capacity.
+     */
+    public MoveList() {
+        this( DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Creates an empty list with the given initial capacity.
+     *
+     * @param capacity the initial capacity, at least one
+     */
+    public MoveList( int capacity ) {
+        this.moves = new int[ Math.max( 1, capacity ) ];
+        this.size = 0;
+    }
+
+    /**
+     * Appends a packed move to the end of the list.
+     *
+     * @param move packed move
+     */
+    public void add( int move ) {
+        if ( this.size == this.moves.length ) {
+            this.moves = Arrays.copyOf( this.moves, 2 * this.moves.length );
+        }
+        this.moves[ this.size++ ] = move;
+    }
+
+    /**
+     * Appends the move to the end of the list. This is what makes a
+     * MoveList usable as the sink of the move generator.
+     *
+     * @param from bit index of the source square
+     * @param to bit index of the destination square
+     * @param flags one of the move flags of PackedMove
+     * @return true, a list never stops the generation
+     */
+    @Override
+    public boolean visit( int from, int to, int flags ) {
+        add( PackedMove.of( from, to, flags ) );
+        return true;
+    }
+
+    /**
+     * Returns the packed move at the given index.
+     *
+     * @param index between 0 and size() - 1
+     * @return packed move
+     */
+    public int get( int index ) {
+        return this.moves[ index ];
+    }
+
+    /**
+     * Replaces the packed move at the given index.
+     *
+     * @param index between 0 and size() - 1
+     * @param move packed move
+     */
+    public void set( int index, int move ) {
+        this.moves[ index ] = move;
+    }
+
+    /**
+     * Returns the number of moves in the list.
+     *
+     * @return the size of the list
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Tells whether the list is empty.
+     *
+     * @return true if there are no moves in the list
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Shortens the list to the given size. Used to drop moves from the
+     * end of the list, for example after filtering the list in place.
+     *
+     * @param newSize between 0 and size()
+     */
+    public void truncate( int newSize ) {
+        this.size = newSize;
+    }
+
+    /**
+     * Empties the list. The backing array is kept for reuse.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Tells whether the list contains the given packed move.
+     *
+     * @param move packed move
+     * @return true if the move is found in the list
+     */
+    public boolean contains( int move ) {
+        for ( int i = 0; i < this.size; i++ ) {
+            if ( this.moves[ i ] == move ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists the moves in coordinate notation, e.g., "[E2-E4, G1-F3]".
+     *
+     * @return the string representation of the list
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder( "[" );
+        for ( int i = 0; i < this.size; i++ ) {
+            sb.append( ( i > 0 ) ? ", " : "" );
+            sb.append( PackedMove.toString( this.moves[ i ] ) );
+        }
+        return sb.append( "]" ).toString();
+    }
+}
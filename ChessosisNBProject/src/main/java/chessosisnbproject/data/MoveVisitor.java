@@ -0,0 +1,24 @@
+package chessosisnbproject.data;
+
+/**
+ * A sink the move generator pushes the legal moves of a position to, one
+ * move at a time, instead of collecting them into a set or a list. A
+ * visitor that only needs to count the moves or to know whether there is
+ * one at all allocates nothing, and it can stop the generation as soon as
+ * it has seen enough. MoveList is the visitor that keeps every move.
+ *
+ * @author Henrik Lindberg
+ */
+public interface MoveVisitor {
+
+    /**
+     * Receives a legal move. The parameters are the parts of a packed move
+     * (see class PackedMove); PackedMove.of( from, to, flags ) packs them.
+     *
+     * @param from bit index of the source square
+     * @param to bit index of the destination square
+     * @param flags one of the move flags of PackedMove
+     * @return true to go on with the generation, false to stop it
+     */
+    boolean visit( int from, int to, int flags );
+}
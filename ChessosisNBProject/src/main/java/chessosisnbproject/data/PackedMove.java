@@ -0,0 +1,168 @@
+package chessosisnbproject.data;
+
+/**
+ * Static methods for creating and reading moves packed into a single int.
+ * A packed move needs no object allocation, which makes it the preferred
+ * move representation inside the move generator and anywhere moves are
+ * produced or consumed in bulk. Class Move remains available as an object
+ * view of a packed move.
+ * <p>
+ * Only the 16 lowest bits of the int are used:
+ * <pre>
+ *   bits  0-5   source ("from") square, bit index 0-63
+ *   bits  6-11  destination ("to") square, bit index 0-63
+ *   bits 12-15  flags, see the constants of the class
+ * </pre>
+ * The flag values follow a common convention: bit 2 (value 4) of the flags
+ * is set for every capture and bit 3 (value 8) for every promotion. The two
+ * lowest bits of a promotion select the piece type promoted to.
+ *
+ * @author Henrik Lindberg
+ */
+public class PackedMove {
+
+    /**
+     * The flag values of the four highest bits of a packed move.
+     */
+    public static final int QUIET = 0, DOUBLE_PAWN_PUSH = 1,
+        KINGSIDE_CASTLING = 2, QUEENSIDE_CASTLING = 3,
+        CAPTURE = 4, EN_PASSANT_CAPTURE = 5,
+        KNIGHT_PROMOTION = 8, BISHOP_PROMOTION = 9,
+        ROOK_PROMOTION = 10, QUEEN_PROMOTION = 11,
+        KNIGHT_PROMOTION_CAPTURE = 12, BISHOP_PROMOTION_CAPTURE = 13,
+        ROOK_PROMOTION_CAPTURE = 14, QUEEN_PROMOTION_CAPTURE = 15;
+
+    /**
+     * The value reserved for "no move". No real move has the same source
+     * and destination square, so the value zero (A1-A1) is free for this.
+     */
+    public static final int NONE = 0;
+
+    // The piece types promoted to, indexed by the two lowest flag bits
+    private static final PieceType[] PROMOTION_TYPES = {
+        PieceType.KNIGHT, PieceType.BISHOP, PieceType.ROOK, PieceType.QUEEN };
+
+    // Private constructor -- no instances, no Javadoc
+    private PackedMove() {
+    }
+
+    /**
+     * Packs a move into an int.
+     *
+     * @param from bit index of the source square
+     * @param to bit index of the destination square
+     * @param flags one of the flag constants of the class
+     * @return the packed move
+     */
+    public static int of( int from, int to, int flags ) {
+        return from | ( to << 6 ) | ( flags << 12 );
+    }
+
+    /**
+     * Returns the bit index of the source square of a packed move.
+     *
+     * @param move packed move
+     * @return value between 0 and 63
+     */
+    public static int from( int move ) {
+        return move & 0x3f;
+    }
+
+    /**
+     * Returns the bit index of the destination square of a packed move.
+     *
+     * @param move packed move
+     * @return value between 0 and 63
+     */
+    public static int to( int move ) {
+        return ( move >>> 6 ) & 0x3f;
+    }
+
+    /**
+     * Returns the flags of a packed move.
+     *
+     * @param move packed move
+     * @return value between 0 and 15
+     */
+    public static int flags( int move ) {
+        return ( move >>> 12 ) & 0xf;
+    }
+
+    /**
+     * Returns the source square of a packed move as a Square constant.
+     *
+     * @param move packed move
+     * @return the source square
+     */
+    public static Square fromSquare( int move ) {
+        return Bitboards.square( move & 0x3f );
+    }
+
+    /**
+     * Returns the destination square of a packed move as a Square constant.
+     *
+     * @param move packed move
+     * @return the destination square
+     */
+    public static Square toSquare( int move ) {
+        return Bitboards.square( ( move >>> 6 ) & 0x3f );
+    }
+
+    /**
+     * Tells whether the move captures a piece (en passant included).
+     *
+     * @param move packed move
+     * @return true for captures
+     */
+    public static boolean isCapture( int move ) {
+        return ( move & ( CAPTURE << 12 ) ) != 0;
+    }
+
+    /**
+     * Tells whether the move is a pawn promotion.
+     *
+     * @param move packed move
+     * @return true for promotions
+     */
+    public static boolean isPromotion( int move ) {
+        return ( move & ( KNIGHT_PROMOTION << 12 ) ) != 0;
+    }
+
+    /**
+     * Tells whether the move is a castling move (either side).
+     *
+     * @param move packed move
+     * @return true for castling moves
+     */
+    public static boolean isCastling( int move ) {
+        int flags = flags( move );
+        return flags == KINGSIDE_CASTLING || flags == QUEENSIDE_CASTLING;
+    }
+
+    /**
+     * Returns the piece type a pawn promotes to or null if the move is not
+     * a promotion.
+     *
+     * @param move packed move
+     * @return KNIGHT, BISHOP, ROOK, QUEEN or null
+     */
+    public static PieceType promotion( int move ) {
+        return isPromotion( move ) ? PROMOTION_TYPES[ flags( move ) & 3 ] : null;
+    }
+
+    /**
+     * Returns the packed move in coordinate notation (e.g., E2-E4). The
+     * piece type of a promotion is appended as a letter (e.g., E7-E8Q).
+     *
+     * @param move packed move
+     * @return the string representation of the move
+     */
+    public static String toString( int move ) {
+        String fromHyphenTo = fromSquare( move ) + "-" + toSquare( move );
+        if ( !isPromotion( move ) ) {
+            return fromHyphenTo;
+        }
+
+        return fromHyphenTo + "NBRQ".charAt( flags( move ) & 3 );
+    }
+}
@@ -11,21 +11,15 @@ public enum PieceType {
 
     PAWN, BISHOP, KNIGHT, ROOK, QUEEN, KING;
 
+    private static final PieceType[] PIECE_TYPES = values();
+
     /**
      * Returns an array of the types of pieces available in standard chess.
      *
      * @return a PieceType array containing the six types of chess pieces
      */
     public static PieceType[] availablePieceTypes() {
-        // Let's pass copies in the array rather than the real thing,
-        // just to be on the safe side
-        PieceType pawn = PieceType.PAWN;
-        PieceType bishop = PieceType.BISHOP;
-        PieceType knight = PieceType.KNIGHT;
-        PieceType rook = PieceType.ROOK;
-        PieceType queen = PieceType.QUEEN;
-        PieceType king = PieceType.KING;
-        
-        return new PieceType[]{ pawn, bishop, knight, rook, queen, king };
+        // The constant array is shared, so the caller gets a copy
+        return PIECE_TYPES.clone();
     }
 }
@@ -1,13 +1,13 @@
 package chessosisnbproject.gui;
 
+import chessosisnbproject.data.Bitboards;
 import chessosisnbproject.data.Square;
+import chessosisnbproject.logic.MoveGenerator;
 import chessosisnbproject.logic.Position;
-import chessosisnbproject.data.Move;
 import chessosisnbproject.logic.SUM;
 import java.awt.Color;
 import java.awt.GridLayout;
 import java.util.EnumSet;
-import java.util.Set;
 import javax.swing.*;
 import javax.swing.border.LineBorder;
 
@@ -75,11 +75,9 @@ public class Chessboard extends JPanel {
         Position pos = getGUIRef().getGame().getPos();
         long squareBit = sq.name().bit();
         if ( friendlySquareActivated( pos, squareBit ) ) {
-            Set<Move> moves
-                = getGUIRef().getGame().getMoves();
-            //sendMessage( "Moves available: " + moves.size() + "\n" );
-            this.highlightedDest
-                = extractDestSquares( moves, sq.name() );
+            // Only the moves of the clicked piece are generated
+            this.highlightedDest = Bitboards.toSquareSet(
+                MoveGenerator.legalDestinations( pos, sq.name() ) );
             squaretaker( Task.HIGHLIGHT_DEST );
         }
     }
@@ -101,16 +99,6 @@ public class Chessboard extends JPanel {
         return 8 * row + col;
     }
 
-    private EnumSet<Square> extractDestSquares( Set<Move> moves, Square sq ) {
-        EnumSet<Square> destSquares = EnumSet.noneOf( Square.class );
-        for ( Move move : moves ) {
-            if ( move.from() == sq ) {
-                destSquares.add( move.to() );
-            }
-        }
-        return destSquares;
-    }
-
     // Returns true if the player clicked on a friendly square (chessman)
     private boolean friendlySquareActivated( Position pos, long sqBit ) {
         return ( pos.turn() == chessosisnbproject.data.Colour.WHITE
@@ -75,10 +75,7 @@ public class ChessosisGUI extends JFrame {
         sendMessage( "Doing so will execute the move\n" );
         sendMessage( "Try also clicking on the board with the middle mouse button\n\n" );
         sendMessage( "This version of Chessosis has some deficiencies:\n" );
-        sendMessage( "* It enforces only part of the rules of kingside castling\n" );
-        sendMessage( "* Queenside castling is not supported\n" );
-        sendMessage( "* Pawns that reach the last rank don't get promoted\n" );
-        sendMessage( "* En passant captures are not supported\n" );
+        sendMessage( "* Promotions from the GUI are always to a queen\n" );
         sendMessage( "* The 50-move rule or the rule of threefold repetition is not enforced\n" );
         sendMessage( "* The user has to figure out for themselves when the game has ended\n\n" );
         sendMessage( "These deficiencies are due to time constraints, not bad design\n" );
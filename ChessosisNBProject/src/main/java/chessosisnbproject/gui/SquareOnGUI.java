@@ -3,6 +3,7 @@ package chessosisnbproject.gui;
 import chessosisnbproject.data.CSS;
 import chessosisnbproject.data.Square;
 import chessosisnbproject.data.Move;
+import chessosisnbproject.logic.MoveGenerator;
 import chessosisnbproject.logic.SUM;
 import java.awt.Color;
 import java.awt.event.MouseEvent;
@@ -114,12 +115,8 @@ public class SquareOnGUI extends JLabel implements MouseListener {
             String pieceString = ( piece == null ) ? "EMPTY" : piece.toString();
             sendMessage(
                 "Square " + this.name() + ": " + " " + pieceString + "\t" );
-            try {
-                sendMessage( "NAM: "
-                    + getCBRef().getGUIRef().getGame().getMoves().size() + "\n" );
-            } catch ( Exception ex ) {
-                Logger.getLogger( SquareOnGUI.class.getName() ).log( Level.SEVERE, null, ex );
-            }
+            sendMessage( "NAM: "
+                + MoveGenerator.countLegalMoves( pos ) + "\n" );
         } else if ( e.getButton() == MouseEvent.BUTTON3 ) { // Right mouse button
             if ( activeSquare() == null ) {
                 // __TO-DO HERE__
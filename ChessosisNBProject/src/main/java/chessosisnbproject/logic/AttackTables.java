@@ -0,0 +1,135 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.CSS;
+import chessosisnbproject.data.Colour;
+
+/**
+ * Precomputed attack tables for the leapers, i.e., the knights, kings and
+ * pawns. Unlike the sliding pieces, the squares a leaper attacks depend only
+ * on the square it stands on (and, for pawns, on its colour), never on the
+ * other pieces on the board. That makes it possible to compute every attack
+ * set once, when the class is initialized, and store it in a 64-entry
+ * bitboard array indexed by the bit index of the square (see the diagram at
+ * the beginning of CSS.java). Note that the ordinal of a Square constant is
+ * the same as its bit index, so sq.ordinal() can be used as the array index.
+ * <p>
+ * All the lookup methods of the class are a single array read. They neither
+ * allocate nor throw.
+ *
+ * @author Henrik Lindberg
+ */
+public class AttackTables {
+
+    // One 64-entry table per leaper type and colour
+    private static final long[] KNIGHT_ATTACKS = new long[ 64 ],
+        KING_ATTACKS = new long[ 64 ],
+        WHITE_PAWN_ATTACKS = new long[ 64 ],
+        BLACK_PAWN_ATTACKS = new long[ 64 ];
+
+    static {
+        for ( int index = 0; index < 64; index++ ) {
+            long squareBit = 1L << index;
+            KNIGHT_ATTACKS[ index ] = knightAttacksOfSquareBit( squareBit );
+            KING_ATTACKS[ index ] = kingAttacksOfSquareBit( squareBit );
+            WHITE_PAWN_ATTACKS[ index ]
+                = ( ( squareBit << 9 ) & ~CSS.FILE_A )
+                | ( ( squareBit << 7 ) & ~CSS.FILE_H );
+            BLACK_PAWN_ATTACKS[ index ]
+                = ( ( squareBit >>> 7 ) & ~CSS.FILE_A )
+                | ( ( squareBit >>> 9 ) & ~CSS.FILE_H );
+        }
+    }
+
+    // Private constructor -- no instances, no Javadoc
+    private AttackTables() {
+    }
+
+    /**
+     * Returns the knight's squares of the square with the given bit index as
+     * a bitboard. For example, for E4 (bit index 28) the bitboard has the
+     * squares {F6, G5, G3, F2, D2, C3, C5, D6} set.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return a bitboard with two to eight bits set
+     */
+    public static long knightAttacks( int sqIndex ) {
+        return KNIGHT_ATTACKS[ sqIndex ];
+    }
+
+    /**
+     * Returns the king's squares of the square with the given bit index as a
+     * bitboard, i.e., the squares surrounding it.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return a bitboard with three, five or eight bits set
+     */
+    public static long kingAttacks( int sqIndex ) {
+        return KING_ATTACKS[ sqIndex ];
+    }
+
+    /**
+     * Returns the squares a white pawn on the given square could capture on.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return a bitboard with zero, one or two bits set
+     */
+    public static long whitePawnAttacks( int sqIndex ) {
+        return WHITE_PAWN_ATTACKS[ sqIndex ];
+    }
+
+    /**
+     * Returns the squares a black pawn on the given square could capture on.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return a bitboard with zero, one or two bits set
+     */
+    public static long blackPawnAttacks( int sqIndex ) {
+        return BLACK_PAWN_ATTACKS[ sqIndex ];
+    }
+
+    /**
+     * Returns the squares a pawn of the given colour on the given square
+     * could capture on. Turned around, the same bitboard tells where the
+     * enemy pawns that attack the square would have to be: a square is
+     * attacked by white pawns exactly on blackPawnAttacks( sqIndex ).
+     *
+     * @param pawnColour the colour of the pawn
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return a bitboard with zero, one or two bits set
+     */
+    public static long pawnAttacks( Colour pawnColour, int sqIndex ) {
+        return ( pawnColour == Colour.WHITE )
+            ? WHITE_PAWN_ATTACKS[ sqIndex ] : BLACK_PAWN_ATTACKS[ sqIndex ];
+    }
+
+    //
+    // ============================
+    // == Private static methods ==
+    // ============================
+    //
+    //
+    // The eight knight jumps expressed as shifts. A jump one file to the
+    // east must not wrap around to file A, a jump two files to the east
+    // must not wrap around to files A or B, and so on.
+    private static long knightAttacksOfSquareBit( long b ) {
+        long notFileAB = ~( CSS.FILE_A | CSS.FILE_B ),
+            notFileGH = ~( CSS.FILE_G | CSS.FILE_H );
+
+        return ( ( b << 17 ) & ~CSS.FILE_A ) // North-north-east
+            | ( ( b << 10 ) & notFileAB )    // North-east-east
+            | ( ( b >>> 6 ) & notFileAB )    // South-east-east
+            | ( ( b >>> 15 ) & ~CSS.FILE_A ) // South-south-east
+            | ( ( b >>> 17 ) & ~CSS.FILE_H ) // South-south-west
+            | ( ( b >>> 10 ) & notFileGH )   // South-west-west
+            | ( ( b << 6 ) & notFileGH )     // North-west-west
+            | ( ( b << 15 ) & ~CSS.FILE_H ); // North-north-west
+    }
+
+    // The king's squares are the square bit smeared one step east and west,
+    // then one step north and south, minus the square itself
+    private static long kingAttacksOfSquareBit( long b ) {
+        long rank = b | ( ( b << 1 ) & ~CSS.FILE_A ) | ( ( b >>> 1 ) & ~CSS.FILE_H );
+
+        return ( rank | ( rank << 8 ) | ( rank >>> 8 ) ) ^ b;
+    }
+}
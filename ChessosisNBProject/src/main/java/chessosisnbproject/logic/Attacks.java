@@ -0,0 +1,186 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.Bitboards;
+import chessosisnbproject.data.CSS;
+import chessosisnbproject.data.Colour;
+
+/**
+ * Bitboard-based attack queries on a Board (a Position or a MutableBoard):
+ * which pieces attack a square, whether a square is attacked by a given
+ * side and which squares a side attacks in total. The queries are built on
+ * the lookup tables of AttackTables and MagicBitboards and return plain
+ * bitboards (or a boolean), so they allocate nothing.
+ * <p>
+ * The queries that take an occupancy parameter use it for the sliding
+ * pieces in place of the actual occupancy of the position. This makes it
+ * possible to ask questions about a slightly altered board without creating
+ * a new Position, e.g., whether a king would still be attacked after
+ * stepping away from a rook along the rook's file.
+ * <p>
+ * The squares are specified by their bit index (see the diagram at the
+ * beginning of CSS.java), which equals the ordinal of the Square constant.
+ *
+ * @author Henrik Lindberg
+ */
+public class Attacks {
+
+    // Private constructor -- no instances, no Javadoc
+    private Attacks() {
+    }
+
+    /**
+     * Returns the pieces of both colors that attack the given square. A
+     * piece attacks a square if it could capture an enemy piece standing on
+     * it; whether the capture would be legal doesn't matter.
+     *
+     * @param pos the position to examine
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @param occupancy the occupancy the sliders' attacks are computed with,
+     * normally pos.bothArmies()
+     * @return a bitboard of the attacking pieces
+     */
+    public static long attackersTo( Board pos, int sqIndex, long occupancy ) {
+        long bishopsQueens = pos.whiteBishops() | pos.blackBishops()
+            | pos.whiteQueens() | pos.blackQueens(),
+            rooksQueens = pos.whiteRooks() | pos.blackRooks()
+            | pos.whiteQueens() | pos.blackQueens();
+
+        // A pawn attacks the square if a pawn of the opposite color on the
+        // square would attack the pawn's square
+        return ( AttackTables.blackPawnAttacks( sqIndex ) & pos.whitePawns() )
+            | ( AttackTables.whitePawnAttacks( sqIndex ) & pos.blackPawns() )
+            | ( AttackTables.knightAttacks( sqIndex )
+            & ( pos.whiteKnights() | pos.blackKnights() ) )
+            | ( AttackTables.kingAttacks( sqIndex )
+            & ( pos.whiteKing() | pos.blackKing() ) )
+            | ( MagicBitboards.bishopAttacks( sqIndex, occupancy )
+            & bishopsQueens )
+            | ( MagicBitboards.rookAttacks( sqIndex, occupancy ) & rooksQueens );
+    }
+
+    /**
+     * Returns the pieces of the given color that attack the given square.
+     *
+     * @param pos the position to examine
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @param occupancy the occupancy the sliders' attacks are computed with,
+     * normally pos.bothArmies()
+     * @param byColour the color of the attacking pieces
+     * @return a bitboard of the attacking pieces
+     */
+    public static long attackersTo(
+        Board pos, int sqIndex, long occupancy, Colour byColour ) {
+        return attackersTo( pos, sqIndex, occupancy )
+            & ( ( byColour == Colour.WHITE )
+                ? pos.whiteArmy() : pos.blackArmy() );
+    }
+
+    /**
+     * Tells whether any piece of the given color attacks the given square.
+     * The cheap leaper lookups are done first and the method returns as
+     * soon as an attacker is found.
+     *
+     * @param pos the position to examine
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @param byColour the color of the attacking pieces
+     * @return true if the square is attacked
+     */
+    public static boolean isSquareAttacked(
+        Board pos, int sqIndex, Colour byColour ) {
+        return isSquareAttacked( pos, sqIndex, byColour, pos.bothArmies() );
+    }
+
+    /**
+     * Same as isSquareAttacked( Board, int, Colour ) except that the
+     * sliders' attacks are computed with the given occupancy.
+     *
+     * @param pos the position to examine
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @param byColour the color of the attacking pieces
+     * @param occupancy the occupancy the sliders' attacks are computed with
+     * @return true if the square is attacked
+     */
+    public static boolean isSquareAttacked(
+        Board pos, int sqIndex, Colour byColour, long occupancy ) {
+        long pawns, bishopsQueens, knights, rooksQueens, king, pawnSquares;
+        if ( byColour == Colour.WHITE ) {
+            pawns = pos.whitePawns();
+            bishopsQueens = pos.whiteBishops() | pos.whiteQueens();
+            knights = pos.whiteKnights();
+            rooksQueens = pos.whiteRooks() | pos.whiteQueens();
+            king = pos.whiteKing();
+            pawnSquares = AttackTables.blackPawnAttacks( sqIndex );
+        } else {
+            pawns = pos.blackPawns();
+            bishopsQueens = pos.blackBishops() | pos.blackQueens();
+            knights = pos.blackKnights();
+            rooksQueens = pos.blackRooks() | pos.blackQueens();
+            king = pos.blackKing();
+            pawnSquares = AttackTables.whitePawnAttacks( sqIndex );
+        }
+
+        if ( ( pawnSquares & pawns ) != 0
+            || ( AttackTables.knightAttacks( sqIndex ) & knights ) != 0
+            || ( AttackTables.kingAttacks( sqIndex ) & king ) != 0 ) {
+            return true;
+        }
+
+        // The slider lookups are skipped if there are no sliders at all
+        return ( bishopsQueens != 0 && ( MagicBitboards.bishopAttacks(
+            sqIndex, occupancy ) & bishopsQueens ) != 0 )
+            || ( rooksQueens != 0 && ( MagicBitboards.rookAttacks(
+                sqIndex, occupancy ) & rooksQueens ) != 0 );
+    }
+
+    /**
+     * Returns every square attacked by at least one piece of the given
+     * color. Pawn attacks are computed for all pawns at once by shifting the
+     * pawn bitboard; the other pieces are looked up one at a time.
+     *
+     * @param pos the position to examine
+     * @param colour the color of the attacking pieces
+     * @return a bitboard of the attacked squares
+     */
+    public static long attackedSquares( Board pos, Colour colour ) {
+        long occupancy = pos.bothArmies(), attacked;
+        long bishopsQueens, knights, rooksQueens, king;
+        if ( colour == Colour.WHITE ) {
+            long pawns = pos.whitePawns();
+            attacked = ( ( pawns << 9 ) & ~CSS.FILE_A )
+                | ( ( pawns << 7 ) & ~CSS.FILE_H );
+            bishopsQueens = pos.whiteBishops() | pos.whiteQueens();
+            knights = pos.whiteKnights();
+            rooksQueens = pos.whiteRooks() | pos.whiteQueens();
+            king = pos.whiteKing();
+        } else {
+            long pawns = pos.blackPawns();
+            attacked = ( ( pawns >>> 7 ) & ~CSS.FILE_A )
+                | ( ( pawns >>> 9 ) & ~CSS.FILE_H );
+            bishopsQueens = pos.blackBishops() | pos.blackQueens();
+            knights = pos.blackKnights();
+            rooksQueens = pos.blackRooks() | pos.blackQueens();
+            king = pos.blackKing();
+        }
+
+        while ( knights != 0 ) {
+            attacked |= AttackTables.knightAttacks( Bitboards.lsb( knights ) );
+            knights &= knights - 1;
+        }
+        while ( bishopsQueens != 0 ) {
+            attacked |= MagicBitboards.bishopAttacks(
+                Bitboards.lsb( bishopsQueens ), occupancy );
+            bishopsQueens &= bishopsQueens - 1;
+        }
+        while ( rooksQueens != 0 ) {
+            attacked |= MagicBitboards.rookAttacks(
+                Bitboards.lsb( rooksQueens ), occupancy );
+            rooksQueens &= rooksQueens - 1;
+        }
+        while ( king != 0 ) {
+            attacked |= AttackTables.kingAttacks( Bitboards.lsb( king ) );
+            king &= king - 1;
+        }
+
+        return attacked;
+    }
+}
@@ -0,0 +1,123 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.Colour;
+import chessosisnbproject.data.Square;
+
+/**
+ * Read access to the contents of a chess position: the 12 piece placement
+ * bitboards and the rest of the information found in a FEN record. Both the
+ * immutable Position and the make/unmake based MutableBoard implement the
+ * interface, so the move generator and the attack queries can work on
+ * either of them.
+ *
+ * @author Henrik Lindberg
+ */
+public interface Board {
+
+    long whitePawns();
+
+    long whiteBishops();
+
+    long whiteKnights();
+
+    long whiteRooks();
+
+    long whiteQueens();
+
+    long whiteKing();
+
+    long blackPawns();
+
+    long blackBishops();
+
+    long blackKnights();
+
+    long blackRooks();
+
+    long blackQueens();
+
+    long blackKing();
+
+    /**
+     * Used to determine the active color, i.e., who's turn it is.
+     *
+     * @return a Color constant, either WHITE or BLACK
+     */
+    Colour turn();
+
+    boolean whiteCanCastleKingside();
+
+    boolean whiteCanCastleQueenside();
+
+    boolean blackCanCastleKingside();
+
+    boolean blackCanCastleQueenside();
+
+    /**
+     * Returns non-null only when an enemy pawn has just advanced two squares.
+     *
+     * @return Square constant or null
+     */
+    Square enPassantTargetSquare();
+
+    int halfmoveClock();
+
+    int fullmoveNumber();
+
+    /**
+     * Returns the Zobrist key of the position (see class Zobrist).
+     *
+     * @return a 64-bit hash key
+     */
+    long zobristKey();
+
+    /**
+     * Returns the index of the piece on the given square, i.e., one of the
+     * constants Position.WHITE_PAWNS to Position.BLACK_KING, or
+     * Position.EMPTY_SQUARE for an empty square.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return a value between -1 and 11
+     */
+    int pieceIndexAt( int sqIndex );
+
+    /**
+     * Returns the white army, i.e., all of White's chessmen.
+     *
+     * @return a bitboard of all white chessmen
+     */
+    long whiteArmy();
+
+    /**
+     * Returns the black army, i.e., all of Black's chessmen.
+     *
+     * @return a bitboard of all black chessmen
+     */
+    long blackArmy();
+
+    /**
+     * Returns the union of the white and black armies.
+     *
+     * @return all chessmen on the board
+     */
+    long bothArmies();
+
+    /**
+     * Returns the enemy pieces that give check to the king of the side to
+     * move.
+     *
+     * @return a bitboard of the checking pieces; empty if the side to move
+     * isn't in check or has no king
+     */
+    long checkers();
+
+    /**
+     * Returns the pieces of the side to move that are absolutely pinned,
+     * i.e., the only piece between their king and an enemy slider that
+     * would otherwise attack it.
+     *
+     * @return a bitboard of the pinned pieces; empty if the side to move has
+     * no king
+     */
+    long pinnedPieces();
+}
@@ -1,6 +1,8 @@
 package chessosisnbproject.logic;
 
 import chessosisnbproject.data.Move;
+import chessosisnbproject.data.MoveList;
+import chessosisnbproject.data.PackedMove;
 import chessosisnbproject.gui.ChessosisGUI;
 import java.util.ArrayList;
 import java.util.List;
@@ -55,9 +57,8 @@ public class Game {
      of the game.
     
      @return set of available moves
-     @throws Exception 
      */
-    public Set<Move> getMoves() throws Exception {
+    public Set<Move> getMoves() {
         return MoveGenerator.moveGenerator( getPos() );
     }
 
@@ -73,15 +74,43 @@ public class Game {
 
     /**
      Used to make a new move in the game. Making a move results in a new
-     position which is stored in the history list.
+     position which is stored in the history list. This is where moves from
+     outside the program (the GUI) enter it, so the move is checked against
+     the legal moves of the current position here; the move generator and
+     Position.makeMove( Position, int ) trust their input.
     
      @param move the move to make
      @return an indication whether the adding to the list was successful
-     @throws Exception 
+     @throws Exception if the move isn't legal in the current position
      */
     public boolean newMove( Move move ) throws Exception {
-        Position newPos = Position.makeMove( move );
+        if ( !isLegal( move ) ) {
+            throw new Exception( "Illegal move: " + move );
+        }
+        Position newPos = Position.makeMove( getPos(), move.packed() );
 
         return history.add( newPos );
     }
+
+    // A move is legal if the moves of the piece on its source square include
+    // one with the same destination. A promotion entered without a piece
+    // type is a promotion to a queen, so the piece type is only compared if
+    // the move has one.
+    private boolean isLegal( Move move ) {
+        MoveList moves = new MoveList();
+        MoveGenerator.pieceMoveGenerator(
+            getPos(), move.from().ordinal(), moves );
+        int packed = move.packed();
+
+        for ( int i = 0; i < moves.size(); i++ ) {
+            int legalMove = moves.get( i );
+            if ( PackedMove.to( legalMove ) == move.to().ordinal()
+                && ( !PackedMove.isPromotion( packed ) || PackedMove.promotion(
+                    legalMove ) == PackedMove.promotion( packed ) ) ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
 }
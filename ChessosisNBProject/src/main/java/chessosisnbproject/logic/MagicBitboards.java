@@ -0,0 +1,212 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.CSS;
+import chessosisnbproject.data.Direction;
+
+/**
+ * Sliding piece attack generator based on magic bitboards. Given the bit
+ * index of a square and an occupancy bitboard (all the pieces on the board),
+ * the methods of the class return the squares a bishop, rook or queen on the
+ * square attacks. The attack set includes the first occupied square in each
+ * direction, whatever the colour of the piece on it, so the caller masks out
+ * friendly pieces as needed.
+ * <p>
+ * The trick in a nutshell: only the squares of a slider's rays (minus the
+ * last square of each ray) can block it. Masking the occupancy down to those
+ * squares, multiplying the result with a "magic" number and keeping the top
+ * bits of the product produces a small, collision-free index into a table of
+ * precomputed attack sets. The magic numbers were found by trial and error
+ * with a random search; the attack tables are filled in when the class is
+ * initialized.
+ * <p>
+ * More on magic bitboards:
+ * <p>
+ * https://www.chessprogramming.org/Magic_Bitboards
+ *
+ * @author Henrik Lindberg
+ */
+public class MagicBitboards {
+
+    private static final long[] ROOK_MAGICS = {
+        0x9080048810C00020L, 0x2040100020004000L, 0x40800A1000822000L,
+        0xA500042090010009L, 0x0200040200489060L, 0x0D00180100940022L,
+        0x2080520010800100L, 0x8180008000502500L, 0x110080002080400CL,
+        0x0000808040002000L, 0x0000808010002000L, 0x2000800800100080L,
+        0x0010800800800400L, 0x0346005002000508L, 0x0013000100120004L,
+        0x0002000104920064L, 0x1440808000204001L, 0x0013820045002601L,
+        0x0010008010802002L, 0x0008018048809000L, 0x0040808008000401L,
+        0x0802010100080400L, 0x0080040008100102L, 0x0809020005016284L,
+        0x0A00401080008020L, 0x0404500440002000L, 0x0420110100402000L,
+        0x0580080080100080L, 0x0000040080080080L, 0x2000040080020080L,
+        0x0101120400183041L, 0x060800A200010044L, 0x00A0800041002102L,
+        0x6090002008404000L, 0x8001084011002000L, 0x0008080080801001L,
+        0x0010800400800800L, 0x2000040080800200L, 0x0402010804000210L,
+        0x21001C4102001084L, 0x0104400080238001L, 0x0020100040204004L,
+        0x0400200104110042L, 0x0486001008420020L, 0x09060020100A0004L,
+        0xA242005810120004L, 0x0084010A101C0028L, 0x60004184104A0003L,
+        0x0140004080002180L, 0x0800208200510600L, 0x0035200010018080L,
+        0x0005011000A08D00L, 0x40A0040008008080L, 0x8140800200040080L,
+        0x0004100203082C00L, 0x0201000052288100L, 0x1808208000401101L,
+        0x080100548022C001L, 0x0020001441082101L, 0x00230500A0100009L,
+        0xC002002089100402L, 0x0002001001040882L, 0x0211000082000421L,
+        0x8024108041040032L
+    };
+
+    private static final long[] BISHOP_MAGICS = {
+        0x18108401280A0011L, 0x1008020092020020L, 0x0404040C004C4020L,
+        0x0011040080408100L, 0x044405A0000C10C0L, 0x0021100804300200L,
+        0x0001013030240000L, 0x0010840402020200L, 0x248020602420C08CL,
+        0x0080845000A20088L, 0x0002110344050103L, 0xAA80111042002420L,
+        0x040102121040082AL, 0x8083051420042200L, 0x4002048834108400L,
+        0x120820240D041102L, 0x2008200648100410L, 0x0822001112220402L,
+        0x0010200204001020L, 0x0054000802102004L, 0x1044024A00940008L,
+        0xA008201210042001L, 0x008A02018210AA20L, 0x0000480A02021100L,
+        0x0069842020A00200L, 0x800A68C00A102C01L, 0x2008080021124101L,
+        0x3001004004040002L, 0x1001020004008408L, 0x020800211110080AL,
+        0x240D0400011088A0L, 0x0800882000820800L, 0x0802202102040850L,
+        0x022424202004010AL, 0x0224002800640842L, 0x5102004040040101L,
+        0x0140010010090040L, 0x4010100480004440L, 0x500808088C090081L,
+        0xD3A1320080020040L, 0xA011100212002000L, 0x08040201440030C0L,
+        0x230100109008C200L, 0xC200222014400800L, 0x8020080104000840L,
+        0x02A6440800A34200L, 0x2238A200A4000204L, 0x09224A0226002220L,
+        0x0080623004200320L, 0x0201010110420040L, 0x0D00105404041108L,
+        0x00200A1020880080L, 0x0040A084250C0250L, 0x2000480308220808L,
+        0x2110041000822000L, 0x0020020A08430044L, 0x0604B10410340C00L,
+        0x0008005602100201L, 0x0208049100809000L, 0x41C0040000841102L,
+        0x3020404009210102L, 0x0882804204081220L, 0x6104100410208200L,
+        0x4C02042124090204L
+    };
+
+    // The relevant occupancy masks, i.e., the squares that can block
+    // a slider on a given square
+    private static final long[] ROOK_MASKS = new long[ 64 ],
+        BISHOP_MASKS = new long[ 64 ];
+
+    // The number of bits the magic product is shifted right by. It equals
+    // 64 minus the number of bits set in the mask.
+    private static final int[] ROOK_SHIFTS = new int[ 64 ],
+        BISHOP_SHIFTS = new int[ 64 ];
+
+    // Each square owns a slice of the shared attack table. The offsets
+    // tell where the slices begin.
+    private static final int[] ROOK_OFFSETS = new int[ 64 ],
+        BISHOP_OFFSETS = new int[ 64 ];
+
+    private static final long[] ROOK_ATTACKS, BISHOP_ATTACKS;
+
+    static {
+        ROOK_ATTACKS = initTables( Direction.cardinalDirections(),
+            ROOK_MAGICS, ROOK_MASKS, ROOK_SHIFTS, ROOK_OFFSETS );
+        BISHOP_ATTACKS = initTables( Direction.intermediateDirections(),
+            BISHOP_MAGICS, BISHOP_MASKS, BISHOP_SHIFTS, BISHOP_OFFSETS );
+    }
+
+    // Private constructor -- no instances, no Javadoc
+    private MagicBitboards() {
+    }
+
+    /**
+     * Returns the squares attacked by a rook on the given square.
+     *
+     * @param sqIndex bit index of the rook's square, between 0 and 63
+     * @param occupancy all the pieces on the board
+     * @return the attack set of the rook
+     */
+    public static long rookAttacks( int sqIndex, long occupancy ) {
+        return ROOK_ATTACKS[ ROOK_OFFSETS[ sqIndex ]
+            + (int) ( ( ( occupancy & ROOK_MASKS[ sqIndex ] )
+            * ROOK_MAGICS[ sqIndex ] ) >>> ROOK_SHIFTS[ sqIndex ] ) ];
+    }
+
+    /**
+     * Returns the squares attacked by a bishop on the given square.
+     *
+     * @param sqIndex bit index of the bishop's square, between 0 and 63
+     * @param occupancy all the pieces on the board
+     * @return the attack set of the bishop
+     */
+    public static long bishopAttacks( int sqIndex, long occupancy ) {
+        return BISHOP_ATTACKS[ BISHOP_OFFSETS[ sqIndex ]
+            + (int) ( ( ( occupancy & BISHOP_MASKS[ sqIndex ] )
+            * BISHOP_MAGICS[ sqIndex ] ) >>> BISHOP_SHIFTS[ sqIndex ] ) ];
+    }
+
+    /**
+     * Returns the squares attacked by a queen on the given square. A queen
+     * is simply a rook and a bishop on the same square.
+     *
+     * @param sqIndex bit index of the queen's square, between 0 and 63
+     * @param occupancy all the pieces on the board
+     * @return the attack set of the queen
+     */
+    public static long queenAttacks( int sqIndex, long occupancy ) {
+        return rookAttacks( sqIndex, occupancy )
+            | bishopAttacks( sqIndex, occupancy );
+    }
+
+    //
+    // ============================
+    // == Private static methods ==
+    // ============================
+    //
+    //
+    // Fills in the masks, shifts and offsets of one slider type and returns
+    // its attack table. Every subset of a mask is enumerated with the
+    // Carry-Rippler trick (subset = (subset - mask) & mask) and the attack
+    // set of each subset is stored at the index the magic maps it to.
+    private static long[] initTables( Direction[] directions, long[] magics,
+        long[] masks, int[] shifts, int[] offsets ) {
+        int tableSize = 0;
+
+        for ( int sq = 0; sq < 64; sq++ ) {
+            masks[ sq ] = relevantOccupancyMask( sq, directions );
+            shifts[ sq ] = 64 - Long.bitCount( masks[ sq ] );
+            offsets[ sq ] = tableSize;
+            tableSize += 1 << Long.bitCount( masks[ sq ] );
+        }
+
+        long[] attacks = new long[ tableSize ];
+
+        for ( int sq = 0; sq < 64; sq++ ) {
+            long subset = CSS.EMPTY_BOARD;
+            do {
+                int index = (int) ( ( subset * magics[ sq ] ) >>> shifts[ sq ] );
+                attacks[ offsets[ sq ] + index ]
+                    = slidingAttacks( sq, subset, directions );
+                subset = ( subset - masks[ sq ] ) & masks[ sq ];
+            } while ( subset != 0 );
+        }
+
+        return attacks;
+    }
+
+    // The squares of the slider's rays with the last square of each
+    // ray left out. A piece on the last square cannot block anything.
+    private static long relevantOccupancyMask(
+        int sq, Direction[] directions ) {
+        long mask = CSS.EMPTY_BOARD;
+
+        for ( Direction dir : directions ) {
+            for ( int next = Rays.neighbour( sq, dir );
+                next >= 0 && Rays.neighbour( next, dir ) >= 0;
+                next = Rays.neighbour( next, dir ) ) {
+                mask |= 1L << next;
+            }
+        }
+
+        return mask;
+    }
+
+    // Looks up the rays one at a time in the tables of Rays. Slow compared
+    // to the magic lookup, but only used to fill in the tables.
+    private static long slidingAttacks(
+        int sq, long occupancy, Direction[] directions ) {
+        long attacks = CSS.EMPTY_BOARD;
+
+        for ( Direction dir : directions ) {
+            attacks |= Rays.rayAttacks( sq, dir, occupancy );
+        }
+
+        return attacks;
+    }
+}
@@ -1,9 +1,12 @@
 package chessosisnbproject.logic;
 
 import chessosisnbproject.data.Move;
+import chessosisnbproject.data.MoveList;
+import chessosisnbproject.data.MoveVisitor;
+import chessosisnbproject.data.PackedMove;
 import chessosisnbproject.data.PieceType;
-import chessosisnbproject.data.Direction;
 import chessosisnbproject.data.Colour;
+import chessosisnbproject.data.Bitboards;
 import chessosisnbproject.data.CSS;
 import chessosisnbproject.data.Square;
 import java.util.EnumSet;
@@ -23,6 +26,40 @@ import java.util.Set;
  */
 public class MoveGenerator {
 
+    // PieceType constants in ordinal order, i.e., indexed by piece index
+    // modulo 6. PieceType.values() returns a fresh copy on every call.
+    private static final PieceType[] PIECE_TYPES = PieceType.values();
+
+    // The scratch array of quietCheckGenerator(), one per thread so that
+    // the generator allocates nothing per call and stays thread-safe
+    private static final ThreadLocal<long[]> CHECK_SQUARES
+        = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[ 6 ];
+            }
+        };
+
+    // Stops the generation at the first move it's given
+    private static final MoveVisitor STOP_AT_FIRST_MOVE = new MoveVisitor() {
+        @Override
+        public boolean visit( int from, int to, int flags ) {
+            return false;
+        }
+    };
+
+    // Collects the destination squares of the moves it's given
+    private static final class DestinationCollector implements MoveVisitor {
+
+        private long destSquares = CSS.EMPTY_BOARD;
+
+        @Override
+        public boolean visit( int from, int to, int flags ) {
+            this.destSquares |= 1L << to;
+            return true;
+        }
+    }
+
     /**
      * Generates the set of possible (legal) moves for a given position.
      * This is one of the fundamental mechanisms of Chessosis. A lot of
@@ -30,15 +67,349 @@ public class MoveGenerator {
      *
      * @param pos the Position object to examine
      * @return a set of zero or more Move objects
-     * @throws Exception
      */
-    public static Set<Move> moveGenerator( Position pos )
-        throws Exception {
-        // Generate the pseudo-legal moves for the given position
-        Set<Move> pseudoLegalMoves = pseudoLegalMoveGenerator( pos );
+    public static Set<Move> moveGenerator( Position pos ) {
+        MoveList moveList = new MoveList();
+        moveGenerator( pos, moveList );
+
+        // Wrap the packed moves into Move objects
+        Set<Move> moves = new LinkedHashSet<>();
+        for ( int i = 0; i < moveList.size(); i++ ) {
+            moves.add( new Move( moveList.get( i ), pos ) );
+        }
 
         // Returns a set of zero or more Move objects
-        return legalMoves( pseudoLegalMoves );
+        return moves;
+    }
+
+    /**
+     * Generates the possible (legal) moves for a given position as packed
+     * moves (see class PackedMove). The list parameter is cleared before
+     * the moves are added to it, so the same MoveList object can be reused
+     * from one call to the next. This is the allocation-free alternative of
+     * moveGenerator( Position ). The position can also be a MutableBoard.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @param moves the list to fill with the legal moves of the position
+     */
+    public static void moveGenerator( Board pos, MoveList moves ) {
+        moves.clear();
+        generateLegalMoves( pos, moves, ~CSS.EMPTY_BOARD, true, true, null );
+    }
+
+    /**
+     * Generates the legal captures (en passant included) and promotions of a
+     * position. Together with quietMoveGenerator() this splits the moves of
+     * moveGenerator( Board, MoveList ) into two disjoint parts, so a search
+     * can look at the captures without generating the rest of the moves.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @param moves the list to fill with the moves; cleared first
+     */
+    public static void captureGenerator( Board pos, MoveList moves ) {
+        moves.clear();
+        generateLegalMoves( pos, moves, ~CSS.EMPTY_BOARD, true, false, null );
+    }
+
+    /**
+     * Generates the legal moves of a position that are neither captures nor
+     * promotions. Castling is a quiet move.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @param moves the list to fill with the moves; cleared first
+     */
+    public static void quietMoveGenerator( Board pos, MoveList moves ) {
+        moves.clear();
+        generateLegalMoves( pos, moves, ~CSS.EMPTY_BOARD, false, true, null );
+    }
+
+    /**
+     * Generates the legal quiet moves of a position that give check, both
+     * direct checks and discovered ones. The moves are a subset of those of
+     * quietMoveGenerator(); checking captures and promotions are left to
+     * captureGenerator(). Only the moves that can give check are generated
+     * in the first place: each piece type may only move to the squares
+     * from which it would attack the enemy king, except for the pieces
+     * whose move uncovers an attack by a friendly slider. Those may move
+     * anywhere off the line through the enemy king.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @param moves the list to fill with the moves; cleared first
+     */
+    public static void quietCheckGenerator( Board pos, MoveList moves ) {
+        moves.clear();
+
+        Side side = Side.of( pos.turn() );
+        long enemyKing = side.enemyKing( pos );
+        if ( enemyKing == 0 ) {
+            return;
+        }
+
+        // The squares from which each piece type would attack the enemy
+        // king, indexed by the ordinal of PieceType. A pawn checks from the
+        // squares an enemy pawn on the king's square would attack.
+        int kingSqIndex = Bitboards.lsb( enemyKing );
+        long occupancy = pos.bothArmies();
+        long[] checkSquares = CHECK_SQUARES.get();
+        checkSquares[ PieceType.PAWN.ordinal() ]
+            = AttackTables.pawnAttacks( side.enemyColour, kingSqIndex );
+        checkSquares[ PieceType.KNIGHT.ordinal() ]
+            = AttackTables.knightAttacks( kingSqIndex );
+        checkSquares[ PieceType.BISHOP.ordinal() ]
+            = MagicBitboards.bishopAttacks( kingSqIndex, occupancy );
+        checkSquares[ PieceType.ROOK.ordinal() ]
+            = MagicBitboards.rookAttacks( kingSqIndex, occupancy );
+        checkSquares[ PieceType.QUEEN.ordinal() ]
+            = checkSquares[ PieceType.BISHOP.ordinal() ]
+            | checkSquares[ PieceType.ROOK.ordinal() ];
+        // The king can only give a direct check by castling, i.e., with
+        // the rook that lands next to it
+        checkSquares[ PieceType.KING.ordinal() ]
+            = castlingCheckSquares( pos, side, kingSqIndex );
+
+        // Direct checks by the pieces that don't block a friendly slider
+        long discoverers = singleBlockers( kingSqIndex,
+            side.bishopsQueens( pos ), side.rooksQueens( pos ), occupancy )
+            & side.friendlyPieces( pos );
+        generateLegalMoves(
+            pos, moves, ~discoverers, false, true, checkSquares );
+
+        // A blocking piece gives a discovered check by leaving the line or
+        // a direct check from a square on the line
+        while ( discoverers != 0 ) {
+            int from = Bitboards.lsb( discoverers );
+            discoverers &= discoverers - 1;
+            generateLegalMoves( pos, moves, 1L << from, false, true,
+                checkSquares, ~Rays.line( kingSqIndex, from ) );
+        }
+    }
+
+    /**
+     * Generates the legal moves of the piece on the given square. The list
+     * is left empty if the square is empty or holds an enemy piece. This is
+     * the cheap way of finding out whether a move from some other source,
+     * e.g., a transposition table, is legal in the position.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @param sqIndex bit index of the square of the piece
+     * @param moves the list to fill with the moves; cleared first
+     */
+    public static void pieceMoveGenerator( Board pos, int sqIndex,
+        MoveList moves ) {
+        moves.clear();
+        generateLegalMoves( pos, moves, 1L << sqIndex, true, true, null );
+    }
+
+    /**
+     * Returns the squares the piece on the given square can legally move
+     * to. Only the moves of that piece are generated, with the same check
+     * and pin information as the full generator, so this is the cheap way
+     * of answering "where can this piece go?", e.g., when a piece is
+     * clicked on the GUI. The four promotions of a pawn share a single
+     * destination square.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @param sq the square of the piece
+     * @return the destination squares as a bitboard; empty if the square is
+     * empty, holds an enemy piece or the piece has no legal moves
+     */
+    public static long legalDestinations( Board pos, Square sq ) {
+        DestinationCollector collector = new DestinationCollector();
+        generateLegalMoves( pos, collector, sq.bit(), true, true, null );
+
+        return collector.destSquares;
+    }
+
+    /**
+     * Pushes the legal moves of a position to the visitor one at a time
+     * without collecting them anywhere. The generation stops as soon as the
+     * visitor returns false.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @param visitor the sink of the moves
+     * @return true if every move was visited, false if the visitor stopped
+     * the generation
+     */
+    public static boolean visitLegalMoves( Board pos, MoveVisitor visitor ) {
+        return generateLegalMoves(
+            pos, visitor, ~CSS.EMPTY_BOARD, true, true, null );
+    }
+
+    /**
+     * Tells whether the side to move has at least one legal move. The
+     * generation stops at the first move found, so this is the cheap way
+     * of telling checkmate and stalemate from the rest of the positions.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @return true if there is a legal move
+     */
+    public static boolean hasLegalMoves( Board pos ) {
+        return !visitLegalMoves( pos, STOP_AT_FIRST_MOVE );
+    }
+
+    /**
+     * Generates the pseudo-legal moves of a position: the moves that follow
+     * the way the pieces move but may leave the own king in check. Pins
+     * and checks are ignored, except that castling is only generated if it
+     * is legal. A search can generate these and check each move with
+     * isLegal() right before making it, so no legality work is wasted on
+     * the moves after a cutoff. The legal moves of moveGenerator() are
+     * exactly the moves of this list for which isLegal() returns true.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @param moves the list to fill with the moves; cleared first
+     */
+    public static void pseudoLegalMoves( Board pos, MoveList moves ) {
+        moves.clear();
+
+        Side side = Side.of( pos.turn() );
+        long friendlyPieces = side.friendlyPieces( pos ),
+            enemyPieces = side.enemyPieces( pos ), king = side.king( pos ),
+            pawns = side.pawns( pos );
+        if ( king == 0 ) {
+            return;
+        }
+        Square kingSq = Bitboards.lsbSquare( king );
+
+        // The king may step onto attacked squares; only castling is
+        // checked here, since isLegal() can't see the square the king
+        // passes
+        long kingDestSquares
+            = ( AttackTables.kingAttacks( kingSq.ordinal() ) & ~friendlyPieces )
+            | castlingDestSquares( pos, side, Attacks.isSquareAttacked(
+                pos, kingSq.ordinal(), side.enemyColour ) );
+        addMovesForPiece(
+            kingSq, PieceType.KING, kingDestSquares, enemyPieces, moves );
+
+        // With no pinned pieces and every non-friendly square as a target
+        // the legal generators produce the pseudo-legal moves. En passant
+        // keeps its own test, which is as cheap as any.
+        generatePawnMoves( pos, side, pawns, kingSq.ordinal(),
+            CSS.EMPTY_BOARD, ~friendlyPieces, true, true, moves );
+        generateNonKingMoves( pos, enemyPieces,
+            friendlyPieces & ~king & ~pawns, kingSq, CSS.EMPTY_BOARD,
+            ~friendlyPieces, null, CSS.EMPTY_BOARD, moves );
+    }
+
+    /**
+     * Tells whether a pseudo-legal move (see pseudoLegalMoves()) is legal,
+     * i.e., doesn't leave the own king in check. The move isn't made: a
+     * king move is legal if the destination square isn't attacked with the
+     * king lifted off its square, and any other move if no enemy piece
+     * attacks the king with the occupancy after the move. That single test
+     * covers pinned pieces, check evasions and the two pawns an en passant
+     * capture removes from the same rank. Castling is taken as legal, since
+     * pseudoLegalMoves() only generates it when it is.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @param move a pseudo-legal move of the position (see class
+     * PackedMove)
+     * @return true if the move is legal
+     */
+    public static boolean isLegal( Board pos, int move ) {
+        Side side = Side.of( pos.turn() );
+        long king = side.king( pos );
+        if ( king == 0 ) {
+            return false;
+        }
+        int from = PackedMove.from( move ), to = PackedMove.to( move ),
+            kingSqIndex = Bitboards.lsb( king );
+        long occupancy = pos.bothArmies();
+
+        if ( from == kingSqIndex ) {
+            return ( from == side.kingSq.ordinal()
+                && ( to == side.kingDestSq.ordinal()
+                || to == side.queensideKingDestSq.ordinal() ) )
+                || !Attacks.isSquareAttacked( pos, to, side.enemyColour,
+                    occupancy ^ ( 1L << from ) );
+        }
+
+        // The captured piece, if any, no longer attacks the king. An en
+        // passant capture removes a pawn from a square other than 'to'.
+        long captured = 1L << to;
+        if ( pos.enPassantTargetSquare() != null
+            && to == pos.enPassantTargetSquare().ordinal()
+            && ( side.pawns( pos ) & ( 1L << from ) ) != 0 ) {
+            captured = 1L << ( to - side.forward );
+        }
+        long occupancyAfter
+            = ( occupancy & ~( 1L << from ) & ~captured ) | ( 1L << to );
+
+        return ( Attacks.attackersTo(
+            pos, kingSqIndex, occupancyAfter, side.enemyColour )
+            & ~captured ) == 0;
+    }
+
+    /**
+     * Counts the legal moves of a position without generating them. The
+     * legal destination squares of each piece are worked out as a bitboard
+     * the same way the generator does it and the bits are counted; the
+     * pawns are counted all at once, apart from the pinned ones. Only the
+     * king moves and en passant need a look at individual squares. This is
+     * the cheap way of getting the number of moves, e.g., at the last ply
+     * of a perft or for the GUI. A promotion counts as four moves.
+     *
+     * @param pos the Position or MutableBoard object to examine
+     * @return the number of legal moves; the same as the size of the move
+     * list of moveGenerator()
+     */
+    public static int countLegalMoves( Board pos ) {
+        Side side = Side.of( pos.turn() );
+        long friendlyPieces = side.friendlyPieces( pos ),
+            king = side.king( pos );
+        if ( king == 0 ) {
+            return 0;
+        }
+        Square kingSq = Bitboards.lsbSquare( king );
+        int kingSqIndex = kingSq.ordinal();
+        long checkers = pos.checkers();
+
+        int count = Bitboards.popCount(
+            kingMoveGenerator( kingSq, pos, side, checkers != 0 ) );
+        if ( ( checkers & ( checkers - 1 ) ) != 0 ) {
+            return count;
+        }
+
+        long targetSquares = ~friendlyPieces;
+        if ( checkers != 0 ) {
+            targetSquares = checkers
+                | Rays.between( kingSqIndex, Bitboards.lsb( checkers ) );
+        }
+        long pinnedPieces = pos.pinnedPieces();
+
+        long pieces = friendlyPieces & ~king & ~side.pawns( pos );
+        while ( pieces != 0 ) {
+            Square sqOfPiece = Bitboards.lsbSquare( pieces );
+            pieces &= pieces - 1;
+
+            long destSquares = pseudoLegalMGPieceTypeSel( sqOfPiece,
+                PIECE_TYPES[ pos.pieceIndexAt( sqOfPiece.ordinal() ) % 6 ],
+                pos ) & targetSquares;
+            if ( ( pinnedPieces & sqOfPiece.bit() ) != 0 ) {
+                destSquares &= Rays.line( kingSqIndex, sqOfPiece.ordinal() );
+            }
+            count += Bitboards.popCount( destSquares );
+        }
+
+        // The unpinned pawns are counted together and the pinned ones one
+        // by one, each with the line of its pin as an extra restriction
+        long pawns = side.pawns( pos );
+        count += countPawnMoves(
+            pos, side, pawns & ~pinnedPieces, targetSquares );
+        long pinnedPawns = pawns & pinnedPieces;
+        while ( pinnedPawns != 0 ) {
+            int from = Bitboards.lsb( pinnedPawns );
+            pinnedPawns &= pinnedPawns - 1;
+            count += countPawnMoves( pos, side, 1L << from,
+                targetSquares & Rays.line( kingSqIndex, from ) );
+        }
+
+        if ( pawns != 0 && pos.enPassantTargetSquare() != null ) {
+            count += Bitboards.popCount( enPassantCapturers(
+                pos, side, pawns, kingSqIndex, targetSquares ) );
+        }
+
+        return count;
     }
 
     //
@@ -56,28 +427,16 @@ public class MoveGenerator {
      @param sq square to operate on
      @param pawnColor the pawn's squares are in part determined by piece color
      @return a set of zero, one or two squares
-     @throws Exception 
+     @throws IllegalArgumentException if pawnColor is null
      */
-    public static EnumSet<Square> pawnsSquares( Square sq, Colour pawnColor )
-        throws Exception {
-        EnumSet<Square> pawnsSquares = EnumSet.noneOf( Square.class );
-
-        Direction[] dirs;
-        if ( pawnColor == Colour.WHITE ) {
-            dirs = new Direction[]{ Direction.NORTHEAST, Direction.NORTHWEST };
-        } else if ( pawnColor == Colour.BLACK ) {
-            dirs = new Direction[]{ Direction.SOUTHEAST, Direction.SOUTHWEST };
-        } else { // pawnColor == null
-            throw new Exception( "Invalid pawnColor: " + pawnColor );
-        }
-
-        for ( Direction dir : dirs ) {
-            Square pawnSquare = SUM.adjacentSquare( sq, dir );
-            if ( pawnSquare != null ) {
-                pawnsSquares.add( pawnSquare );
-            }
+    public static EnumSet<Square> pawnsSquares( Square sq, Colour pawnColor ) {
+        if ( pawnColor == null ) {
+            throw new IllegalArgumentException(
+                "Invalid pawnColor: " + pawnColor );
         }
-        return pawnsSquares;
+
+        return Bitboards.toSquareSet(
+            AttackTables.pawnAttacks( pawnColor, sq.ordinal() ) );
     }
 
     /**
@@ -88,28 +447,10 @@ public class MoveGenerator {
     
      @param sq the square to operate on
      @return a set of up to eight squares
-     @throws Exception 
      */
-    public static EnumSet<Square> knightsSquares( Square sq )
-        throws Exception {
-        EnumSet<Square> knightsSquares = EnumSet.noneOf( Square.class );
-
-        // Loop over the four cardinal directions: NORTH, EAST, SOUTH and WEST
-        for ( Direction dir : Direction.cardinalDirections() ) {
-            Square nextSq = sq; // Set the starting point
-            // Then move two squares forward on a file or rank
-            for ( int i = 1; i <= 2; i++ ) {
-                nextSq = SUM.adjacentSquare( nextSq, dir );
-                // There's no next square in a particular direction
-                if ( nextSq == null ) {
-                    break;
-                } else if ( i == 2 ) { // After having moved two squares fwd
-                    knightsSquaresSwitch( dir, nextSq, knightsSquares );
-                }
-            }
-        } // end for
-
-        return knightsSquares;
+    public static EnumSet<Square> knightsSquares( Square sq ) {
+        return Bitboards.toSquareSet(
+            AttackTables.knightAttacks( sq.ordinal() ) );
     }
 
     /**
@@ -118,15 +459,13 @@ public class MoveGenerator {
      *
      * @param sq the square to operate on
      * @return a set of 14 squares
-     * @throws Exception
      */
-    public static EnumSet<Square> rooksSquares( Square sq )
-        throws Exception {
+    public static EnumSet<Square> rooksSquares( Square sq ) {
         // XOR'ing the relevant file and rank is all that is needed to produce
         // the set of rook's squares
         long rooksSquaresBB
             = SUM.fileOfSquare( sq ) ^ SUM.rankOfSquare( sq );
-        return SUM.bitboardToSqSet( rooksSquaresBB );
+        return Bitboards.toSquareSet( rooksSquaresBB );
     }
 
     /**
@@ -135,19 +474,10 @@ public class MoveGenerator {
     
      @param sq the current square of a king
      @return a set of up to eight squares
-     @throws Exception 
      */
-    public static EnumSet<Square> kingsSquares( Square sq ) throws Exception {
-        EnumSet<Square> kingsSquares = EnumSet.noneOf( Square.class );
-
-        for ( Direction dir : Direction.values() ) {
-            Square kingsSquare = SUM.adjacentSquare( sq, dir );
-            if ( kingsSquare != null ) {
-                kingsSquares.add( kingsSquare );
-            }
-        }
-
-        return kingsSquares;
+    public static EnumSet<Square> kingsSquares( Square sq ) {
+        return Bitboards.toSquareSet(
+            AttackTables.kingAttacks( sq.ordinal() ) );
     }
 
     //
@@ -156,256 +486,399 @@ public class MoveGenerator {
     // =============================
     //
     //
-    // Method: bishopMoveGeneratorSingleDir()
-    //
-    // Finds the passive pawn destination squares. These are the squares
-    // a pawn can move to on the same file. As they involve no capture,
-    // they are passive (non-aggressive) in nature. I couldn't figure out
-    // how to divide this method into smaller parts.
-    // Generates destination squares for a bishop in a single diagonal
-    // direction (NE, SE, SW, NW). The process starts from the square next
-    // to the bishop in the given direction (assuming such a square exists).
-    // Provided the square is not occupied by a friendly piece it is added
-    // to the list of destination squares. If the square is empty, the
-    // process moves to the next square on the diagonal -- one more square
-    // away from the bishop.
-    //
-    // The following serves as an example. The bishop is on A1 and the
-    // direction of the search for destination squares is NE (northeast).
-    // The X indicates some piece of opposite color (enemy piece). First the
-    // square B2 is considered. Being empty (or being a square not occupied by
-    // a friendly piece) it is added to the list of destination squares. The
-    // next square considered is C3. It too is added to the list. The seach
-    // is concluded at this point because the bishop cannot crash through
-    // or jump over the enemy piece even though it can capture it.
-    //
-    //   +---------------+
-    // 4 |   |   |   |   |
-    //   |---------------|
-    // 3 |   |   | X |   |
-    //   |---------------|
-    // 2 |   | * |   |   |
-    //   |---------------|
-    // 1 | B |   |   |   |
-    //   +---------------+
-    //     A   B   C   D
+    // The common implementation of the public generators. Only the moves of
+    // the pieces on fromSquares are generated. The captures parameter
+    // selects the captures and promotions and the quiets parameter the rest
+    // of the moves. If pieceTypeSquares isn't null, each piece type may only
+    // move to the squares of the bitboard at its PieceType ordinal and to
+    // the squares of anyPieceSquares. The moves are pushed to the visitor;
+    // the return value is false if the visitor stopped the generation. This
+    // goes for all the private generators below.
+    private static boolean generateLegalMoves( Board pos, MoveVisitor visitor,
+        long fromSquares, boolean captures, boolean quiets,
+        long[] pieceTypeSquares ) {
+        return generateLegalMoves( pos, visitor, fromSquares, captures,
+            quiets, pieceTypeSquares, CSS.EMPTY_BOARD );
+    }
+
+    private static boolean generateLegalMoves( Board pos, MoveVisitor visitor,
+        long fromSquares, boolean captures, boolean quiets,
+        long[] pieceTypeSquares, long anyPieceSquares ) {
+        // The side to move is looked up once and passed along, so none of
+        // the methods below needs to branch on pos.turn()
+        Side side = Side.of( pos.turn() );
+        long friendlyPieces = side.friendlyPieces( pos ),
+            enemyPieces = side.enemyPieces( pos ), king = side.king( pos );
+        if ( king == 0 ) {
+            return true;
+        }
+
+        // Everything the legality of a move depends on is worked out up
+        // front: the enemy pieces giving check and the friendly pieces
+        // pinned against the king. No move needs to be tried out. A
+        // Position remembers both once they are known.
+        Square kingSq = Bitboards.lsbSquare( king );
+        long checkers = pos.checkers(), pinnedPieces = pos.pinnedPieces();
+
+        // The destinations of the kind of moves asked for
+        long destSquares = ( captures ? enemyPieces : CSS.EMPTY_BOARD )
+            | ( quiets ? ~pos.bothArmies() : CSS.EMPTY_BOARD );
+
+        // The king is the only piece that may move in every case
+        if ( ( king & fromSquares ) != 0 && !addMovesForPiece( kingSq,
+            PieceType.KING,
+            kingMoveGenerator( kingSq, pos, side, checkers != 0 )
+            & destSquares & allowedSquares(
+                pieceTypeSquares, anyPieceSquares, PieceType.KING ),
+            side.enemyPieces( pos ), visitor ) ) {
+            return false;
+        }
+
+        // In double check only a king move can get the king out of check
+        if ( ( checkers & ( checkers - 1 ) ) != 0 ) {
+            return true;
+        }
+
+        // In single check the other pieces have to capture the checker or
+        // block the check. A check by a knight or pawn can't be blocked and
+        // a slider adjacent to the king has no squares between.
+        long targetSquares = ~friendlyPieces;
+        if ( checkers != 0 ) {
+            targetSquares = checkers | Rays.between(
+                kingSq.ordinal(), Bitboards.lsb( checkers ) );
+        }
+
+        long pawns = side.pawns( pos ) & fromSquares;
+        return generatePawnMoves( pos, side, pawns, kingSq.ordinal(),
+            pinnedPieces,
+            targetSquares & allowedSquares(
+                pieceTypeSquares, anyPieceSquares, PieceType.PAWN ),
+            captures, quiets, visitor )
+            && generateNonKingMoves( pos, enemyPieces,
+                friendlyPieces & fromSquares & ~king & ~pawns, kingSq,
+                pinnedPieces, targetSquares & destSquares, pieceTypeSquares,
+                anyPieceSquares, visitor );
+    }
+
+    // The squares the piece type may move to according to the optional
+    // per piece type restrictions of generateLegalMoves()
+    private static long allowedSquares( long[] pieceTypeSquares,
+        long anyPieceSquares, PieceType pieceType ) {
+        return ( pieceTypeSquares == null ) ? ~CSS.EMPTY_BOARD
+            : pieceTypeSquares[ pieceType.ordinal() ] | anyPieceSquares;
+    }
+
+    // Generates the moves of all the pawns of the side to move at once. The
+    // pawn bitboard is shifted one rank forward for the pushes and one rank
+    // forward and one file sideways for the captures; the file masks drop
+    // the captures that would wrap around the edge of the board. The source
+    // square of each destination is the destination minus the shift.
     //
-    private static EnumSet<Square> bishopMoveGeneratorSingleDir(
-        Direction dir, Square sq, long friendlyPieces, long enemyPieces )
-        throws Exception {
-        EnumSet<Square> destSquaresInDir = EnumSet.noneOf( Square.class );
-        Square nextSquare = sq;
-        while ( true ) {
-            // Move away from the bishop one square at a time in the given
-            // direction
-            nextSquare = SUM.adjacentSquare( nextSquare, dir );
-            if ( nextSquare == null // null: search went overboard
-                // ...OR if there's a friendly piece on nextSquare
-                || ( nextSquare.bit() & friendlyPieces ) != 0 ) {
-                // Break out of the loop without adding to square to
-                // the list of possible destination squares for the
-                // bishop
-                break;
-            }
-            destSquaresInDir.add( nextSquare );
+    // Pinned pawns and en passant are the only cases that need a look at
+    // individual moves. A pinned pawn may only move along the line through
+    // its king. An en passant capture removes two pawns from the rank of
+    // the capturing pawn, which can expose the king to a rook or queen on
+    // that rank even if neither pawn is pinned on its own; the capture is
+    // tested by looking up the enemy sliders' attacks with the occupancy
+    // after the capture.
+    private static boolean generatePawnMoves( Board pos, Side side,
+        long pawns, int kingSqIndex, long pinnedPieces, long targetSquares,
+        boolean captures, boolean quiets, MoveVisitor visitor ) {
+        long emptySquares = ~pos.bothArmies(),
+            enemyPieces = side.enemyPieces( pos ),
+            singlePushes = side.pushes( pawns ) & emptySquares,
+            doublePushes = side.pushes( singlePushes & side.doublePushRank )
+            & emptySquares,
+            westCaptures = side.westCaptures( pawns ) & enemyPieces,
+            eastCaptures = side.eastCaptures( pawns ) & enemyPieces;
+        int forward = side.forward; // The shift of a one-rank push
+
+        // A push to the last rank is a promotion and counts as a capture
+        long promotionRanks = CSS.RANK_1 | CSS.RANK_8;
+        if ( !captures ) {
+            singlePushes &= ~promotionRanks;
+            westCaptures = eastCaptures = CSS.EMPTY_BOARD;
+        }
+        if ( !quiets ) {
+            singlePushes &= promotionRanks;
+            doublePushes = CSS.EMPTY_BOARD;
+        }
 
-            // Enemy piece on square
-            if ( ( nextSquare.bit() & enemyPieces ) != 0 ) {
-                // Although the bishop can capture the enemy piece,
-                // it can't crash through it
-                break;
-            }
+        if ( !addPawnMoves( singlePushes & targetSquares, forward,
+            PackedMove.QUIET, kingSqIndex, pinnedPieces, visitor )
+            || !addPawnMoves( doublePushes & targetSquares, 2 * forward,
+                PackedMove.DOUBLE_PAWN_PUSH, kingSqIndex, pinnedPieces, visitor )
+            || !addPawnMoves( westCaptures & targetSquares, forward - 1,
+                PackedMove.CAPTURE, kingSqIndex, pinnedPieces, visitor )
+            || !addPawnMoves( eastCaptures & targetSquares, forward + 1,
+                PackedMove.CAPTURE, kingSqIndex, pinnedPieces, visitor ) ) {
+            return false;
+        }
+
+        if ( captures && pawns != 0 && pos.enPassantTargetSquare() != null ) {
+            return generateEnPassantCaptures( pos, side, pawns, kingSqIndex,
+                targetSquares, visitor );
         }
-        return destSquaresInDir;
+
+        return true;
     }
 
-    // Part of knightsSquares()
-    private static void knightsSquaresSwitch( Direction dir, Square nextSq,
-        EnumSet<Square> sqSet ) throws Exception {
-        switch ( dir ) {
-            case NORTH:
-            case SOUTH:
-                if ( SUM.adjacentSquare( nextSq, Direction.EAST ) != null ) {
-                    sqSet.add( SUM.squareBitToSquare( nextSq.bit() << 1 ) );
-                }
-                if ( SUM.adjacentSquare( nextSq, Direction.WEST ) != null ) {
-                    sqSet.add( SUM.squareBitToSquare( nextSq.bit() >>> 1 ) );
-                }
-                break;
-            case EAST:
-            case WEST:
-                if ( SUM.adjacentSquare( nextSq, Direction.NORTH ) != null ) {
-                    sqSet.add( SUM.squareBitToSquare( nextSq.bit() << 8 ) );
-                }
-                if ( SUM.adjacentSquare( nextSq, Direction.SOUTH ) != null ) {
-                    sqSet.add( SUM.squareBitToSquare( nextSq.bit() >>> 8 ) );
-                }
-                break;
-            default:
-                throw new Exception(
-                    "Default case of switch executed: " + dir );
-        }
-    }
-
-    // Finds pawn destination squares that don't involve piece capture.
-    // Such dest squares are always on the same file as the pawn being moved.
-    private static EnumSet<Square> passivePawnDestSqs( // destination squares
-        Square sq, Position pos ) throws Exception {
-        EnumSet<Square> passiveSqs = EnumSet.noneOf( Square.class );
-        Direction dir = ( pos.turn() == Colour.WHITE )
-            ? Direction.NORTH : Direction.SOUTH;
-
-        Square sqFwd = SUM.adjacentSquare( sq, dir ); // (one) square forward
-        // Either there's no road ahead (1st or 8th rank) or it is blocked
-        if ( sqFwd == null || ( pos.bothArmies() & sqFwd.bit() ) != 0 ) {
-            // Do nothing
-        } else if ( dir == Direction.NORTH ) { // White's turn
-            passiveSqs.add( sqFwd );
-            sqFwd = SUM.adjacentSquare( sqFwd, dir ); // Another step forward
-            if ( ( sq.bit() & CSS.RANK_2 ) != 0 // Pawn on 2nd rank
-                // No obstacle two squares ahead
-                && ( sqFwd.bit() & pos.bothArmies() ) == 0 ) {
-                passiveSqs.add( sqFwd ); // Two-rank pawn move, e.g., E2-E4
+    // Pushes the pawn moves to the destination squares of the bitboard. The
+    // shift is the difference between the destination and the source
+    // square. A move to the first or eighth rank becomes four promotions.
+    private static boolean addPawnMoves( long destSquares, int shift,
+        int flags, int kingSqIndex, long pinnedPieces, MoveVisitor visitor ) {
+        while ( destSquares != 0 ) {
+            int to = Bitboards.lsb( destSquares ), from = to - shift;
+            destSquares &= destSquares - 1;
+
+            if ( ( pinnedPieces & ( 1L << from ) ) != 0
+                && ( Rays.line( kingSqIndex, from ) & ( 1L << to ) ) == 0 ) {
+                continue;
             }
-        } else if ( dir == Direction.SOUTH ) { // Black's turn
-            passiveSqs.add( sqFwd );
-            sqFwd = SUM.adjacentSquare( sqFwd, dir ); // See previous else if
-            if ( ( sq.bit() & CSS.RANK_7 ) != 0
-                && ( sqFwd.bit() & pos.bothArmies() ) == 0 ) {
-                passiveSqs.add( sqFwd );
+            if ( ( ( 1L << to ) & ( CSS.RANK_1 | CSS.RANK_8 ) ) != 0 ) {
+                // The capture flag combines with the promotion flags
+                if ( !visitor.visit(
+                    from, to, flags | PackedMove.QUEEN_PROMOTION )
+                    || !visitor.visit(
+                        from, to, flags | PackedMove.ROOK_PROMOTION )
+                    || !visitor.visit(
+                        from, to, flags | PackedMove.BISHOP_PROMOTION )
+                    || !visitor.visit(
+                        from, to, flags | PackedMove.KNIGHT_PROMOTION ) ) {
+                    return false;
+                }
+            } else if ( !visitor.visit( from, to, flags ) ) {
+                return false;
             }
         }
 
-        return passiveSqs;
+        return true;
     }
 
-    // Finds the aggressive pawn destination squares, i.e., the ones that
-    // involve a capture by the pawn.
-    private static EnumSet<Square> aggressivePawnDestSqs( // destination squares
-        Square sq, Position pos ) throws Exception {
-        EnumSet<Square> aggressiveSqs = EnumSet.noneOf( Square.class );
+    // Counts the pushes and the regular captures of the pawns to the
+    // target squares, see generatePawnMoves(). The double pushes are found
+    // from the single pushes before the target squares are applied, since a
+    // single push that doesn't evade a check can still lead to one that
+    // does. Each promotion counts as four moves.
+    private static int countPawnMoves(
+        Board pos, Side side, long pawns, long targetSquares ) {
+        long emptySquares = ~pos.bothArmies(),
+            enemyPieces = side.enemyPieces( pos ),
+            singlePushes = side.pushes( pawns ) & emptySquares,
+            doublePushes = side.pushes( singlePushes & side.doublePushRank )
+            & emptySquares & targetSquares,
+            westCaptures
+            = side.westCaptures( pawns ) & enemyPieces & targetSquares,
+            eastCaptures
+            = side.eastCaptures( pawns ) & enemyPieces & targetSquares;
+        singlePushes &= targetSquares;
+
+        long promotionRanks = CSS.RANK_1 | CSS.RANK_8;
+        return Bitboards.popCount( singlePushes )
+            + Bitboards.popCount( doublePushes )
+            + Bitboards.popCount( westCaptures )
+            + Bitboards.popCount( eastCaptures )
+            + 3 * ( Bitboards.popCount( singlePushes & promotionRanks )
+            + Bitboards.popCount( westCaptures & promotionRanks )
+            + Bitboards.popCount( eastCaptures & promotionRanks ) );
+    }
+
+    private static boolean generateEnPassantCaptures( Board pos, Side side,
+        long pawns, int kingSqIndex, long targetSquares,
+        MoveVisitor visitor ) {
+        int to = pos.enPassantTargetSquare().ordinal();
+        long capturers = enPassantCapturers(
+            pos, side, pawns, kingSqIndex, targetSquares );
+        while ( capturers != 0 ) {
+            int from = Bitboards.lsb( capturers );
+            capturers &= capturers - 1;
+            if ( !visitor.visit( from, to, PackedMove.EN_PASSANT_CAPTURE ) ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
 
-        // Directions of aggression (the two diagonal pawn capture squares)
-        Direction[] dirsOfAggression // Let's guess the active color is White
-            = { Direction.NORTHEAST, Direction.NORTHWEST };
+    // Returns the pawns that can legally capture en passant; there are at
+    // most two. The candidates are found by looking up the squares an enemy
+    // pawn on the target square would attack. The capture evades a check
+    // if the captured pawn is the checker or the target square blocks the
+    // check.
+    private static long enPassantCapturers( Board pos, Side side,
+        long pawns, int kingSqIndex, long targetSquares ) {
+        int to = pos.enPassantTargetSquare().ordinal(),
+            capturedSqIndex = to - side.forward;
+        long bishopsQueens = side.enemyBishopsQueens( pos ),
+            rooksQueens = side.enemyRooksQueens( pos );
+        if ( ( targetSquares & ( ( 1L << to ) | ( 1L << capturedSqIndex ) ) )
+            == 0 ) {
+            return CSS.EMPTY_BOARD;
+        }
 
-        if ( pos.turn() == Colour.BLACK ) { // Correct the color if we were wrong
-            dirsOfAggression[ 0 ] = Direction.SOUTHEAST;
-            dirsOfAggression[ 1 ] = Direction.SOUTHWEST;
+        long candidates
+            = AttackTables.pawnAttacks( side.enemyColour, to ) & pawns,
+            capturers = CSS.EMPTY_BOARD;
+        while ( candidates != 0 ) {
+            int from = Bitboards.lsb( candidates );
+            candidates &= candidates - 1;
+
+            long occupancyAfter = ( pos.bothArmies() ^ ( 1L << from )
+                ^ ( 1L << capturedSqIndex ) ) | ( 1L << to );
+            if ( ( MagicBitboards.bishopAttacks( kingSqIndex, occupancyAfter )
+                & bishopsQueens ) == 0
+                && ( MagicBitboards.rookAttacks( kingSqIndex, occupancyAfter )
+                & rooksQueens ) == 0 ) {
+                capturers |= 1L << from;
+            }
         }
-        for ( Direction dir : dirsOfAggression ) {
-            Square hostileSq = aggressivePawnDestSqsSel( sq, pos, dir );
-            if ( hostileSq != null ) {
-                aggressiveSqs.add( hostileSq );
+
+        return capturers;
+    }
+
+    // Generates the moves of the pieces other than the king and the pawns.
+    // A pinned piece may only move along the line through its own square
+    // and the king. Destinations outside targetSquares are dropped, which
+    // is how the check evasion rules get applied; targetSquares never
+    // contains friendly pieces.
+    private static boolean generateNonKingMoves( Board pos, long enemyPieces,
+        long pieces, Square kingSq, long pinnedPieces, long targetSquares,
+        long[] pieceTypeSquares, long anyPieceSquares, MoveVisitor visitor ) {
+        // Each piece's moves are calculated individually. The first step in
+        // getting the moves for an individual piece is getting the
+        // destination squares (destSq's). These include any square where the
+        // chessman can (pseudo-legally) move to.
+        while ( pieces != 0 ) {
+            Square sqOfPiece = Bitboards.lsbSquare( pieces );
+            pieces &= pieces - 1; // Clear lowest bit
+
+            PieceType pieceType
+                = PIECE_TYPES[ pos.pieceIndexAt( sqOfPiece.ordinal() ) % 6 ];
+            long destSquares = pseudoLegalMGPieceTypeSel(
+                sqOfPiece, pieceType, pos ) & targetSquares
+                & allowedSquares(
+                    pieceTypeSquares, anyPieceSquares, pieceType );
+            if ( ( pinnedPieces & sqOfPiece.bit() ) != 0 ) {
+                destSquares
+                    &= Rays.line( kingSq.ordinal(), sqOfPiece.ordinal() );
+            }
+            if ( !addMovesForPiece(
+                sqOfPiece, pieceType, destSquares, enemyPieces, visitor ) ) {
+                return false;
             }
         }
 
-        return aggressiveSqs;
+        return true;
     }
 
-    // Part of aggressivePawnDestSqs()
-    private static Square aggressivePawnDestSqsSel( // SELection
-        Square sq, Position pos, Direction dir ) throws Exception {
-        Square hostileSq = SUM.adjacentSquare( sq, dir );
-        if ( hostileSq == null ) {
-            // Do nothing
-        } else if ( ( hostileSq.bit() & pos.blackArmy() ) != 0 // Victim
-            && ( dir == Direction.NORTHEAST // White's turn
-            || dir == Direction.NORTHWEST ) ) {
-            return hostileSq;
-        } else if ( ( hostileSq.bit() & pos.whiteArmy() ) != 0 // Victim
-            && ( dir == Direction.SOUTHEAST // Black's turn
-            || dir == Direction.SOUTHWEST ) ) {
-            return hostileSq;
+    // Calls the appropriate move generator for the piece type parameter. The
+    // king has a generator of its own (see kingMoveGenerator()) and the
+    // pawns are generated all at once (see generatePawnMoves()), so the
+    // last case is the queen.
+    private static long pseudoLegalMGPieceTypeSel( // SELection
+        Square sq, PieceType pieceType, Board pos ) {
+        switch ( pieceType ) {
+            case BISHOP:
+                return bishopMoveGenerator( sq, pos );
+            case KNIGHT:
+                return knightMoveGenerator( sq, pos );
+            case ROOK:
+                return rookMoveGenerator( sq, pos );
+            default:
+                return queenMoveGenerator( sq, pos );
         }
-        return null;
     }
 
-    // Generates the set of pseudo-legal moves available in the position
-    // parameter. Pseudo-legal move generation is the first step in the
-    // whole move generation process.
-    private static Set<Move> pseudoLegalMoveGenerator( Position pos )
-        throws Exception {
-        Set<Move> moves = new LinkedHashSet<>();
+    // Finds the friendly pieces that are absolutely pinned, i.e., pinned
+    // against their own king. Used by the Board implementations'
+    // pinnedPieces().
+    static long pinnedPieces( int kingSqIndex, Board pos, Side side ) {
+        return singleBlockers( kingSqIndex, side.enemyBishopsQueens( pos ),
+            side.enemyRooksQueens( pos ), pos.bothArmies() )
+            & side.friendlyPieces( pos );
+    }
 
-        EnumSet<Square> piecesOfSideToMove;
-        if ( pos.turn() == Colour.WHITE ) {
-            piecesOfSideToMove = SUM.bitboardToSqSet( pos.whiteArmy() );
-        } else if ( pos.turn() == Colour.BLACK ) {
-            piecesOfSideToMove = SUM.bitboardToSqSet( pos.blackArmy() );
-        } else { // In case of null
-            throw new Exception( "Enum type Colour: " + pos.turn() );
+    // Finds the pieces of either color that are the only piece between the
+    // king on the given square and a slider. The sliders considered are the
+    // ones that would attack the king on an empty board. With the enemy
+    // sliders the friendly blockers are pinned; with the friendly sliders
+    // and the enemy king they are the pieces that can give discovered check.
+    private static long singleBlockers( int kingSqIndex, long bishopsQueens,
+        long rooksQueens, long occupancy ) {
+        long sliders = ( Rays.diagonalRays( kingSqIndex ) & bishopsQueens )
+            | ( Rays.orthogonalRays( kingSqIndex ) & rooksQueens );
+        long singleBlockers = CSS.EMPTY_BOARD;
+
+        while ( sliders != 0 ) {
+            long blockers = Rays.between( kingSqIndex,
+                Bitboards.lsb( sliders ) ) & occupancy;
+            sliders &= sliders - 1;
+            if ( blockers != 0 && ( blockers & ( blockers - 1 ) ) == 0 ) {
+                singleBlockers |= blockers;
+            }
         }
 
-        // Each piece's set of possible moves is calculated individually
-        // to begin with. The first step in getting the set of moves for an
-        // individual piece is getting the destination squares (destSq's).
-        // These include any square where the chessman can (pseudo-legally)
-        // move to.
-        for ( Square sqOfPiece : piecesOfSideToMove ) {
-            EnumSet<Square> destSquares
-                = pseudoLegalMGPieceTypeSel( sqOfPiece, pos );
-            moves.addAll(
-                generateMoveSetForPiece( sqOfPiece, destSquares, pos ) );
+        return singleBlockers;
+    }
+
+    // Returns the destination squares of the king's castling moves as a
+    // bitboard, with the square of each castling move after which the rook
+    // would check the enemy king (on the given square). The legality of the
+    // castling moves themselves is left to the king move generator.
+    private static long castlingCheckSquares(
+        Board pos, Side side, int enemyKingSqIndex ) {
+        if ( ( side.king( pos ) & side.kingSq.bit() ) == 0 ) {
+            return CSS.EMPTY_BOARD;
         }
 
-        return moves;
+        return castlingCheckSquare( pos, side, enemyKingSqIndex,
+            side.kingPassedSq, side.kingDestSq, side.rookSq )
+            | castlingCheckSquare( pos, side, enemyKingSqIndex,
+                side.queensideKingPassedSq, side.queensideKingDestSq,
+                side.queensideRookSq );
     }
 
-    // Resolves the piece type of the piece on the square parameter and calls
-    // the appropriate move generator
-    private static EnumSet<Square> pseudoLegalMGPieceTypeSel( // SELection
-        Square sq, Position pos ) throws Exception {
-        if ( PieceType.PAWN == SUM.resolvePieceType( sq, pos ) ) {
-            return pawnMoveGenerator( sq, pos );
-        } else if ( PieceType.BISHOP == SUM.resolvePieceType( sq, pos ) ) {
-            return bishopMoveGenerator( sq, pos );
-        } else if ( PieceType.KNIGHT == SUM.resolvePieceType( sq, pos ) ) {
-            return knightMoveGenerator( sq, pos );
-        } else if ( PieceType.ROOK == SUM.resolvePieceType( sq, pos ) ) {
-            return rookMoveGenerator( sq, pos );
-        } else if ( PieceType.QUEEN == SUM.resolvePieceType( sq, pos ) ) {
-            return queenMoveGenerator( sq, pos );
-        } else if ( PieceType.KING == SUM.resolvePieceType( sq, pos ) ) {
-            return kingMoveGenerator( sq, pos );
-        } else {
-            throw new Exception( "PieceType constant is null" );
-        }
-    }
-
-    private static Set<Move> legalMoves( Set<Move> pseudoLegalMoves )
-        throws Exception {
-        Set<Move> legalMoves = new LinkedHashSet<>();
-
-        for ( Move move : pseudoLegalMoves ) {
-            //Position posAfterMove = Game.newPos( move.context(), move.from(), move.to() );
-            Position posAfterMove = Position.makeMove( move );
-            Square inactiveKing = SUM.squareBitToSquare(
-                ( posAfterMove.turn() == Colour.WHITE )
-                    ? posAfterMove.blackKing() : posAfterMove.whiteKing() );
-            // Regicides are pieces of the active color that can capture
-            // the enemy king. The presence of regicides means that the
-            // position is illegal.
-            EnumSet<Square> regicides
-                = SUM.pseudoLegalAccess( inactiveKing, posAfterMove );
-            if ( regicides.size() == 0 ) {
-                legalMoves.add( move );
-            }
-        }
-        return legalMoves;
+    // The rook lands on the square the king passes
+    private static long castlingCheckSquare( Board pos, Side side,
+        int enemyKingSqIndex, Square kingPassedSq, Square kingDestSq,
+        Square rookSq ) {
+        long occupancyAfter = ( pos.bothArmies() & ~side.kingSq.bit()
+            & ~rookSq.bit() ) | kingDestSq.bit() | kingPassedSq.bit();
+        return ( ( MagicBitboards.rookAttacks(
+            kingPassedSq.ordinal(), occupancyAfter )
+            & ( 1L << enemyKingSqIndex ) ) != 0 )
+            ? kingDestSq.bit() : CSS.EMPTY_BOARD;
     }
 
-    // Generates the set of pseudo-legal moves for an individual piece
-    private static Set<Move> generateMoveSetForPiece(
-        Square squareOfPiece, EnumSet<Square> destSquaresOfPiece,
-        Position contextPos ) {
-        Set<Move> moves = new LinkedHashSet<>();
+    // Pushes the moves of an individual piece to the visitor. The flags of
+    // each move are set here based on the piece type and the contents of
+    // the destination square.
+    private static boolean addMovesForPiece(
+        Square squareOfPiece, PieceType pieceType, long destSquaresOfPiece,
+        long enemyPieces, MoveVisitor visitor ) {
+        int from = squareOfPiece.ordinal();
+
+        while ( destSquaresOfPiece != 0 ) {
+            int to = Bitboards.lsb( destSquaresOfPiece );
+            destSquaresOfPiece &= destSquaresOfPiece - 1;
+
+            int flags = PackedMove.QUIET;
+            if ( ( enemyPieces & ( 1L << to ) ) != 0 ) {
+                flags = PackedMove.CAPTURE;
+            } else if ( pieceType == PieceType.KING
+                && Math.abs( to - from ) == 2
+                && ( squareOfPiece == Square.E1 || squareOfPiece == Square.E8 ) ) {
+                flags = ( to > from ) ? PackedMove.KINGSIDE_CASTLING
+                    : PackedMove.QUEENSIDE_CASTLING;
+            }
 
-        for ( Square destSquare : destSquaresOfPiece ) {
-            moves.add( new Move( squareOfPiece, destSquare, contextPos ) );
+            if ( !visitor.visit( from, to, flags ) ) {
+                return false;
+            }
         }
 
-        return moves;
+        return true;
     }
 
     //
@@ -414,139 +887,96 @@ public class MoveGenerator {
     // ================================================================
     //
     //
-    private static EnumSet<Square> pawnMoveGenerator( Square sq, Position pos )
-        throws Exception {
-        EnumSet<Square> pawnDestSquares = EnumSet.noneOf( Square.class );
-        pawnDestSquares.addAll( passivePawnDestSqs( sq, pos ) );
-        pawnDestSquares.addAll( aggressivePawnDestSqs( sq, pos ) );
-
-        return pawnDestSquares;
+    // The bishop, rook and queen generators look up the attack set of the
+    // slider in the magic bitboard tables. The attack set includes the first
+    // piece in each direction; it is a capture if the piece is an enemy one.
+    // None of the four generators masks out the friendly pieces; the
+    // caller's target squares do that for all of them at once.
+    private static long bishopMoveGenerator( Square sq, Board pos ) {
+        return MagicBitboards.bishopAttacks( sq.ordinal(), pos.bothArmies() );
     }
 
-    private static EnumSet<Square> bishopMoveGenerator( Square sq, Position pos )
-        throws Exception {
-        EnumSet<Square> bishopDestSquares = EnumSet.noneOf( Square.class );
-        Direction[] dirs = { Direction.NORTHEAST, Direction.SOUTHEAST,
-            Direction.SOUTHWEST, Direction.NORTHWEST };
-
-        long friendlyPieces
-            = ( pos.turn() == Colour.WHITE ) ? pos.whiteArmy() : pos.blackArmy(),
-            enemyPieces
-            = ( pos.turn() == Colour.WHITE ) ? pos.blackArmy() : pos.whiteArmy();
-        for ( Direction dir : dirs ) {
-            // Dest squares in a single diagonal direction (NE, SE, SW or NW)
-            EnumSet<Square> destSquaresInDir
-                = bishopMoveGeneratorSingleDir(
-                    dir, sq, friendlyPieces, enemyPieces );
-            bishopDestSquares.addAll( destSquaresInDir ); // Set union
-        }
-
-        return bishopDestSquares;
-    }
-
-    private static EnumSet<Square> knightMoveGenerator(
-        Square sq, Position pos ) throws Exception {
-        // To begin with the destination squares include any square a knight
-        // could move to (on an empty board) from the square in question
-        EnumSet<Square> knightDestSquares = knightsSquares( sq );
-
-        long friendlyPieces
-            = ( pos.turn() == Colour.WHITE )
-                ? pos.whiteArmy() : pos.blackArmy();
-
+    private static long knightMoveGenerator( Square sq, Board pos ) {
         // From the pseudo-legal moves point of view, the only thing that
         // limits the knight's mobility is a friendly piece on a potential
-        // destination square. We'll now remove the squares of friendly pieces
-        // from the list of potential destination squares.
-        knightDestSquares.removeAll( SUM.bitboardToSqSet( friendlyPieces ) );
-
-        return knightDestSquares;
+        // destination square
+        return AttackTables.knightAttacks( sq.ordinal() );
     }
 
-    private static EnumSet<Square> rookMoveGenerator( Square sq, Position pos )
-        throws Exception {
-        EnumSet<Square> rookDestSquares = EnumSet.noneOf( Square.class );
-
-        long friendlyPieces // Pieces the rook can never capture
-            = ( pos.turn() == Colour.WHITE ) ? pos.whiteArmy() : pos.blackArmy();
+    private static long rookMoveGenerator( Square sq, Board pos ) {
+        return MagicBitboards.rookAttacks( sq.ordinal(), pos.bothArmies() );
+    }
 
-        // Loop over the directions NORTH, EAST, SOUTH and WEST
-        for ( Direction dir : Direction.cardinalDirections() ) {
-            Square nextSq = sq; // Starting point
-            while ( true ) {
-                nextSq = SUM.adjacentSquare( nextSq, dir ); // One square fwd
-                // There's no next square in a particular direction or a
-                // piece of own color is blocking the way
-                if ( nextSq == null || ( friendlyPieces & nextSq.bit() ) != 0 ) {
-                    break;
-                }
+    private static long queenMoveGenerator( Square sq, Board pos ) {
+        return MagicBitboards.queenAttacks( sq.ordinal(), pos.bothArmies() );
+    }
 
-                rookDestSquares.add( nextSq );
-                // The square just added to the set contained a piece
-                // of opposing color
-                if ( ( pos.bothArmies() & nextSq.bit() ) != 0 ) {
-                    break;
-                }
+    // Unlike the other generators, the king generator produces fully legal
+    // destination squares. The king may not move to an attacked square. The
+    // attacks are looked up with the king removed from the board so that
+    // the king can't escape a slider's check by stepping back along the ray.
+    private static long kingMoveGenerator( Square sq, Board pos, Side side,
+        boolean inCheck ) {
+        long friendlyPieces = side.friendlyPieces( pos );
+        long occupancyWithoutKing = pos.bothArmies() & ~sq.bit();
+        Colour enemyColour = side.enemyColour;
+
+        // The king's squares not occupied by a friendly piece
+        long candidates
+            = AttackTables.kingAttacks( sq.ordinal() ) & ~friendlyPieces;
+        long kingDestSquares = CSS.EMPTY_BOARD;
+        while ( candidates != 0 ) {
+            int destSqIndex = Bitboards.lsb( candidates );
+            candidates &= candidates - 1;
+            if ( !Attacks.isSquareAttacked(
+                pos, destSqIndex, enemyColour, occupancyWithoutKing ) ) {
+                kingDestSquares |= 1L << destSqIndex;
             }
         }
-        return rookDestSquares;
-    }
 
-    private static EnumSet<Square> queenMoveGenerator( Square sq, Position pos )
-        throws Exception {
-        EnumSet<Square> queenDestSquares = EnumSet.noneOf( Square.class ),
-            bishopDestSquares = bishopMoveGenerator( sq, pos ),
-            rookDestSquares = rookMoveGenerator( sq, pos );
-
-        queenDestSquares.addAll( rookDestSquares );
-        queenDestSquares.addAll( bishopDestSquares );
-
-        return queenDestSquares;
+        return kingDestSquares | castlingDestSquares( pos, side, inCheck );
     }
 
-    private static EnumSet<Square> kingMoveGenerator( Square sq, Position pos )
-        throws Exception {
-        EnumSet<Square> kingDestSquares = EnumSet.noneOf( Square.class );
-
-        long friendlyPieces
-            = ( pos.turn() == Colour.WHITE ) ? pos.whiteArmy() : pos.blackArmy();
-
-        for ( Direction dir : Direction.values() ) { // The eight directions
-            Square kingsSq = SUM.adjacentSquare( sq, dir );
-            // The square exists and is not occupied by a friendly piece
-            if ( kingsSq != null && ( kingsSq.bit() & friendlyPieces ) == 0 ) {
-                kingDestSquares.add( kingsSq );
-            }
+    // Returns the destination squares of the king's legal castling moves.
+    // Castling is not allowed out of check or through an attacked square.
+    private static long castlingDestSquares(
+        Board pos, Side side, boolean inCheck ) {
+        long castlingDestSquares = CSS.EMPTY_BOARD;
+        if ( inCheck ) {
+            return castlingDestSquares;
         }
 
-        if ( ( pos.turn() == Colour.WHITE && pos.whiteCanCastleKingside() )
-            || ( pos.turn() == Colour.BLACK && pos.blackCanCastleKingside() ) ) {
-            if ( kingsideCastlingPossible( pos ) ) {
-                kingDestSquares.add(
-                    ( pos.turn() == Colour.WHITE ) ? Square.G1 : Square.G8 );
-            }
+        if ( side.canCastleKingside( pos )
+            && ( pos.bothArmies()
+            & ( side.kingPassedSq.bit() | side.kingDestSq.bit() ) ) == 0
+            && castlingPiecesInPlace( pos, side, side.rookSq )
+            && !Attacks.isSquareAttacked(
+                pos, side.kingPassedSq.ordinal(), side.enemyColour )
+            && !Attacks.isSquareAttacked(
+                pos, side.kingDestSq.ordinal(), side.enemyColour ) ) {
+            castlingDestSquares |= side.kingDestSq.bit();
+        }
+        if ( side.canCastleQueenside( pos )
+            && ( pos.bothArmies() & side.queensidePath ) == 0
+            && castlingPiecesInPlace( pos, side, side.queensideRookSq )
+            && !Attacks.isSquareAttacked(
+                pos, side.queensideKingPassedSq.ordinal(), side.enemyColour )
+            && !Attacks.isSquareAttacked(
+                pos, side.queensideKingDestSq.ordinal(), side.enemyColour ) ) {
+            castlingDestSquares |= side.queensideKingDestSq.bit();
         }
 
-        return kingDestSquares;
+        return castlingDestSquares;
     }
 
-    // Incomplete, doesn't do a fully legal job
-    private static boolean kingsideCastlingPossible( Position pos )
-        throws Exception {
-        if ( pos.turn() == Colour.WHITE ) {
-            if ( SUM.resolvePieceType( Square.F1, pos ) == null
-                && SUM.resolvePieceType( Square.G1, pos ) == null ) {
-                return true;
-            }
-        } else if ( pos.turn() == Colour.BLACK ) {
-            if ( SUM.resolvePieceType( Square.F8, pos ) == null
-                && SUM.resolvePieceType( Square.G8, pos ) == null ) {
-                return true;
-            }
-        } else { // pos.turn() == null
-            throw new Exception( "turn() returned: " + pos.turn() );
-        }
-
-        return false;
+    // The castling rights are cleared when the king or the rook moves or
+    // the rook gets captured, so in a game the right alone guarantees that
+    // both stand on their initial squares. A position set up from a FEN
+    // record or with the Position constructor may claim a right without
+    // them, though, so the pieces are checked too.
+    private static boolean castlingPiecesInPlace(
+        Board pos, Side side, Square rookSq ) {
+        return ( side.king( pos ) & side.kingSq.bit() ) != 0
+            && pos.pieceIndexAt( rookSq.ordinal() ) == side.rookIndex;
     }
 }
@@ -0,0 +1,231 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.MoveList;
+import chessosisnbproject.data.PackedMove;
+
+/**
+ * Hands out the legal moves of a position one at a time in the order a
+ * search wants to try them:
+ * <ol>
+ * <li>the hash move, i.e., the best move found for the position earlier
+ * (from a transposition table)</li>
+ * <li>captures and promotions, the most valuable victim first and among
+ * equal victims the least valuable attacker first (MVV-LVA)</li>
+ * <li>the killer moves, i.e., quiet moves that caused a cutoff in sibling
+ * positions</li>
+ * <li>the rest of the quiet moves</li>
+ * </ol>
+ * The moves of each stage are generated only when the previous stage has
+ * run out. A search that gets a cutoff from the hash move or a capture never
+ * pays for generating the quiet moves. The hash move and the killers come
+ * from other positions, so they are checked for legality by generating the
+ * moves of their piece only, and each move is handed out once.
+ * <p>
+ * A MovePicker is meant to be created once per ply and reused with set(),
+ * so picking moves allocates nothing. The position must not change between
+ * set() and the last call to next().
+ *
+ * @author Henrik Lindberg
+ */
+public class MovePicker {
+
+    // The stages in the order next() goes through them
+    private static final int HASH_MOVE = 0, GENERATE_CAPTURES = 1,
+        CAPTURES = 2, KILLERS = 3, GENERATE_QUIETS = 4, QUIETS = 5, DONE = 6;
+
+    // Piece values for the MVV-LVA ordering indexed by piece index modulo
+    // 6, i.e., in the order of PieceType. A king is never a victim.
+    private static final int[] PIECE_VALUES = { 1, 3, 3, 5, 9, 20 };
+
+    private final MoveList captures = new MoveList(),
+        quiets = new MoveList(), pieceMoves = new MoveList();
+    private int[] captureScores = new int[ 64 ];
+    private final int[] killers = new int[ 2 ];
+
+    private Board pos;
+    private int hashMove, stage, index;
+
+    /**
+     * Creates a move picker for the given position.
+     *
+     * @param pos the position to pick the moves of
+     * @param hashMove the packed move to try first or PackedMove.NONE
+     * @param killer1 killer move or PackedMove.NONE
+     * @param killer2 killer move or PackedMove.NONE
+     */
+    public MovePicker( Board pos, int hashMove, int killer1, int killer2 ) {
+        set( pos, hashMove, killer1, killer2 );
+    }
+
+    /**
+     * Starts over with the given position. Moves that aren't legal in the
+     * position are simply left out.
+     *
+     * @param pos the position to pick the moves of
+     * @param hashMove the packed move to try first or PackedMove.NONE
+     * @param killer1 killer move or PackedMove.NONE
+     * @param killer2 killer move or PackedMove.NONE
+     */
+    public final void set( Board pos, int hashMove, int killer1, int killer2 ) {
+        this.pos = pos;
+        this.hashMove = hashMove;
+        this.killers[ 0 ] = killer1;
+        this.killers[ 1 ] = killer2;
+        this.stage = HASH_MOVE;
+    }
+
+    /**
+     * Returns the next move to try.
+     *
+     * @return a legal packed move or PackedMove.NONE when all the moves
+     * have been handed out
+     */
+    public int next() {
+        while ( true ) {
+            switch ( this.stage ) {
+                case HASH_MOVE:
+                    this.stage = GENERATE_CAPTURES;
+                    this.hashMove = legalVersion( this.hashMove, false );
+                    if ( this.hashMove != PackedMove.NONE ) {
+                        return this.hashMove;
+                    }
+                    break;
+                case GENERATE_CAPTURES:
+                    MoveGenerator.captureGenerator( this.pos, this.captures );
+                    scoreCaptures();
+                    this.index = 0;
+                    this.stage = CAPTURES;
+                    break;
+                case CAPTURES:
+                    while ( this.index < this.captures.size() ) {
+                        int move = pickBestCapture( this.index++ );
+                        if ( !sameMove( move, this.hashMove ) ) {
+                            return move;
+                        }
+                    }
+                    this.index = 0;
+                    this.stage = KILLERS;
+                    break;
+                case KILLERS:
+                    while ( this.index < this.killers.length ) {
+                        int killer = legalVersion(
+                            this.killers[ this.index ], true );
+                        // A killer the hash move or the other killer
+                        // already covers is dropped
+                        if ( sameMove( killer, this.hashMove )
+                            || ( this.index == 1
+                            && sameMove( killer, this.killers[ 0 ] ) ) ) {
+                            killer = PackedMove.NONE;
+                        }
+                        this.killers[ this.index++ ] = killer;
+                        if ( killer != PackedMove.NONE ) {
+                            return killer;
+                        }
+                    }
+                    this.stage = GENERATE_QUIETS;
+                    break;
+                case GENERATE_QUIETS:
+                    MoveGenerator.quietMoveGenerator( this.pos, this.quiets );
+                    this.index = 0;
+                    this.stage = QUIETS;
+                    break;
+                case QUIETS:
+                    while ( this.index < this.quiets.size() ) {
+                        int move = this.quiets.get( this.index++ );
+                        if ( !sameMove( move, this.hashMove )
+                            && !sameMove( move, this.killers[ 0 ] )
+                            && !sameMove( move, this.killers[ 1 ] ) ) {
+                            return move;
+                        }
+                    }
+                    this.stage = DONE;
+                    break;
+                default: // DONE
+                    return PackedMove.NONE;
+            }
+        }
+    }
+
+    //
+    // =============================
+    // == Private utility methods ==
+    // =============================
+    //
+    //
+    // Looks the move up among the legal moves of the piece on its source
+    // square and returns the generated version of it (with the flags set)
+    // or NONE if the move isn't legal. If quietOnly is true, captures and
+    // promotions count as not found.
+    private int legalVersion( int move, boolean quietOnly ) {
+        if ( move == PackedMove.NONE ) {
+            return PackedMove.NONE;
+        }
+
+        MoveGenerator.pieceMoveGenerator(
+            this.pos, PackedMove.from( move ), this.pieceMoves );
+        for ( int i = 0; i < this.pieceMoves.size(); i++ ) {
+            int generated = this.pieceMoves.get( i );
+            if ( sameMove( generated, move ) ) {
+                return ( quietOnly && ( PackedMove.isCapture( generated )
+                    || PackedMove.isPromotion( generated ) ) )
+                    ? PackedMove.NONE : generated;
+            }
+        }
+
+        return PackedMove.NONE;
+    }
+
+    // MVV-LVA: ten times the value of the victim minus the value of the
+    // attacker. A promotion adds the value of the new piece.
+    private void scoreCaptures() {
+        if ( this.captureScores.length < this.captures.size() ) {
+            this.captureScores = new int[ this.captures.size() ];
+        }
+
+        for ( int i = 0; i < this.captures.size(); i++ ) {
+            int move = this.captures.get( i ),
+                victim = this.pos.pieceIndexAt( PackedMove.to( move ) ),
+                attacker = this.pos.pieceIndexAt( PackedMove.from( move ) );
+            int score = -PIECE_VALUES[ attacker % 6 ];
+            if ( PackedMove.flags( move ) == PackedMove.EN_PASSANT_CAPTURE ) {
+                score += 10 * PIECE_VALUES[ 0 ];
+            } else if ( victim != Position.EMPTY_SQUARE ) {
+                score += 10 * PIECE_VALUES[ victim % 6 ];
+            }
+            if ( PackedMove.isPromotion( move ) ) {
+                score += 10 * PIECE_VALUES[
+                    PackedMove.promotion( move ).ordinal() ];
+            }
+            this.captureScores[ i ] = score;
+        }
+    }
+
+    // Selection sort one step at a time: the best remaining capture is
+    // swapped to position i and returned. Since a cutoff usually comes
+    // early, sorting the whole list up front would be wasted work.
+    private int pickBestCapture( int i ) {
+        int best = i;
+        for ( int j = i + 1; j < this.captures.size(); j++ ) {
+            if ( this.captureScores[ j ] > this.captureScores[ best ] ) {
+                best = j;
+            }
+        }
+
+        int move = this.captures.get( best ), score = this.captureScores[ best ];
+        this.captures.set( best, this.captures.get( i ) );
+        this.captureScores[ best ] = this.captureScores[ i ];
+        this.captures.set( i, move );
+        this.captureScores[ i ] = score;
+
+        return move;
+    }
+
+    // Two packed moves are the same move if they have the same squares and
+    // promote to the same piece type; the other flags follow from these
+    private static boolean sameMove( int move, int otherMove ) {
+        return move != PackedMove.NONE
+            && PackedMove.from( move ) == PackedMove.from( otherMove )
+            && PackedMove.to( move ) == PackedMove.to( otherMove )
+            && PackedMove.promotion( move ) == PackedMove.promotion( otherMove );
+    }
+}
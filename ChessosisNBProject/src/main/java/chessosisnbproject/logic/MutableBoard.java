@@ -0,0 +1,764 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.Bitboards;
+import chessosisnbproject.data.CSS;
+import chessosisnbproject.data.Colour;
+import chessosisnbproject.data.PackedMove;
+import chessosisnbproject.data.PieceType;
+import chessosisnbproject.data.Square;
+import java.util.Arrays;
+
+/**
+ * A mutable chess position for search and perft. Where Position.makeMove()
+ * creates a new Position object for every move, a MutableBoard is changed in
+ * place with make() and changed back with unmake(). The information that
+ * can't be worked out from the move alone (the captured piece, the castling
+ * rights, the en passant target square, the halfmove clock and the Zobrist
+ * key) is pushed on a per-ply undo stack that is allocated up front, so
+ * making and unmaking moves allocates nothing.
+ * <p>
+ * The rules applied by make() are the same as those of Position.makeMove(),
+ * so the two always agree on the resulting position. A MutableBoard can be
+ * created from a Position and turned back into one with toPosition(), e.g.,
+ * to record the game history in class Game.
+ * <p>
+ * Optionally the board keeps track of the attacks of every piece, the
+ * squares each side attacks and the number of pieces of each side that
+ * attack each square (see the attack tracking constructor). The attack
+ * data is updated incrementally by make() and unmake(): only the pieces
+ * on the squares the move changes get their attacks recomputed, plus the
+ * sliders whose attacks reach one of those squares, since they are the
+ * only ones a change of occupancy can lengthen or shorten. Evaluation
+ * terms such as mobility and king safety can then read the attacks
+ * without looking them up piece by piece.
+ *
+ * @author Henrik Lindberg
+ */
+public class MutableBoard implements Board {
+
+    // The castling right bits of this.castlingRights
+    private static final int WHITE_KINGSIDE = 1, WHITE_QUEENSIDE = 2,
+        BLACK_KINGSIDE = 4, BLACK_QUEENSIDE = 8;
+
+    // The number of plies the undo stack has room for initially. The stack
+    // grows if a line of play is longer than this.
+    private static final int DEFAULT_MAX_PLY = 256;
+
+    // The 12 piece placement bitboards indexed by the constants
+    // Position.WHITE_PAWNS to Position.BLACK_KING
+    private final long[] pieces = new long[ 12 ];
+
+    // The mailbox: the piece index of the piece on each square or
+    // Position.EMPTY_SQUARE. Kept in sync with this.pieces by make() and
+    // unmake().
+    private final byte[] pieceAt = new byte[ 64 ];
+
+    private Colour turn;
+    private int castlingRights;
+    private Square enPassantTargetSquare;
+    private int halfmoveClock, fullmoveNumber;
+    private long zobristKey;
+
+    // The undo stack: one entry per move made. The moved and captured
+    // pieces are stored as indexes of this.pieces (-1 for no capture).
+    private int[] undoMove, undoMovedPiece, undoCapturedPiece,
+        undoCastlingRights, undoHalfmoveClock;
+    private Square[] undoEnPassantTargetSquare;
+    private long[] undoZobristKey;
+    private int ply;
+
+    // The attack data, null unless the board was created with attack
+    // tracking on. The arrays are indexed by the ordinal of the Colour of
+    // the attacking pieces. attacksFrom holds the attacks of the piece on
+    // each square (empty if the square is empty or the piece is of the
+    // other color), attackerCount the number of pieces attacking each
+    // square and attackedSquares the squares with a nonzero count.
+    private final long[][] attacksFrom;
+    private final byte[][] attackerCount;
+    private final long[] attackedSquares;
+
+    /**
+     * Creates a mutable copy of the given position.
+     *
+     * @param pos the position to copy
+     */
+    public MutableBoard( Position pos ) {
+        this( pos, false );
+    }
+
+    /**
+     * Creates a mutable copy of the given position, optionally with attack
+     * tracking on. Attack tracking makes make() and unmake() slower, so it
+     * only pays off if the attack data is read in most of the positions,
+     * e.g., by the evaluation.
+     *
+     * @param pos the position to copy
+     * @param trackAttacks true to keep the attack data up to date
+     */
+    public MutableBoard( Position pos, boolean trackAttacks ) {
+        if ( trackAttacks ) {
+            this.attacksFrom = new long[ 2 ][ 64 ];
+            this.attackerCount = new byte[ 2 ][ 64 ];
+            this.attackedSquares = new long[ 2 ];
+        } else {
+            this.attacksFrom = null;
+            this.attackerCount = null;
+            this.attackedSquares = null;
+        }
+        this.undoMove = new int[ DEFAULT_MAX_PLY ];
+        this.undoMovedPiece = new int[ DEFAULT_MAX_PLY ];
+        this.undoCapturedPiece = new int[ DEFAULT_MAX_PLY ];
+        this.undoCastlingRights = new int[ DEFAULT_MAX_PLY ];
+        this.undoHalfmoveClock = new int[ DEFAULT_MAX_PLY ];
+        this.undoEnPassantTargetSquare = new Square[ DEFAULT_MAX_PLY ];
+        this.undoZobristKey = new long[ DEFAULT_MAX_PLY ];
+        set( pos );
+    }
+
+    /**
+     * Replaces the contents of the board with the given position. The undo
+     * stack is emptied.
+     *
+     * @param pos the position to copy
+     */
+    public final void set( Position pos ) {
+        this.pieces[ Position.WHITE_PAWNS ] = pos.whitePawns();
+        this.pieces[ Position.WHITE_BISHOPS ] = pos.whiteBishops();
+        this.pieces[ Position.WHITE_KNIGHTS ] = pos.whiteKnights();
+        this.pieces[ Position.WHITE_ROOKS ] = pos.whiteRooks();
+        this.pieces[ Position.WHITE_QUEEN ] = pos.whiteQueens();
+        this.pieces[ Position.WHITE_KING ] = pos.whiteKing();
+        this.pieces[ Position.BLACK_PAWNS ] = pos.blackPawns();
+        this.pieces[ Position.BLACK_BISHOPS ] = pos.blackBishops();
+        this.pieces[ Position.BLACK_KNIGHTS ] = pos.blackKnights();
+        this.pieces[ Position.BLACK_ROOKS ] = pos.blackRooks();
+        this.pieces[ Position.BLACK_QUEEN ] = pos.blackQueens();
+        this.pieces[ Position.BLACK_KING ] = pos.blackKing();
+        this.turn = pos.turn();
+        this.castlingRights
+            = ( pos.whiteCanCastleKingside() ? WHITE_KINGSIDE : 0 )
+            | ( pos.whiteCanCastleQueenside() ? WHITE_QUEENSIDE : 0 )
+            | ( pos.blackCanCastleKingside() ? BLACK_KINGSIDE : 0 )
+            | ( pos.blackCanCastleQueenside() ? BLACK_QUEENSIDE : 0 );
+        this.enPassantTargetSquare = pos.enPassantTargetSquare();
+        this.halfmoveClock = pos.halfmoveClock();
+        this.fullmoveNumber = pos.fullmoveNumber();
+        this.zobristKey = pos.zobristKey();
+        for ( int sq = 0; sq < 64; sq++ ) {
+            this.pieceAt[ sq ] = (byte) pos.pieceIndexAt( sq );
+        }
+        this.ply = 0;
+
+        if ( tracksAttacks() ) {
+            for ( int colour = 0; colour < 2; colour++ ) {
+                Arrays.fill( this.attacksFrom[ colour ], CSS.EMPTY_BOARD );
+                Arrays.fill( this.attackerCount[ colour ], (byte) 0 );
+                this.attackedSquares[ colour ] = CSS.EMPTY_BOARD;
+            }
+            updateAttacks( ~CSS.EMPTY_BOARD );
+        }
+    }
+
+    /**
+     * Creates an immutable snapshot of the current state of the board.
+     *
+     * @return a new Position object
+     */
+    public Position toPosition() {
+        return new Position(
+            this.pieces[ Position.WHITE_PAWNS ],
+            this.pieces[ Position.WHITE_BISHOPS ],
+            this.pieces[ Position.WHITE_KNIGHTS ],
+            this.pieces[ Position.WHITE_ROOKS ],
+            this.pieces[ Position.WHITE_QUEEN ],
+            this.pieces[ Position.WHITE_KING ],
+            this.pieces[ Position.BLACK_PAWNS ],
+            this.pieces[ Position.BLACK_BISHOPS ],
+            this.pieces[ Position.BLACK_KNIGHTS ],
+            this.pieces[ Position.BLACK_ROOKS ],
+            this.pieces[ Position.BLACK_QUEEN ],
+            this.pieces[ Position.BLACK_KING ],
+            this.turn,
+            whiteCanCastleKingside(), whiteCanCastleQueenside(),
+            blackCanCastleKingside(), blackCanCastleQueenside(),
+            this.enPassantTargetSquare,
+            this.halfmoveClock, this.fullmoveNumber );
+    }
+
+    /**
+     * Makes a packed move (see class PackedMove) on the board. Like
+     * Position.makeMove(), the method works out the details of the move from
+     * the board, so the flags of the packed move don't need to be set.
+     *
+     * <p>
+     * The move isn't validated: it must be a legal move of the current
+     * position, i.e., one produced by MoveGenerator. Moves from outside
+     * the program are checked where they enter it (see Game.newMove()).
+     *
+     * @param move the packed move to make
+     */
+    public void make( int move ) {
+        int from = PackedMove.from( move ), to = PackedMove.to( move );
+        long fromBit = 1L << from, toBit = 1L << to;
+
+        int movedPiece = this.pieceAt[ from ];
+        boolean castling = isCastlingMove( from, to, movedPiece );
+        int capturedSqIndex = enPassantCaptureSquare( from, to, movedPiece,
+            this.enPassantTargetSquare );
+        int capturedPiece = castling ? -1 : this.pieceAt[ capturedSqIndex ];
+
+        // Save the state that make() is about to overwrite
+        if ( this.ply == this.undoMove.length ) {
+            growUndoStack();
+        }
+        this.undoMove[ this.ply ] = move;
+        this.undoMovedPiece[ this.ply ] = movedPiece;
+        this.undoCastlingRights[ this.ply ] = this.castlingRights;
+        this.undoEnPassantTargetSquare[ this.ply ]
+            = this.enPassantTargetSquare;
+        this.undoHalfmoveClock[ this.ply ] = this.halfmoveClock;
+        this.undoZobristKey[ this.ply ] = this.zobristKey;
+
+        // The parts of the Zobrist key that change with every move
+        this.zobristKey ^= Zobrist.sideToMove( Colour.BLACK )
+            ^ Zobrist.enPassant( this.enPassantTargetSquare )
+            ^ castlingRightsKey();
+
+        boolean pawnMove = movedPiece == Position.WHITE_PAWNS
+            || movedPiece == Position.BLACK_PAWNS;
+        this.enPassantTargetSquare = null;
+        if ( castling ) {
+            makeCastlingMove( from, to, movedPiece );
+            ++this.halfmoveClock;
+        } else {
+            // The piece that ends up on the 'to' square, see
+            // Position.makeRegularMove()
+            int newPiece = movedPiece;
+            if ( pawnMove && ( toBit & ( CSS.RANK_1 | CSS.RANK_8 ) ) != 0 ) {
+                newPiece += PackedMove.isPromotion( move )
+                    ? PackedMove.promotion( move ).ordinal()
+                    : PieceType.QUEEN.ordinal();
+            }
+            if ( capturedPiece >= 0 ) {
+                this.pieces[ capturedPiece ] ^= 1L << capturedSqIndex;
+                this.pieceAt[ capturedSqIndex ] = Position.EMPTY_SQUARE;
+                this.zobristKey
+                    ^= Zobrist.pieceSquare( capturedPiece, capturedSqIndex );
+            }
+            this.pieces[ movedPiece ] ^= fromBit;
+            this.pieces[ newPiece ] ^= toBit;
+            this.pieceAt[ from ] = Position.EMPTY_SQUARE;
+            this.pieceAt[ to ] = (byte) newPiece;
+            this.zobristKey ^= Zobrist.pieceSquare( movedPiece, from )
+                ^ Zobrist.pieceSquare( newPiece, to );
+            this.castlingRights &= ~( castlingRightsLost( from )
+                | castlingRightsLost( to ) );
+            if ( capturedPiece >= 0 || pawnMove ) {
+                this.halfmoveClock = 0;
+            } else {
+                ++this.halfmoveClock;
+            }
+            if ( pawnMove && Math.abs( to - from ) == 16 ) {
+                this.enPassantTargetSquare
+                    = Bitboards.square( ( from + to ) / 2 );
+                this.zobristKey ^= Zobrist.enPassant( this.enPassantTargetSquare );
+            }
+        }
+        this.undoCapturedPiece[ this.ply ] = capturedPiece;
+        this.zobristKey ^= castlingRightsKey();
+        ++this.ply;
+
+        if ( tracksAttacks() ) {
+            updateAttacks( castling ? castlingSquares( from, to )
+                : fromBit | toBit | ( 1L << capturedSqIndex ) );
+        }
+
+        if ( this.turn == Colour.BLACK ) {
+            ++this.fullmoveNumber;
+        }
+        this.turn = ( this.turn == Colour.WHITE ) ? Colour.BLACK : Colour.WHITE;
+    }
+
+    /**
+     * Takes back the move made last. Calling unmake() more times than make()
+     * has been called (since the creation of the board or the last call to
+     * set()) is an error.
+     *
+     * @throws IllegalStateException if there's no move to take back
+     */
+    public void unmake() {
+        if ( this.ply == 0 ) {
+            throw new IllegalStateException( "No move to unmake" );
+        }
+        --this.ply;
+
+        this.turn = ( this.turn == Colour.WHITE ) ? Colour.BLACK : Colour.WHITE;
+        if ( this.turn == Colour.BLACK ) {
+            --this.fullmoveNumber;
+        }
+
+        int move = this.undoMove[ this.ply ],
+            movedPiece = this.undoMovedPiece[ this.ply ],
+            capturedPiece = this.undoCapturedPiece[ this.ply ];
+        int from = PackedMove.from( move ), to = PackedMove.to( move );
+        this.enPassantTargetSquare
+            = this.undoEnPassantTargetSquare[ this.ply ];
+
+        long changedSquares = ( 1L << from ) | ( 1L << to );
+        if ( isCastlingMove( from, to, movedPiece ) ) {
+            unmakeCastlingMove( from, to, movedPiece );
+            changedSquares = castlingSquares( from, to );
+        } else {
+            // The piece on the 'to' square differs from the moved piece
+            // after a promotion
+            this.pieces[ this.pieceAt[ to ] ] ^= 1L << to;
+            this.pieces[ movedPiece ] ^= 1L << from;
+            this.pieceAt[ to ] = Position.EMPTY_SQUARE;
+            this.pieceAt[ from ] = (byte) movedPiece;
+            if ( capturedPiece >= 0 ) {
+                int capturedSqIndex = enPassantCaptureSquare(
+                    from, to, movedPiece, this.enPassantTargetSquare );
+                this.pieces[ capturedPiece ] ^= 1L << capturedSqIndex;
+                this.pieceAt[ capturedSqIndex ] = (byte) capturedPiece;
+                changedSquares |= 1L << capturedSqIndex;
+            }
+        }
+        if ( tracksAttacks() ) {
+            updateAttacks( changedSquares );
+        }
+
+        this.castlingRights = this.undoCastlingRights[ this.ply ];
+        this.halfmoveClock = this.undoHalfmoveClock[ this.ply ];
+        this.zobristKey = this.undoZobristKey[ this.ply ];
+    }
+
+    /**
+     * Returns the number of moves made and not yet taken back.
+     *
+     * @return the depth of the undo stack
+     */
+    public int ply() {
+        return this.ply;
+    }
+
+    /**
+     * Tells whether the board keeps track of the attacks.
+     *
+     * @return true if the board was created with attack tracking on
+     */
+    public boolean tracksAttacks() {
+        return this.attacksFrom != null;
+    }
+
+    /**
+     * Returns the squares attacked by at least one piece of the given color.
+     * The board must have attack tracking on.
+     *
+     * @param colour the color of the attacking pieces
+     * @return a bitboard of the attacked squares, the same as
+     * Attacks.attackedSquares( this, colour )
+     * @throws IllegalStateException if attack tracking is off
+     */
+    public long attackedSquares( Colour colour ) {
+        checkAttackTracking();
+        return this.attackedSquares[ colour.ordinal() ];
+    }
+
+    /**
+     * Returns the number of pieces of the given color that attack the given
+     * square. The board must have attack tracking on.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @param colour the color of the attacking pieces
+     * @return the number of attackers, the same as the number of bits in
+     * Attacks.attackersTo( this, sqIndex, bothArmies(), colour )
+     * @throws IllegalStateException if attack tracking is off
+     */
+    public int attackerCount( int sqIndex, Colour colour ) {
+        checkAttackTracking();
+        return this.attackerCount[ colour.ordinal() ][ sqIndex ];
+    }
+
+    /**
+     * Returns the squares attacked by the piece on the given square. The
+     * board must have attack tracking on.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return a bitboard of the attacked squares; empty if the square is
+     * empty
+     * @throws IllegalStateException if attack tracking is off
+     */
+    public long attacksFrom( int sqIndex ) {
+        checkAttackTracking();
+        return this.attacksFrom[ Colour.WHITE.ordinal() ][ sqIndex ]
+            | this.attacksFrom[ Colour.BLACK.ordinal() ][ sqIndex ];
+    }
+
+    public long whitePawns() {
+        return this.pieces[ Position.WHITE_PAWNS ];
+    }
+
+    public long whiteBishops() {
+        return this.pieces[ Position.WHITE_BISHOPS ];
+    }
+
+    public long whiteKnights() {
+        return this.pieces[ Position.WHITE_KNIGHTS ];
+    }
+
+    public long whiteRooks() {
+        return this.pieces[ Position.WHITE_ROOKS ];
+    }
+
+    public long whiteQueens() {
+        return this.pieces[ Position.WHITE_QUEEN ];
+    }
+
+    public long whiteKing() {
+        return this.pieces[ Position.WHITE_KING ];
+    }
+
+    public long blackPawns() {
+        return this.pieces[ Position.BLACK_PAWNS ];
+    }
+
+    public long blackBishops() {
+        return this.pieces[ Position.BLACK_BISHOPS ];
+    }
+
+    public long blackKnights() {
+        return this.pieces[ Position.BLACK_KNIGHTS ];
+    }
+
+    public long blackRooks() {
+        return this.pieces[ Position.BLACK_ROOKS ];
+    }
+
+    public long blackQueens() {
+        return this.pieces[ Position.BLACK_QUEEN ];
+    }
+
+    public long blackKing() {
+        return this.pieces[ Position.BLACK_KING ];
+    }
+
+    public Colour turn() {
+        return this.turn;
+    }
+
+    public boolean whiteCanCastleKingside() {
+        return ( this.castlingRights & WHITE_KINGSIDE ) != 0;
+    }
+
+    public boolean whiteCanCastleQueenside() {
+        return ( this.castlingRights & WHITE_QUEENSIDE ) != 0;
+    }
+
+    public boolean blackCanCastleKingside() {
+        return ( this.castlingRights & BLACK_KINGSIDE ) != 0;
+    }
+
+    public boolean blackCanCastleQueenside() {
+        return ( this.castlingRights & BLACK_QUEENSIDE ) != 0;
+    }
+
+    public Square enPassantTargetSquare() {
+        return this.enPassantTargetSquare;
+    }
+
+    public int halfmoveClock() {
+        return this.halfmoveClock;
+    }
+
+    public int fullmoveNumber() {
+        return this.fullmoveNumber;
+    }
+
+    public long zobristKey() {
+        return this.zobristKey;
+    }
+
+    public int pieceIndexAt( int sqIndex ) {
+        return this.pieceAt[ sqIndex ];
+    }
+
+    public long whiteArmy() {
+        return this.pieces[ Position.WHITE_PAWNS ]
+            | this.pieces[ Position.WHITE_BISHOPS ]
+            | this.pieces[ Position.WHITE_KNIGHTS ]
+            | this.pieces[ Position.WHITE_ROOKS ]
+            | this.pieces[ Position.WHITE_QUEEN ]
+            | this.pieces[ Position.WHITE_KING ];
+    }
+
+    public long blackArmy() {
+        return this.pieces[ Position.BLACK_PAWNS ]
+            | this.pieces[ Position.BLACK_BISHOPS ]
+            | this.pieces[ Position.BLACK_KNIGHTS ]
+            | this.pieces[ Position.BLACK_ROOKS ]
+            | this.pieces[ Position.BLACK_QUEEN ]
+            | this.pieces[ Position.BLACK_KING ];
+    }
+
+    public long bothArmies() {
+        return whiteArmy() | blackArmy();
+    }
+
+    /**
+     * Returns the enemy pieces that give check to the king of the side to
+     * move. Unlike Position, the board doesn't remember them: they are
+     * looked up on every call.
+     *
+     * @return a bitboard of the checking pieces; empty if the side to move
+     * isn't in check or has no king
+     */
+    public long checkers() {
+        Side side = Side.of( this.turn );
+        long king = side.king( this );
+        return ( king == 0 ) ? CSS.EMPTY_BOARD : Attacks.attackersTo(
+            this, Bitboards.lsb( king ), bothArmies(), side.enemyColour );
+    }
+
+    /**
+     * Returns the pieces of the side to move that are absolutely pinned.
+     * Looked up on every call like checkers().
+     *
+     * @return a bitboard of the pinned pieces; empty if the side to move has
+     * no king
+     */
+    public long pinnedPieces() {
+        Side side = Side.of( this.turn );
+        long king = side.king( this );
+        return ( king == 0 ) ? CSS.EMPTY_BOARD
+            : MoveGenerator.pinnedPieces( Bitboards.lsb( king ), this, side );
+    }
+
+    //
+    // =============================
+    // == Private utility methods ==
+    // =============================
+    //
+    //
+    // Returns the square of the piece a move captures (if any). It's the
+    // 'to' square except in an en passant capture, where it's the square of
+    // the pawn that has just passed the target square.
+    private static int enPassantCaptureSquare( int from, int to,
+        int movedPiece, Square enPassantTargetSquare ) {
+        if ( enPassantTargetSquare != null
+            && to == enPassantTargetSquare.ordinal()
+            && ( from & 7 ) != ( to & 7 ) ) {
+            if ( movedPiece == Position.WHITE_PAWNS ) {
+                return to - 8;
+            } else if ( movedPiece == Position.BLACK_PAWNS ) {
+                return to + 8;
+            }
+        }
+        return to;
+    }
+
+    // Same test as in Position: the king moves from its initial square two
+    // squares towards the h-file or the a-file
+    private static boolean isCastlingMove( int from, int to, int movedPiece ) {
+        return ( ( from == Square.E1.ordinal()
+            && movedPiece == Position.WHITE_KING )
+            || ( from == Square.E8.ordinal()
+            && movedPiece == Position.BLACK_KING ) )
+            && Math.abs( to - from ) == 2;
+    }
+
+    // Moves the king and the rook and clears the castling rights of the
+    // side to move. Mirrors Position.makeCastlingMove().
+    private void makeCastlingMove( int from, int to, int king ) {
+        int rook = castlingRook( king ),
+            rookFrom = castlingRookSquare( from, to ), rookTo = ( from + to ) / 2;
+        this.zobristKey ^= Zobrist.pieceSquare( king, from )
+            ^ Zobrist.pieceSquare( king, to )
+            ^ Zobrist.pieceSquare( rook, rookFrom )
+            ^ Zobrist.pieceSquare( rook, rookTo );
+        moveCastlingPieces( king, from, to, rook, rookFrom, rookTo );
+
+        this.castlingRights &= ( king == Position.WHITE_KING )
+            ? ~( WHITE_KINGSIDE | WHITE_QUEENSIDE )
+            : ~( BLACK_KINGSIDE | BLACK_QUEENSIDE );
+    }
+
+    // The squares between the king and the rook are empty before castling,
+    // so moving the pieces back is the exact inverse of makeCastlingMove()
+    private void unmakeCastlingMove( int from, int to, int king ) {
+        moveCastlingPieces( king, to, from, castlingRook( king ),
+            ( from + to ) / 2, castlingRookSquare( from, to ) );
+    }
+
+    private void moveCastlingPieces( int king, int kingFrom, int kingTo,
+        int rook, int rookFrom, int rookTo ) {
+        this.pieces[ king ] ^= ( 1L << kingFrom ) | ( 1L << kingTo );
+        this.pieces[ rook ] ^= ( 1L << rookFrom ) | ( 1L << rookTo );
+        this.pieceAt[ kingFrom ] = this.pieceAt[ rookFrom ]
+            = Position.EMPTY_SQUARE;
+        this.pieceAt[ kingTo ] = (byte) king;
+        this.pieceAt[ rookTo ] = (byte) rook;
+    }
+
+    private static int castlingRook( int king ) {
+        return ( king == Position.WHITE_KING )
+            ? Position.WHITE_ROOKS : Position.BLACK_ROOKS;
+    }
+
+    // The rook starts from the corner on the side the king moves towards
+    // and lands on the square the king passes
+    private static int castlingRookSquare( int from, int to ) {
+        return ( to > from ) ? from + 3 : from - 4;
+    }
+
+    // The squares of the king and the rook that a castling move changes
+    private static long castlingSquares( int from, int to ) {
+        return ( 1L << from ) | ( 1L << to )
+            | ( 1L << castlingRookSquare( from, to ) )
+            | ( 1L << ( ( from + to ) / 2 ) );
+    }
+
+    // The castling rights a move from or to the square takes away, see
+    // Position.castlingRightsLost()
+    private static int castlingRightsLost( int sqIndex ) {
+        switch ( sqIndex ) {
+            case 0:
+                return WHITE_QUEENSIDE;
+            case 4:
+                return WHITE_KINGSIDE | WHITE_QUEENSIDE;
+            case 7:
+                return WHITE_KINGSIDE;
+            case 56:
+                return BLACK_QUEENSIDE;
+            case 60:
+                return BLACK_KINGSIDE | BLACK_QUEENSIDE;
+            case 63:
+                return BLACK_KINGSIDE;
+            default:
+                return 0;
+        }
+    }
+
+    private void checkAttackTracking() {
+        if ( !tracksAttacks() ) {
+            throw new IllegalStateException( "Attack tracking is off" );
+        }
+    }
+
+    // Brings the attack data up to date after the contents of the changed
+    // squares have changed. The attacks of the pieces on those squares are
+    // looked up anew. Of the rest of the pieces only the sliders can be
+    // affected, and only the ones whose attacks reach a changed square: a
+    // slider's attacks end at the first piece in each direction, so a
+    // change of occupancy beyond that piece makes no difference.
+    private void updateAttacks( long changedSquares ) {
+        long occupancy = bothArmies();
+
+        long squares = changedSquares;
+        while ( squares != 0 ) {
+            int sq = Bitboards.lsb( squares );
+            squares &= squares - 1;
+            setAttacksFrom( sq, occupancy );
+        }
+
+        long sliders = ( this.pieces[ Position.WHITE_BISHOPS ]
+            | this.pieces[ Position.WHITE_ROOKS ]
+            | this.pieces[ Position.WHITE_QUEEN ]
+            | this.pieces[ Position.BLACK_BISHOPS ]
+            | this.pieces[ Position.BLACK_ROOKS ]
+            | this.pieces[ Position.BLACK_QUEEN ] ) & ~changedSquares;
+        while ( sliders != 0 ) {
+            int sq = Bitboards.lsb( sliders );
+            sliders &= sliders - 1;
+            if ( ( attacksFrom( sq ) & changedSquares ) != 0 ) {
+                setAttacksFrom( sq, occupancy );
+            }
+        }
+    }
+
+    // Looks up the attacks of the piece on the square and replaces the
+    // square's old attacks with them. The old attacks may belong to a piece
+    // of either color, so both colors' entries are replaced.
+    private void setAttacksFrom( int sqIndex, long occupancy ) {
+        int piece = this.pieceAt[ sqIndex ];
+        boolean white = piece >= 0 && piece < Position.BLACK_PAWNS;
+
+        // The piece index modulo 6 is the index of the white piece of the
+        // same type; an empty square matches none of the cases
+        long attacks = CSS.EMPTY_BOARD;
+        switch ( piece % 6 ) {
+            case Position.WHITE_PAWNS:
+                attacks = AttackTables.pawnAttacks(
+                    white ? Colour.WHITE : Colour.BLACK, sqIndex );
+                break;
+            case Position.WHITE_BISHOPS:
+                attacks = MagicBitboards.bishopAttacks( sqIndex, occupancy );
+                break;
+            case Position.WHITE_KNIGHTS:
+                attacks = AttackTables.knightAttacks( sqIndex );
+                break;
+            case Position.WHITE_ROOKS:
+                attacks = MagicBitboards.rookAttacks( sqIndex, occupancy );
+                break;
+            case Position.WHITE_QUEEN:
+                attacks = MagicBitboards.queenAttacks( sqIndex, occupancy );
+                break;
+            case Position.WHITE_KING:
+                attacks = AttackTables.kingAttacks( sqIndex );
+                break;
+        }
+
+        replaceAttacks( Colour.WHITE.ordinal(), sqIndex,
+            white ? attacks : CSS.EMPTY_BOARD );
+        replaceAttacks( Colour.BLACK.ordinal(), sqIndex,
+            white ? CSS.EMPTY_BOARD : attacks );
+    }
+
+    // Replaces the attacks from the square by the given ones and adjusts
+    // the attacker counts and the attacked squares of the color by the
+    // squares that were dropped or added
+    private void replaceAttacks( int colour, int sqIndex, long attacks ) {
+        long oldAttacks = this.attacksFrom[ colour ][ sqIndex ];
+        if ( oldAttacks == attacks ) {
+            return;
+        }
+        this.attacksFrom[ colour ][ sqIndex ] = attacks;
+
+        byte[] counts = this.attackerCount[ colour ];
+        long dropped = oldAttacks & ~attacks, added = attacks & ~oldAttacks;
+        while ( dropped != 0 ) {
+            int sq = Bitboards.lsb( dropped );
+            dropped &= dropped - 1;
+            if ( --counts[ sq ] == 0 ) {
+                this.attackedSquares[ colour ] &= ~( 1L << sq );
+            }
+        }
+        while ( added != 0 ) {
+            int sq = Bitboards.lsb( added );
+            added &= added - 1;
+            if ( counts[ sq ]++ == 0 ) {
+                this.attackedSquares[ colour ] |= 1L << sq;
+            }
+        }
+    }
+
+    private long castlingRightsKey() {
+        return Zobrist.castlingRights( whiteCanCastleKingside(),
+            whiteCanCastleQueenside(), blackCanCastleKingside(),
+            blackCanCastleQueenside() );
+    }
+
+    private void growUndoStack() {
+        int newLength = 2 * this.undoMove.length;
+        this.undoMove = Arrays.copyOf( this.undoMove, newLength );
+        this.undoMovedPiece = Arrays.copyOf( this.undoMovedPiece, newLength );
+        this.undoCapturedPiece
+            = Arrays.copyOf( this.undoCapturedPiece, newLength );
+        this.undoCastlingRights
+            = Arrays.copyOf( this.undoCastlingRights, newLength );
+        this.undoHalfmoveClock
+            = Arrays.copyOf( this.undoHalfmoveClock, newLength );
+        this.undoEnPassantTargetSquare
+            = Arrays.copyOf( this.undoEnPassantTargetSquare, newLength );
+        this.undoZobristKey = Arrays.copyOf( this.undoZobristKey, newLength );
+    }
+}
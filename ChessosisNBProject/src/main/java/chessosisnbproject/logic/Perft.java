@@ -0,0 +1,359 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.MoveList;
+import chessosisnbproject.data.PackedMove;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Perft (performance test) counts the leaf nodes of the game tree of a
+ * position to a fixed depth. The counts of a few well-known positions are
+ * published, and since they only come out right if every rule of chess is
+ * followed, perft is the standard way to check a move generator together
+ * with make and unmake. The divide output lists the count under each root
+ * move, so a wrong total can be narrowed down to a move by comparing the
+ * lists of two programs and descending into the move that differs.
+ * <p>
+ * Run from the command line with
+ * <pre>
+ *   java -cp target/classes chessosisnbproject.logic.Perft "FEN" depth
+ * </pre>
+ * to print the divide output of the position, the node count, the elapsed
+ * time and the nodes per second. A third argument, a thread count, runs
+ * parallelPerft() instead and compares it with a single-threaded run.
+ * Without arguments the reference positions are run and checked against
+ * their published counts. The leaf nodes are counted with
+ * MoveGenerator.countLegalMoves() without being made.
+ *
+ * @author Henrik Lindberg
+ */
+public class Perft {
+
+    // The reference positions: the starting position, "Kiwipete" and the
+    // positions 3 to 6 of the Chess Programming Wiki's perft results page
+    private static final String[] REFERENCE_FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+
+    // The published node counts of the reference positions for the depths
+    // 1, 2, 3 and so on. The suite runs each position to its last depth.
+    private static final long[][] REFERENCE_COUNTS = {
+        { 20, 400, 8902, 197281, 4865609 },
+        { 48, 2039, 97862, 4085603 },
+        { 14, 191, 2812, 43238, 674624, 11030083 },
+        { 6, 264, 9467, 422333, 15833292 },
+        { 44, 1486, 62379, 2103487 },
+        { 46, 2079, 89890, 3894594 }
+    };
+
+    // The number of plies parallelPerft() splits into tasks. The root alone
+    // gives too few tasks to keep many threads busy to the end: the
+    // starting position has 20 moves but 400 positions two plies deep.
+    private static final int SPLIT_PLIES = 2;
+
+    // Subtrees of this depth or less are counted by a single task
+    private static final int MIN_SPLIT_DEPTH = 2;
+
+    // Private constructor -- no instances, no Javadoc
+    private Perft() {
+    }
+
+    /**
+     * Runs perft from the command line. The arguments are a FEN record, a
+     * depth and optionally a thread count; without arguments the reference
+     * positions are checked.
+     *
+     * @param args the FEN record, the depth and the thread count, or
+     * nothing
+     * @throws Exception if the FEN record is invalid
+     */
+    public static void main( String[] args ) throws Exception {
+        if ( args.length == 0 ) {
+            if ( !runReferencePositions( System.out ) ) {
+                System.exit( 1 );
+            }
+            return;
+        } else if ( args.length != 2 && args.length != 3 ) {
+            System.err.println( "Usage: Perft [\"FEN\" depth [threads]]" );
+            System.exit( 2 );
+        }
+
+        Position pos = Position.fENToPosition( args[ 0 ] );
+        MutableBoard board = new MutableBoard( pos );
+        int depth = Integer.parseInt( args[ 1 ] );
+        if ( args.length == 3 ) {
+            compareWithSerial( pos, depth, Integer.parseInt( args[ 2 ] ),
+                System.out );
+            return;
+        }
+        long start = System.nanoTime();
+        long nodes = divide( board, depth, System.out );
+        printTotals( System.out, nodes, System.nanoTime() - start );
+    }
+
+    /**
+     * Counts the leaf nodes of the game tree to the given depth. The board
+     * is left as it was.
+     *
+     * @param board the position to start from
+     * @param depth the number of plies, at least 0
+     * @return the number of leaf nodes
+     */
+    public static long perft( MutableBoard board, int depth ) {
+        return perft( board, depth, moveLists( depth ) );
+    }
+
+    /**
+     * Counts the leaf nodes of the game tree to the given depth separately
+     * for each legal move of the position and prints the count of each move
+     * in coordinate notation (see PackedMove.toString()). The board is left
+     * as it was.
+     *
+     * @param board the position to start from
+     * @param depth the number of plies, at least 1
+     * @param out where to print the count of each move
+     * @return the number of leaf nodes, i.e., the sum of the printed counts
+     */
+    public static long divide( MutableBoard board, int depth,
+        PrintStream out ) {
+        MoveList[] moveLists = moveLists( depth );
+        MoveList moves = moveLists[ depth - 1 ];
+        MoveGenerator.moveGenerator( board, moves );
+
+        long nodes = 0;
+        for ( int i = 0; i < moves.size(); i++ ) {
+            board.make( moves.get( i ) );
+            long moveNodes = perft( board, depth - 1, moveLists );
+            board.unmake();
+            out.println( PackedMove.toString( moves.get( i ) ) + ": "
+                + moveNodes );
+            nodes += moveNodes;
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Counts the leaf nodes of the game tree to the given depth with a
+     * ForkJoinPool of the given number of threads and prints the node count
+     * of each thread. The first two plies are split into tasks, one per
+     * position, which idle threads steal from the busy ones. A task below
+     * the split plies counts its subtree on a MutableBoard of its own, so
+     * the threads share nothing but the immutable Position objects of the
+     * split plies. Each thread adds the nodes and the time of its tasks to
+     * a counter of its own, and the counters are summed at the end.
+     * <p>
+     * Besides the counts the method prints the worker utilization: the time
+     * the threads spent counting divided by the threads times the elapsed
+     * time. A low figure means threads ran out of tasks or waited for each
+     * other; memory contention shows up in the speedup over a serial run
+     * instead (see main()).
+     *
+     * @param pos the position to start from
+     * @param depth the number of plies, at least 0
+     * @param threads the number of worker threads, at least 1
+     * @param out where to print the counts
+     * @return the number of leaf nodes
+     */
+    public static long parallelPerft( Position pos, int depth, int threads,
+        PrintStream out ) {
+        final List<WorkerCounter> counters
+            = Collections.synchronizedList( new ArrayList<WorkerCounter>() );
+        ThreadLocal<WorkerCounter> workerCounter
+            = new ThreadLocal<WorkerCounter>() {
+                @Override
+                protected WorkerCounter initialValue() {
+                    WorkerCounter counter = new WorkerCounter(
+                        Thread.currentThread().getName() );
+                    counters.add( counter );
+                    return counter;
+                }
+            };
+
+        ForkJoinPool pool = new ForkJoinPool( threads );
+        long start = System.nanoTime();
+        try {
+            pool.invoke( new PerftTask( pos, depth, 0, workerCounter ) );
+        } finally {
+            pool.shutdown();
+        }
+        long nanos = System.nanoTime() - start;
+
+        long nodes = 0, busyNanos = 0;
+        synchronized ( counters ) {
+            for ( WorkerCounter counter : counters ) {
+                nodes += counter.nodes;
+                busyNanos += counter.nanos;
+            }
+            for ( WorkerCounter counter : counters ) {
+                out.printf( "  %s: %d nodes (%.1f%%) in %.3f s%n",
+                    counter.threadName, counter.nodes,
+                    100.0 * counter.nodes / Math.max( nodes, 1 ),
+                    counter.nanos / 1e9 );
+            }
+        }
+        printTotals( out, nodes, nanos );
+        out.printf( "  worker utilization %.1f%%%n",
+            100.0 * busyNanos / ( (double) threads * Math.max( nanos, 1 ) ) );
+
+        return nodes;
+    }
+
+    /**
+     * Runs the reference positions to the depths of their published counts
+     * and prints the result of each.
+     *
+     * @param out where to print the results
+     * @return true if every count matched
+     * @throws Exception if a reference FEN record is invalid
+     */
+    public static boolean runReferencePositions( PrintStream out )
+        throws Exception {
+        boolean allMatch = true;
+
+        for ( int i = 0; i < REFERENCE_FENS.length; i++ ) {
+            int depth = REFERENCE_COUNTS[ i ].length;
+            long expected = REFERENCE_COUNTS[ i ][ depth - 1 ];
+            MutableBoard board = new MutableBoard(
+                Position.fENToPosition( REFERENCE_FENS[ i ] ) );
+
+            long start = System.nanoTime();
+            long nodes = perft( board, depth );
+            long nanos = System.nanoTime() - start;
+
+            out.println( REFERENCE_FENS[ i ] );
+            out.printf( "  depth %d: %s%n", depth, ( nodes == expected )
+                ? "OK" : "MISMATCH, expected " + expected );
+            printTotals( out, nodes, nanos );
+            allMatch &= nodes == expected;
+        }
+
+        return allMatch;
+    }
+
+    //
+    // =============================
+    // == Private utility methods ==
+    // =============================
+    //
+    //
+    // The recursion behind perft() and divide(). The moves of the last ply
+    // are counted, not made.
+    private static long perft( MutableBoard board, int depth,
+        MoveList[] moveLists ) {
+        if ( depth == 0 ) {
+            return 1;
+        } else if ( depth == 1 ) {
+            return MoveGenerator.countLegalMoves( board );
+        }
+
+        MoveList moves = moveLists[ depth - 1 ];
+        MoveGenerator.moveGenerator( board, moves );
+        long nodes = 0;
+        for ( int i = 0; i < moves.size(); i++ ) {
+            board.make( moves.get( i ) );
+            nodes += perft( board, depth - 1, moveLists );
+            board.unmake();
+        }
+
+        return nodes;
+    }
+
+    // Times perft() and parallelPerft() on the same position and prints the
+    // speedup and the scaling efficiency, i.e., the speedup per thread
+    private static void compareWithSerial( Position pos, int depth,
+        int threads, PrintStream out ) {
+        long start = System.nanoTime();
+        long serialNodes = perft( new MutableBoard( pos ), depth );
+        long serialNanos = System.nanoTime() - start;
+        out.println( "1 thread:" );
+        printTotals( out, serialNodes, serialNanos );
+
+        out.println( threads + " threads:" );
+        start = System.nanoTime();
+        long nodes = parallelPerft( pos, depth, threads, out );
+        long nanos = System.nanoTime() - start;
+
+        if ( nodes != serialNodes ) {
+            out.println( "  MISMATCH with the serial count " + serialNodes );
+        }
+        double speedup = (double) serialNanos / Math.max( nanos, 1 );
+        out.printf( "  speedup %.2f, scaling efficiency %.1f%%%n",
+            speedup, 100.0 * speedup / threads );
+    }
+
+    // One move list per ply so that the recursion allocates nothing
+    private static MoveList[] moveLists( int depth ) {
+        MoveList[] moveLists = new MoveList[ Math.max( depth, 1 ) ];
+        for ( int i = 0; i < moveLists.length; i++ ) {
+            moveLists[ i ] = new MoveList();
+        }
+        return moveLists;
+    }
+
+    private static void printTotals( PrintStream out, long nodes,
+        long nanos ) {
+        out.printf( "  %d nodes in %.3f s, %.0f nodes per second%n",
+            nodes, nanos / 1e9, nodes / Math.max( nanos / 1e9, 1e-9 ) );
+    }
+
+    // The nodes counted by one thread and the time it spent counting them.
+    // Only the thread itself updates the fields.
+    private static final class WorkerCounter {
+
+        private final String threadName;
+        private long nodes, nanos;
+
+        WorkerCounter( String threadName ) {
+            this.threadName = threadName;
+        }
+    }
+
+    // Splits the first SPLIT_PLIES plies of the tree into subtasks, one per
+    // move, and counts the subtrees below them on a private MutableBoard
+    private static final class PerftTask extends RecursiveAction {
+
+        private final Position pos;
+        private final int depth, ply;
+        private final ThreadLocal<WorkerCounter> workerCounter;
+
+        PerftTask( Position pos, int depth, int ply,
+            ThreadLocal<WorkerCounter> workerCounter ) {
+            this.pos = pos;
+            this.depth = depth;
+            this.ply = ply;
+            this.workerCounter = workerCounter;
+        }
+
+        @Override
+        protected void compute() {
+            if ( this.ply < SPLIT_PLIES && this.depth > MIN_SPLIT_DEPTH ) {
+                MoveList moves = new MoveList();
+                MoveGenerator.moveGenerator( this.pos, moves );
+                PerftTask[] subtasks = new PerftTask[ moves.size() ];
+                for ( int i = 0; i < moves.size(); i++ ) {
+                    subtasks[ i ] = new PerftTask(
+                        Position.makeMove( this.pos, moves.get( i ) ),
+                        this.depth - 1, this.ply + 1, this.workerCounter );
+                }
+                invokeAll( subtasks );
+                return;
+            }
+
+            long start = System.nanoTime();
+            long nodes = perft( new MutableBoard( this.pos ), this.depth );
+            WorkerCounter counter = this.workerCounter.get();
+            counter.nodes += nodes;
+            counter.nanos += System.nanoTime() - start;
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package chessosisnbproject.logic;
 
+import chessosisnbproject.data.Bitboards;
 import chessosisnbproject.data.CSS;
 import chessosisnbproject.data.Colour;
 import chessosisnbproject.data.Move;
+import chessosisnbproject.data.PackedMove;
 import chessosisnbproject.data.Piece;
+import chessosisnbproject.data.PieceType;
 import chessosisnbproject.data.Square;
-import java.util.Objects;
 import java.util.Random;
 import java.util.regex.Pattern;
 
@@ -29,38 +31,63 @@ import java.util.regex.Pattern;
  *
  * @author Henrik Lindberg
  */
-public class Position {
-
-    // The 12 fundamental bitboards that correspond to the different
-    // types of chessmen (chess pieces) on the board.
-    private final long whitePawnBB, whiteBishopBB, whiteKnightBB,
-        whiteRookBB, whiteQueenBB, whiteKingBB,
-        blackPawnBB, blackBishopBB, blackKnightBB,
-        blackRookBB, blackQueenBB, blackKingBB;
-
-    // Indicates who's turn it is to move
-    private final Colour turn;
-
-    // Castling rights
-    private final boolean whiteCanCastleKingside, whiteCanCastleQueenside,
-        blackCanCastleKingside, blackCanCastleQueenside;
-
-    // "En passant target square in algebraic notation. If there's no
-    // en passant target square, this is "-". If a pawn has just made a
-    // two-square move, this is the position "behind" the pawn. This is
-    // recorded regardless of whether there is a pawn in position to make
-    // an en passant capture." --Wikipedia
-    private final Square enPassantTargetSquare;
-
-    // "Halfmove clock: This is the number of halfmoves since the last capture
-    // or pawn advance. This is used to determine if a draw can be claimed
-    // under the fifty-move rule." --Wikipedia
-    private final int halfmoveClock;
+public class Position implements Board {
+
+    // The placement of the pieces as two color bitboards and six piece
+    // type bitboards. Each of the 12 piece bitboards is the intersection of
+    // a color and a piece type, e.g., whitePawns() is pawnBB & whiteBB, and
+    // the color bitboards are the armies.
+    private final long whiteBB, blackBB,
+        pawnBB, bishopBB, knightBB, rookBB, queenBB, kingBB;
+
+    // The state word: the side to move, the castling rights, the file of
+    // the en passant target square and the halfmove clock, packed into one
+    // int (see the STATE_ constants). The rank of the en passant target
+    // square follows from the side to move.
+    private final int state;
 
     // "Fullmove number: The number of the full move. It starts at 1, and is
     // incremented after Black's move." --Wikipedia
     private final int fullmoveNumber;
 
+    // The Zobrist key (see class Zobrist) of the position. It's computed
+    // from scratch by the constructors and incrementally by makeMove().
+    private final long zobristKey;
+
+    // The mailbox: the piece index (Position.WHITE_PAWNS to
+    // Position.BLACK_KING) of the piece on each square or EMPTY_SQUARE.
+    // Indexed by the bit index of the square. Redundant with the bitboards
+    // but answers "what's on this square" with a single array read.
+    private final byte[] pieceAt;
+
+    // The piece lists: the bit indexes of the squares of each side's pieces
+    private final byte[] whitePieceSquares, blackPieceSquares;
+
+    // The pieces giving check and the pinned pieces of the side to move,
+    // worked out on the first call of checkers() or pinnedPieces(). The
+    // volatile flag is set after the two bitboards, so a thread that sees
+    // it set sees them too.
+    private long checkersBB, pinnedPiecesBB;
+    private volatile boolean checkersAndPinsKnown;
+
+    // The layout of the state word. The lowest bit is set when Black is to
+    // move and the next four hold the castling rights. The en passant field
+    // holds the file of the target square plus one, zero meaning no target
+    // square. The halfmove clock takes the remaining 23 bits.
+    private static final int STATE_BLACK_TO_MOVE = 1,
+        STATE_WHITE_KINGSIDE = 2, STATE_WHITE_QUEENSIDE = 4,
+        STATE_BLACK_KINGSIDE = 8, STATE_BLACK_QUEENSIDE = 16,
+        STATE_EN_PASSANT_SHIFT = 5, STATE_EN_PASSANT_MASK = 15,
+        STATE_HALFMOVE_CLOCK_SHIFT = 9,
+        STATE_CASTLING_RIGHTS = STATE_WHITE_KINGSIDE | STATE_WHITE_QUEENSIDE
+            | STATE_BLACK_KINGSIDE | STATE_BLACK_QUEENSIDE;
+
+    /**
+     * The largest halfmove clock a Position can hold.
+     */
+    public static final int MAX_HALFMOVE_CLOCK
+        = ( 1 << ( 32 - STATE_HALFMOVE_CLOCK_SHIFT ) ) - 1;
+
     /**
      * The constructor whose parameters describe any chess position completely
      * (apart from the rule of draw by threefold repetition). This is the
@@ -104,31 +131,68 @@ public class Position {
         Square enPassantTargetSquare,
         int halfmoveClock, int fullmoveNumber
     ) {
-        // Initialize white chessmen
-        this.whitePawnBB = whitePawnBB;
-        this.whiteBishopBB = whiteBishopBB;
-        this.whiteKnightBB = whiteKnightBB;
-        this.whiteRookBB = whiteRookBB;
-        this.whiteQueenBB = whiteQueenBB;
-        this.whiteKingBB = whiteKingBB;
-        // Initialize black chessmen
-        this.blackPawnBB = blackPawnBB;
-        this.blackBishopBB = blackBishopBB;
-        this.blackKnightBB = blackKnightBB;
-        this.blackRookBB = blackRookBB;
-        this.blackQueenBB = blackQueenBB;
-        this.blackKingBB = blackKingBB;
-        // Set the active color
-        this.turn = turn;
-        // Set castling rights
-        this.whiteCanCastleKingside = whiteCanCastleKingside;
-        this.whiteCanCastleQueenside = whiteCanCastleQueenside;
-        this.blackCanCastleKingside = blackCanCastleKingside;
-        this.blackCanCastleQueenside = blackCanCastleQueenside;
-        // Initialize the three remaining fields of the Position object
-        this.enPassantTargetSquare = enPassantTargetSquare;
-        this.halfmoveClock = halfmoveClock;
+        this(
+            whitePawnBB, whiteBishopBB, whiteKnightBB,
+            whiteRookBB, whiteQueenBB, whiteKingBB,
+            blackPawnBB, blackBishopBB, blackKnightBB,
+            blackRookBB, blackQueenBB, blackKingBB,
+            turn,
+            whiteCanCastleKingside, whiteCanCastleQueenside,
+            blackCanCastleKingside, blackCanCastleQueenside,
+            enPassantTargetSquare,
+            halfmoveClock, fullmoveNumber,
+            Zobrist.key( new long[]{
+                whitePawnBB, whiteBishopBB, whiteKnightBB,
+                whiteRookBB, whiteQueenBB, whiteKingBB,
+                blackPawnBB, blackBishopBB, blackKnightBB,
+                blackRookBB, blackQueenBB, blackKingBB },
+                turn,
+                whiteCanCastleKingside, whiteCanCastleQueenside,
+                blackCanCastleKingside, blackCanCastleQueenside,
+                enPassantTargetSquare ),
+            null, null, null
+        );
+    }
+
+    // The constructor that does the actual work of the one above. The
+    // Zobrist key, the mailbox and the piece lists are parameters so that
+    // makeMove() can pass in values it has updated incrementally instead of
+    // having them computed from scratch. Null arrays get computed from the
+    // bitboards.
+    private Position(
+        long whitePawnBB, long whiteBishopBB, long whiteKnightBB,
+        long whiteRookBB, long whiteQueenBB, long whiteKingBB,
+        long blackPawnBB, long blackBishopBB, long blackKnightBB,
+        long blackRookBB, long blackQueenBB, long blackKingBB,
+        Colour turn,
+        boolean whiteCanCastleKingside, boolean whiteCanCastleQueenside,
+        boolean blackCanCastleKingside, boolean blackCanCastleQueenside,
+        Square enPassantTargetSquare,
+        int halfmoveClock, int fullmoveNumber,
+        long zobristKey, byte[] pieceAt,
+        byte[] whitePieceSquares, byte[] blackPieceSquares
+    ) {
+        this.whiteBB = whitePawnBB | whiteBishopBB | whiteKnightBB
+            | whiteRookBB | whiteQueenBB | whiteKingBB;
+        this.blackBB = blackPawnBB | blackBishopBB | blackKnightBB
+            | blackRookBB | blackQueenBB | blackKingBB;
+        this.pawnBB = whitePawnBB | blackPawnBB;
+        this.bishopBB = whiteBishopBB | blackBishopBB;
+        this.knightBB = whiteKnightBB | blackKnightBB;
+        this.rookBB = whiteRookBB | blackRookBB;
+        this.queenBB = whiteQueenBB | blackQueenBB;
+        this.kingBB = whiteKingBB | blackKingBB;
+        this.state = state( turn,
+            whiteCanCastleKingside, whiteCanCastleQueenside,
+            blackCanCastleKingside, blackCanCastleQueenside,
+            enPassantTargetSquare, halfmoveClock );
         this.fullmoveNumber = fullmoveNumber;
+        this.zobristKey = zobristKey;
+        this.pieceAt = ( pieceAt != null ) ? pieceAt : mailbox( this );
+        this.whitePieceSquares = ( whitePieceSquares != null )
+            ? whitePieceSquares : pieceList( whiteArmy() );
+        this.blackPieceSquares = ( blackPieceSquares != null )
+            ? blackPieceSquares : pieceList( blackArmy() );
     }
 
     /**
@@ -205,7 +269,9 @@ public class Position {
      randomized. Note that in most cases randomizing a field of a Position
      object is likely to produce inconsistent data. In other words, this
      constructor doesn't produce a random chess position but rather an object
-     with junk contents.
+     with junk contents. Since the pieces are stored as color and piece type
+     bitboards, random piece bitboards that overlap each other don't come
+     back unchanged from the accessors.
 
      JUNIT TEST: randomizingPositionConstructorTest()
      */
@@ -235,58 +301,76 @@ public class Position {
         Random rand = new Random();
 
         // Initialize white chessmen
-        this.whitePawnBB
+        long whitePawnBB
             = randomWhitePawnBB ? rand.nextLong() : pos.whitePawns();
-        this.whiteBishopBB
+        long whiteBishopBB
             = randomWhiteBishopBB ? rand.nextLong() : pos.whiteBishops();
-        this.whiteKnightBB
+        long whiteKnightBB
             = randomWhiteKnightBB ? rand.nextLong() : pos.whiteKnights();
-        this.whiteRookBB
+        long whiteRookBB
             = randomWhiteRookBB ? rand.nextLong() : pos.whiteRooks();
-        this.whiteQueenBB
+        long whiteQueenBB
             = randomWhiteQueenBB ? rand.nextLong() : pos.whiteQueens();
-        this.whiteKingBB
+        long whiteKingBB
             = randomWhiteKingBB ? rand.nextLong() : pos.whiteKing();
         // Initialize black chessmen
-        this.blackPawnBB
+        long blackPawnBB
             = randomBlackPawnBB ? rand.nextLong() : pos.blackPawns();
-        this.blackBishopBB
+        long blackBishopBB
             = randomBlackBishopBB ? rand.nextLong() : pos.blackBishops();
-        this.blackKnightBB
+        long blackKnightBB
             = randomBlackKnightBB ? rand.nextLong() : pos.blackKnights();
-        this.blackRookBB
+        long blackRookBB
             = randomBlackRookBB ? rand.nextLong() : pos.blackRooks();
-        this.blackQueenBB
+        long blackQueenBB
             = randomBlackQueenBB ? rand.nextLong() : pos.blackQueens();
-        this.blackKingBB
+        long blackKingBB
             = randomBlackKingBB ? rand.nextLong() : pos.blackKing();
         // Set the active color
-        this.turn = randomTurn
+        Colour turn = randomTurn
             ? ( rand.nextBoolean() ? Colour.WHITE : Colour.BLACK )
             : pos.turn();
         // Set castling rights
-        this.whiteCanCastleKingside
+        boolean whiteCanCastleKingside
             = randomWhiteCanCastleKingside
                 ? rand.nextBoolean() : pos.whiteCanCastleKingside();
-        this.whiteCanCastleQueenside
+        boolean whiteCanCastleQueenside
             = randomWhiteCanCastleQueenside
                 ? rand.nextBoolean() : pos.whiteCanCastleQueenside();
-        this.blackCanCastleKingside
+        boolean blackCanCastleKingside
             = randomBlackCanCastleKingside
                 ? rand.nextBoolean() : pos.blackCanCastleKingside();
-        this.blackCanCastleQueenside
+        boolean blackCanCastleQueenside
             = randomBlackCanCastleQueenside
                 ? rand.nextBoolean() : pos.blackCanCastleQueenside();
         // Initialize the three remaining fields of the Position object.
         // Note that there's a 50 % chance of the en passant target square
         // being null.
-        this.enPassantTargetSquare = randomEnPassantTargetSquare
+        Square enPassantTargetSquare = randomEnPassantTargetSquare
             ? ( rand.nextBoolean() ? null : SUM.randomSquare() )
             : pos.enPassantTargetSquare();
-        this.halfmoveClock = randomHalfmoveClock
-            ? rand.nextInt() : pos.halfmoveClock();
+        int halfmoveClock = randomHalfmoveClock
+            ? rand.nextInt( MAX_HALFMOVE_CLOCK + 1 ) : pos.halfmoveClock();
         this.fullmoveNumber = randomFullmoveNumber
             ? rand.nextInt() : pos.fullmoveNumber();
+        this.whiteBB = whitePawnBB | whiteBishopBB | whiteKnightBB
+            | whiteRookBB | whiteQueenBB | whiteKingBB;
+        this.blackBB = blackPawnBB | blackBishopBB | blackKnightBB
+            | blackRookBB | blackQueenBB | blackKingBB;
+        this.pawnBB = whitePawnBB | blackPawnBB;
+        this.bishopBB = whiteBishopBB | blackBishopBB;
+        this.knightBB = whiteKnightBB | blackKnightBB;
+        this.rookBB = whiteRookBB | blackRookBB;
+        this.queenBB = whiteQueenBB | blackQueenBB;
+        this.kingBB = whiteKingBB | blackKingBB;
+        this.state = state( turn,
+            whiteCanCastleKingside, whiteCanCastleQueenside,
+            blackCanCastleKingside, blackCanCastleQueenside,
+            enPassantTargetSquare, halfmoveClock );
+        this.zobristKey = Zobrist.key( this );
+        this.pieceAt = mailbox( this );
+        this.whitePieceSquares = pieceList( whiteArmy() );
+        this.blackPieceSquares = pieceList( blackArmy() );
     }
 
     /*
@@ -308,91 +392,90 @@ public class Position {
         long[] longBasedBBs
             = Position.stringBasedBBsToLongBasedBBs( stringBasedBBs );
 
-        // White pawn BB
-        this.whitePawnBB = longBasedBBs[ Position.WHITE_PAWNS ];
-        // White bishop BB
-        this.whiteBishopBB = longBasedBBs[ Position.WHITE_BISHOPS ];
-        // White knight BB
-        this.whiteKnightBB = longBasedBBs[ Position.WHITE_KNIGHTS ];
-        // White rook BB
-        this.whiteRookBB = longBasedBBs[ Position.WHITE_ROOKS ];
-        // White queen BB
-        this.whiteQueenBB = longBasedBBs[ Position.WHITE_QUEEN ];
-        // White king BB
-        this.whiteKingBB = longBasedBBs[ Position.WHITE_KING ];
-        // Black pawn BB
-        this.blackPawnBB = longBasedBBs[ Position.BLACK_PAWNS ];
-        // Black bishop BB
-        this.blackBishopBB = longBasedBBs[ Position.BLACK_BISHOPS ];
-        // Black knight BB
-        this.blackKnightBB = longBasedBBs[ Position.BLACK_KNIGHTS ];
-        // Black rook BB
-        this.blackRookBB = longBasedBBs[ Position.BLACK_ROOKS ];
-        // Black queen BB
-        this.blackQueenBB = longBasedBBs[ Position.BLACK_QUEEN ];
-        // Black king BB
-        this.blackKingBB = longBasedBBs[ Position.BLACK_KING ];
-
-        this.turn = Colour.WHITE;
-
-        this.whiteCanCastleKingside = true;
-        this.whiteCanCastleQueenside = true;
-        this.blackCanCastleKingside = true;
-        this.blackCanCastleQueenside = true;
-
-        this.enPassantTargetSquare = null;
-
-        this.halfmoveClock = 0;
+        this.whiteBB = longBasedBBs[ Position.WHITE_PAWNS ]
+            | longBasedBBs[ Position.WHITE_BISHOPS ]
+            | longBasedBBs[ Position.WHITE_KNIGHTS ]
+            | longBasedBBs[ Position.WHITE_ROOKS ]
+            | longBasedBBs[ Position.WHITE_QUEEN ]
+            | longBasedBBs[ Position.WHITE_KING ];
+        this.blackBB = longBasedBBs[ Position.BLACK_PAWNS ]
+            | longBasedBBs[ Position.BLACK_BISHOPS ]
+            | longBasedBBs[ Position.BLACK_KNIGHTS ]
+            | longBasedBBs[ Position.BLACK_ROOKS ]
+            | longBasedBBs[ Position.BLACK_QUEEN ]
+            | longBasedBBs[ Position.BLACK_KING ];
+        this.pawnBB = longBasedBBs[ Position.WHITE_PAWNS ]
+            | longBasedBBs[ Position.BLACK_PAWNS ];
+        this.bishopBB = longBasedBBs[ Position.WHITE_BISHOPS ]
+            | longBasedBBs[ Position.BLACK_BISHOPS ];
+        this.knightBB = longBasedBBs[ Position.WHITE_KNIGHTS ]
+            | longBasedBBs[ Position.BLACK_KNIGHTS ];
+        this.rookBB = longBasedBBs[ Position.WHITE_ROOKS ]
+            | longBasedBBs[ Position.BLACK_ROOKS ];
+        this.queenBB = longBasedBBs[ Position.WHITE_QUEEN ]
+            | longBasedBBs[ Position.BLACK_QUEEN ];
+        this.kingBB = longBasedBBs[ Position.WHITE_KING ]
+            | longBasedBBs[ Position.BLACK_KING ];
+
+        // White to move, all castling rights, no en passant target square
+        // and a halfmove clock of zero
+        this.state = state(
+            Colour.WHITE, true, true, true, true, null, 0 );
 
         this.fullmoveNumber = 1;
+
+        this.zobristKey = Zobrist.key( this );
+        this.pieceAt = mailbox( this );
+        this.whitePieceSquares = pieceList( whiteArmy() );
+        this.blackPieceSquares = pieceList( blackArmy() );
     }
 
     public long whitePawns() {
-        return this.whitePawnBB;
+        return this.pawnBB & this.whiteBB;
     }
 
     public long whiteBishops() {
-        return this.whiteBishopBB;
+        return this.bishopBB & this.whiteBB;
     }
 
     public long whiteKnights() {
-        return this.whiteKnightBB;
+        return this.knightBB & this.whiteBB;
     }
 
     public long whiteRooks() {
-        return this.whiteRookBB;
+        return this.rookBB & this.whiteBB;
     }
 
     public long whiteQueens() {
-        return this.whiteQueenBB;
+        return this.queenBB & this.whiteBB;
     }
 
     public long whiteKing() {
-        return this.whiteKingBB;
+        return this.kingBB & this.whiteBB;
     }
 
     public long blackPawns() {
-        return this.blackPawnBB;
+        return this.pawnBB & this.blackBB;
     }
 
     public long blackBishops() {
-        return this.blackBishopBB;
+        return this.bishopBB & this.blackBB;
     }
 
     public long blackKnights() {
-        return this.blackKnightBB;
+        return this.knightBB & this.blackBB;
     }
 
     public long blackRooks() {
-        return this.blackRookBB;
+        return this.rookBB & this.blackBB;
     }
 
     public long blackQueens() {
-        return this.blackQueenBB;
+        return this.queenBB & this.blackBB;
     }
 
     public long blackKing() {
-        return this.blackKingBB;
+        return this.kingBB & this.blackBB;
     }
 
     /**
@@ -401,52 +484,111 @@ public class Position {
      * @return a Color constant, either WHITE or BLACK
      */
     public Colour turn() {
-        return this.turn;
+        return ( ( this.state & STATE_BLACK_TO_MOVE ) != 0 )
+            ? Colour.BLACK : Colour.WHITE;
     }
 
     public boolean whiteCanCastleKingside() {
-        return this.whiteCanCastleKingside;
+        return ( this.state & STATE_WHITE_KINGSIDE ) != 0;
     }
 
     public boolean whiteCanCastleQueenside() {
-        return this.whiteCanCastleQueenside;
+        return ( this.state & STATE_WHITE_QUEENSIDE ) != 0;
     }
 
     public boolean blackCanCastleKingside() {
-        return this.blackCanCastleKingside;
+        return ( this.state & STATE_BLACK_KINGSIDE ) != 0;
     }
 
     public boolean blackCanCastleQueenside() {
-        return this.blackCanCastleQueenside;
+        return ( this.state & STATE_BLACK_QUEENSIDE ) != 0;
     }
 
     /**
      * Accessor method that returns non-null only when an enemy pawn has just
      * advanced two squares. Whether or not the pawn can actually be captured en
-     * passant makes no difference.
+     * passant makes no difference. Only the file of the square is stored;
+     * the square is on the sixth rank if White is to move and on the third
+     * rank if Black is.
      *
      * @return Square constant or null
      */
     public Square enPassantTargetSquare() {
-        return this.enPassantTargetSquare;
+        int fileField = ( this.state >>> STATE_EN_PASSANT_SHIFT )
+            & STATE_EN_PASSANT_MASK;
+        if ( fileField == 0 ) {
+            return null;
+        }
+        int rankOffset = ( ( this.state & STATE_BLACK_TO_MOVE ) != 0 )
+            ? 16 : 40;
+        return Bitboards.square( rankOffset + fileField - 1 );
     }
 
     public int halfmoveClock() {
-        return this.halfmoveClock;
+        return this.state >>> STATE_HALFMOVE_CLOCK_SHIFT;
     }
 
     public int fullmoveNumber() {
         return this.fullmoveNumber;
     }
 
+    /**
+     * Returns the Zobrist key of the position (see class Zobrist). The key
+     * covers piece placement, the side to move, the castling rights and the
+     * en passant file. Unlike hashCode(), it tells apart positions with the
+     * same move number.
+     *
+     * @return a 64-bit hash key
+     */
+    public long zobristKey() {
+        return this.zobristKey;
+    }
+
+    /**
+     * Returns the index of the piece on the given square. The index is one
+     * of the constants Position.WHITE_PAWNS to Position.BLACK_KING, or
+     * EMPTY_SQUARE for an empty square. This is a single array read.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return a value between -1 and 11
+     */
+    public int pieceIndexAt( int sqIndex ) {
+        return this.pieceAt[ sqIndex ];
+    }
+
+    /**
+     * Returns the number of pieces the given side has on the board.
+     *
+     * @param colour the side
+     * @return the length of the side's piece list
+     */
+    public int pieceCount( Colour colour ) {
+        return ( colour == Colour.WHITE )
+            ? this.whitePieceSquares.length : this.blackPieceSquares.length;
+    }
+
+    /**
+     * Returns an entry of the piece list of the given side, i.e., the bit
+     * index of the square of one of its pieces. Together with pieceCount()
+     * and pieceIndexAt() this allows going through the pieces of a side
+     * without scanning the bitboards. The order of the list is unspecified.
+     *
+     * @param colour the side
+     * @param i list index between 0 and pieceCount( colour ) - 1
+     * @return bit index of the square of the piece
+     */
+    public int pieceSquare( Colour colour, int i ) {
+        return ( colour == Colour.WHITE )
+            ? this.whitePieceSquares[ i ] : this.blackPieceSquares[ i ];
+    }
+
     /**
      * Returns the white army, i.e., all of White's chessmen.
      *
      * @return a bitboard of all white chessmen
      */
     public long whiteArmy() {
-        return this.whitePawnBB | this.whiteBishopBB | this.whiteKnightBB
-            | this.whiteRookBB | this.whiteQueenBB | this.whiteKingBB;
+        return this.whiteBB;
     }
 
     /**
@@ -455,8 +597,7 @@ public class Position {
      * @return a bitboard of all black chessmen
      */
     public long blackArmy() {
-        return this.blackPawnBB | this.blackBishopBB | this.blackKnightBB
-            | this.blackRookBB | this.blackQueenBB | this.blackKingBB;
+        return this.blackBB;
     }
 
     /**
@@ -466,7 +607,139 @@ public class Position {
      * @return all chessmen on the board
      */
     public long bothArmies() {
-        return whiteArmy() | blackArmy();
+        return this.whiteBB | this.blackBB;
+    }
+
+    /**
+     * Returns the bit index of the square of the king of the given color.
+     *
+     * @param colour the color of the king
+     * @return bit index of the king's square, or -1 if there's no king
+     */
+    public int kingSquare( Colour colour ) {
+        long king = this.kingBB
+            & ( ( colour == Colour.WHITE ) ? this.whiteBB : this.blackBB );
+        return ( king != 0 ) ? Bitboards.lsb( king ) : -1;
+    }
+
+    /**
+     * Returns the enemy pieces that give check to the king of the side to
+     * move. The checkers are worked out on the first call of this method or
+     * pinnedPieces() and remembered, so the generators can ask for them as
+     * often as they like.
+     *
+     * @return a bitboard of the checking pieces; empty if the side to move
+     * isn't in check or has no king
+     */
+    public long checkers() {
+        if ( !this.checkersAndPinsKnown ) {
+            findCheckersAndPins();
+        }
+        return this.checkersBB;
+    }
+
+    /**
+     * Returns the pieces of the side to move that are absolutely pinned.
+     * Remembered like checkers().
+     *
+     * @return a bitboard of the pinned pieces; empty if the side to move has
+     * no king
+     */
+    public long pinnedPieces() {
+        if ( !this.checkersAndPinsKnown ) {
+            findCheckersAndPins();
+        }
+        return this.pinnedPiecesBB;
+    }
+
+    /**
+     * Returns the position with the colors swapped: the board is flipped
+     * vertically, the white pieces become black ones and vice versa, and
+     * the other side is to move. The castling rights and the en passant
+     * target square go with the pieces. The new position is the same
+     * position seen from the other side of the board, so it has the same
+     * moves (flipped), the same evaluation (for the side to move) and so on.
+     * The bitboards are flipped with a byte swap (see
+     * Bitboards.flipVertical()).
+     *
+     * @return a new Position object
+     */
+    public Position flipColours() {
+        Square enPassantTargetSquare = enPassantTargetSquare();
+        return new Position(
+            Bitboards.flipVertical( blackPawns() ),
+            Bitboards.flipVertical( blackBishops() ),
+            Bitboards.flipVertical( blackKnights() ),
+            Bitboards.flipVertical( blackRooks() ),
+            Bitboards.flipVertical( blackQueens() ),
+            Bitboards.flipVertical( blackKing() ),
+            Bitboards.flipVertical( whitePawns() ),
+            Bitboards.flipVertical( whiteBishops() ),
+            Bitboards.flipVertical( whiteKnights() ),
+            Bitboards.flipVertical( whiteRooks() ),
+            Bitboards.flipVertical( whiteQueens() ),
+            Bitboards.flipVertical( whiteKing() ),
+            ( turn() == Colour.WHITE ) ? Colour.BLACK : Colour.WHITE,
+            blackCanCastleKingside(), blackCanCastleQueenside(),
+            whiteCanCastleKingside(), whiteCanCastleQueenside(),
+            ( enPassantTargetSquare == null ) ? null
+                : Bitboards.square( enPassantTargetSquare.ordinal() ^ 56 ),
+            halfmoveClock(), fullmoveNumber() );
+    }
+
+    /**
+     * Returns the position mirrored horizontally, i.e., with the a-file and
+     * the h-file swapped and so on. Chess is symmetric under the mirroring
+     * except for castling, so the mirrored position has no castling rights;
+     * for a position without castling rights the two are equivalent. The
+     * en passant target square is mirrored along with the pieces.
+     *
+     * @return a new Position object
+     */
+    public Position mirrorHorizontal() {
+        Square enPassantTargetSquare = enPassantTargetSquare();
+        return new Position(
+            Bitboards.mirrorHorizontal( whitePawns() ),
+            Bitboards.mirrorHorizontal( whiteBishops() ),
+            Bitboards.mirrorHorizontal( whiteKnights() ),
+            Bitboards.mirrorHorizontal( whiteRooks() ),
+            Bitboards.mirrorHorizontal( whiteQueens() ),
+            Bitboards.mirrorHorizontal( whiteKing() ),
+            Bitboards.mirrorHorizontal( blackPawns() ),
+            Bitboards.mirrorHorizontal( blackBishops() ),
+            Bitboards.mirrorHorizontal( blackKnights() ),
+            Bitboards.mirrorHorizontal( blackRooks() ),
+            Bitboards.mirrorHorizontal( blackQueens() ),
+            Bitboards.mirrorHorizontal( blackKing() ),
+            turn(),
+            false, false, false, false,
+            ( enPassantTargetSquare == null ) ? null
+                : Bitboards.square( enPassantTargetSquare.ordinal() ^ 7 ),
+            halfmoveClock(), fullmoveNumber() );
+    }
+
+    /**
+     * Returns the canonical form of the position. Of the positions that are
+     * equivalent under flipColours() and mirrorHorizontal(), the canonical
+     * one has White to move and, if there are no castling rights, the
+     * smaller Zobrist key of the position and its mirror image. Equivalent
+     * positions have the same canonical form, so a table keyed by it (an
+     * opening book, an evaluation cache) needs to store only one of them.
+     * The halfmove clock and the fullmove number are kept as they are.
+     *
+     * @return this position or an equivalent new Position object
+     */
+    public Position canonical() {
+        Position pos = ( turn() == Colour.WHITE ) ? this : flipColours();
+        if ( !pos.whiteCanCastleKingside() && !pos.whiteCanCastleQueenside()
+            && !pos.blackCanCastleKingside()
+            && !pos.blackCanCastleQueenside() ) {
+            Position mirrored = pos.mirrorHorizontal();
+            if ( mirrored.zobristKey() < pos.zobristKey() ) {
+                return mirrored;
+            }
+        }
+        return pos;
     }
 
     /**
@@ -476,26 +749,10 @@ public class Position {
      * @return a long array containing all 12 BB's that express piece placement
      */
     public long[] pieceBBArray() {
-
-        long copyOfWhitePawnBB = this.whitePawnBB,
-            copyOfWhiteBishopBB = this.whiteBishopBB,
-            copyOfWhiteKnightBB = this.whiteKnightBB,
-            copyOfWhiteRookBB = this.whiteRookBB,
-            copyOfWhiteQueenBB = this.whiteQueenBB,
-            copyOfWhiteKingBB = this.whiteKingBB,
-            copyOfBlackPawnBB = this.blackPawnBB,
-            copyOfBlackBishopBB = this.blackBishopBB,
-            copyOfBlackKnightBB = this.blackKnightBB,
-            copyOfBlackRookBB = this.blackRookBB,
-            copyOfBlackQueenBB = this.blackQueenBB,
-            copyOfBlackKingBB = this.blackKingBB;
-
-        return new long[]{ copyOfWhitePawnBB, copyOfWhiteBishopBB,
-            copyOfWhiteKnightBB, copyOfWhiteRookBB,
-            copyOfWhiteQueenBB, copyOfWhiteKingBB,
-            copyOfBlackPawnBB, copyOfBlackBishopBB,
-            copyOfBlackKnightBB, copyOfBlackRookBB,
-            copyOfBlackQueenBB, copyOfBlackKingBB };
+        return new long[]{ whitePawns(), whiteBishops(), whiteKnights(),
+            whiteRooks(), whiteQueens(), whiteKing(),
+            blackPawns(), blackBishops(), blackKnights(),
+            blackRooks(), blackQueens(), blackKing() };
     }
 
     /**
@@ -507,36 +764,37 @@ public class Position {
         BLACK_ROOKS = 9, BLACK_QUEEN = 10, BLACK_KING = 11;
 
     /**
-     * I had this code generated automatically by NetBeans. Overriding
-     * hashCode() seems to be necessary whenever overriding equals(). This is
-     * because it is assumed (required) that whenever two objects are equal
-     * (according to the objects' equals() method), they also have the same
-     * hashCode() value.
+     * The value pieceIndexAt() returns for an empty square.
+     */
+    public static final int EMPTY_SQUARE = -1;
+
+    /**
+     * The hash code is taken from the Zobrist key, so positions with a
+     * different placement of the pieces, side to move, castling rights or
+     * en passant target square spread over the buckets of a HashMap or a
+     * HashSet. Equal positions have equal keys and thus equal hash codes.
      *
-     * @return a stash of hash?
+     * @return the hash code of the position
      */
     @Override
     public int hashCode() {
-        int hash = 7;
-        hash = 17 * hash + Objects.hashCode( this.turn );
-        hash = 17 * hash + this.fullmoveNumber;
-        return hash;
+        return (int) ( this.zobristKey ^ ( this.zobristKey >>> 32 ) );
     }
 
     /*
-     The means for defining when two Position objects are equal. The equality
-     I'm interested in is both the fullmoveNumber and turn fields having the
-     same value. This is because I'll be adding Position objects into a Set
-     during the course of a single chess game. Every time a piece is moved,
-     a new Position object is added into the set. Also, every time a piece is
-     moved, this.turn gets toggled; every other time a piece gets moved,
-     this.fullmoveNumber gets incremented.
+     The means for defining when two Position objects are equal: the pieces
+     are on the same squares, the same side is to move and the castling
+     rights, the en passant target squares, the halfmove clocks and the
+     fullmove numbers are the same. The Zobrist keys are compared first,
+     since different keys settle the common case of unequal positions
+     cheaply.
 
      JUNIT TESTS:
      --equalsSymmetryTest()
      --equalsReflexivityTest()
      --equalsTransitivityTest()
      --equalsConsistencyWithHashCodeTest()
+     --equalsComparesPlacement()
 
      On the first four JUnit tests:
      http://www.ibm.com/developerworks/library/j-jtp05273/
@@ -549,19 +807,45 @@ public class Position {
         if ( getClass() != obj.getClass() ) {
             return false;
         }
-        final Position other = (Position) obj;
-        if ( this.turn != other.turn ) {
+        final Position otherPos = (Position) obj;
+
+        // Different keys mean different positions. Equal keys are a strong
+        // hint but no proof, so the fields get compared in that case.
+        if ( this.zobristKey != otherPos.zobristKey ) {
+            return false;
+        }
+
+        // Compare the bitboards of the white pieces
+        if ( this.whitePawns() != otherPos.whitePawns()
+            || this.whiteBishops() != otherPos.whiteBishops()
+            || this.whiteKnights() != otherPos.whiteKnights()
+            || this.whiteRooks() != otherPos.whiteRooks()
+            || this.whiteQueens() != otherPos.whiteQueens()
+            || this.whiteKing() != otherPos.whiteKing() ) {
+            return false;
+        } // Compare the bitboards of the black pieces
+        else if ( this.blackPawns() != otherPos.blackPawns()
+            || this.blackBishops() != otherPos.blackBishops()
+            || this.blackKnights() != otherPos.blackKnights()
+            || this.blackRooks() != otherPos.blackRooks()
+            || this.blackQueens() != otherPos.blackQueens()
+            || this.blackKing() != otherPos.blackKing() ) {
             return false;
         }
-        return this.fullmoveNumber == other.fullmoveNumber;
+
+        // The state word holds the active color, the castling rights, the
+        // en passant file and the halfmove clock. The rank of the en passant
+        // target square follows from the active color.
+        return this.state == otherPos.state
+            && this.fullmoveNumber == otherPos.fullmoveNumber;
     }
 
     /*
      Method deepEquals() could also be called identicalPositionObjectData().
-     As the name suggests, it checks each and every field of two Position
-     objects (the other being 'this') and returns true if and only if
-     they are all identical. Note that the check performed by the overridden
-     equals() is much more shallow.
+     It checks each and every field of two Position objects (the other
+     being 'this') and returns true if and only if they are all identical.
+     Since equals() compares all the fields as well, the two are the same
+     check; deepEquals() is kept for the code and the tests that use it.
 
      JUNIT TESTS:
      --deepEqualsReturnsTrue()
@@ -584,50 +868,7 @@ public class Position {
      --deepEqualsReturnsFalse20()
      */
     public boolean deepEquals( Object obj ) {
-        // First the overridden equals() method is called
-        if ( !this.equals( obj ) ) {
-            // The 'this' object cannot be identical to 'obj' if
-            // equals returns false
-            return false;
-        }
-        // It's now established that obj is a Position object
-        final Position otherPos = (Position) obj;
-
-        // Compare the bitboards of the white pieces
-        if ( this.whitePawns() != otherPos.whitePawns()
-            || this.whiteBishops() != otherPos.whiteBishops()
-            || this.whiteKnights() != otherPos.whiteKnights()
-            || this.whiteRooks() != otherPos.whiteRooks()
-            || this.whiteQueens() != otherPos.whiteQueens()
-            || this.whiteKing() != otherPos.whiteKing() ) {
-            return false;
-        } // Compare the bitboards of the black pieces
-        else if ( this.blackPawns() != otherPos.blackPawns()
-            || this.blackBishops() != otherPos.blackBishops()
-            || this.blackKnights() != otherPos.blackKnights()
-            || this.blackRooks() != otherPos.blackRooks()
-            || this.blackQueens() != otherPos.blackQueens()
-            || this.blackKing() != otherPos.blackKing() ) {
-            return false;
-        } // ACTIVE COLOR has already been compared in equals()
-        // Compare the castling rights
-        else if ( this.whiteCanCastleKingside() != otherPos.whiteCanCastleKingside()
-            || this.whiteCanCastleQueenside() != otherPos.whiteCanCastleQueenside()
-            || this.blackCanCastleKingside() != otherPos.blackCanCastleKingside()
-            || this.blackCanCastleQueenside() != otherPos.blackCanCastleQueenside() ) {
-            return false;
-        } // Compare the en passant target squares
-        else if ( this.enPassantTargetSquare() != otherPos.enPassantTargetSquare() ) {
-            return false;
-        } // Compare the halfmove clocks
-        else if ( this.halfmoveClock() != otherPos.halfmoveClock() ) {
-            return false;
-        }
-        // FULLMOVE NUMBER already compared in equals()
-
-        // As no unequal fields were found and all fields were compared,
-        // all the fields of the two objects must be equal
-        return true;
+        return equals( obj );
     }
 
     //
@@ -950,163 +1191,218 @@ public class Position {
         );
     }
 
-    private static boolean isKingsideCastlingMove( Move move ) {
-        return ( move.from() == Square.E1 && move.to() == Square.G1
-            && SUM.resolvePiece( Square.E1, move.context() )
-            == Piece.WHITE_KING )
-            || ( move.from() == Square.E8 && move.to() == Square.G8
-            && SUM.resolvePiece( Square.E8, move.context() )
-            == Piece.BLACK_KING );
+    private static boolean isKingsideCastlingMove(
+        Position pos, Square from, Square to ) {
+        return ( from == Square.E1 && to == Square.G1
+            && SUM.resolvePiece( Square.E1, pos ) == Piece.WHITE_KING )
+            || ( from == Square.E8 && to == Square.G8
+            && SUM.resolvePiece( Square.E8, pos ) == Piece.BLACK_KING );
     }
 
-    private static boolean isQueensideCastlingMove( Move move ) {
-        return false;
+    private static boolean isQueensideCastlingMove(
+        Position pos, Square from, Square to ) {
+        return ( from == Square.E1 && to == Square.C1
+            && SUM.resolvePiece( Square.E1, pos ) == Piece.WHITE_KING )
+            || ( from == Square.E8 && to == Square.C8
+            && SUM.resolvePiece( Square.E8, pos ) == Piece.BLACK_KING );
     }
 
-    private static Position makeKingsideCastlingMove( Position pos )
-        throws Exception {
-        long whiteKingSB = CSS.G1, // Making a guess: it's White's turn
-            whiteRooksBB = ( pos.whiteRooks() ^ CSS.H1 ) | CSS.F1,
-            blackKingSB = pos.blackKing(),
-            blackRooksBB = pos.blackRooks();
-        boolean whiteCanCastleKS = false, // Making the same guess as above
-            whiteCanCastleQS = false,
-            blackCanCastleKS = pos.blackCanCastleKingside(),
-            blackCanCastleQS = pos.blackCanCastleQueenside();
-
-        if ( pos.turn() == Colour.BLACK ) { // If the guess went wrong, redo
-            whiteKingSB = pos.whiteKing();  // the initializations
-            whiteRooksBB = pos.whiteRooks();
-            blackKingSB = CSS.G8;
-            blackRooksBB = ( pos.blackRooks() ^ CSS.H8 ) | CSS.F8;
-            whiteCanCastleKS = pos.whiteCanCastleKingside();
-            whiteCanCastleQS = pos.whiteCanCastleQueenside();
-            blackCanCastleKS = blackCanCastleQS = false;
-        }
-
-        return createPositionAfterKingsideCastling(
-            pos, whiteKingSB, whiteRooksBB, blackKingSB, blackRooksBB,
-            whiteCanCastleKS, whiteCanCastleQS,
-            blackCanCastleKS, blackCanCastleQS );
+    private static Position makeKingsideCastlingMove( Position pos ) {
+        return makeCastlingMove( pos, 6, 7, 5 );
     }
 
     private static Position makeQueensideCastlingMove( Position pos ) {
-        return null;
+        return makeCastlingMove( pos, 2, 0, 3 );
     }
 
-    private static Position createPositionAfterKingsideCastling(
-        Position pos,
-        long whiteKingSB, long whiteRooksBB, long blackKingSB, long blackRooksBB,
-        boolean whiteCanCastleKS, boolean whiteCanCastleQS,
-        boolean blackCanCastleKS, boolean blackCanCastleQS ) {
-        Position newPos = new Position(
-            pos.whitePawns(),
-            pos.whiteBishops(),
-            pos.whiteKnights(),
-            whiteRooksBB,
-            pos.whiteQueens(),
-            whiteKingSB,
-            pos.blackPawns(),
-            pos.blackBishops(),
-            pos.blackKnights(),
-            blackRooksBB,
-            pos.blackQueens(),
-            blackKingSB,
-            ( pos.turn() == Colour.WHITE ) ? Colour.BLACK : Colour.WHITE,
-            whiteCanCastleKS, whiteCanCastleQS,
-            blackCanCastleKS, blackCanCastleQS,
-            null,
-            1 + pos.halfmoveClock(),
-            ( pos.turn() == Colour.BLACK ) ? ( 1 + pos.fullmoveNumber() )
-                : ( pos.fullmoveNumber() )
-        );
+    // The king moves from the E-file to the file kingDestFile and the rook
+    // from the file rookFile to rookDestFile, on the first rank for White
+    // and on the eighth for Black. The castling rights of the side get
+    // cleared.
+    private static Position makeCastlingMove( Position pos, int kingDestFile,
+        int rookFile, int rookDestFile ) {
+        int king = Position.WHITE_KING, rook = Position.WHITE_ROOKS,
+            rankOffset = 0,
+            lostRights = STATE_WHITE_KINGSIDE | STATE_WHITE_QUEENSIDE;
+        if ( pos.turn() == Colour.BLACK ) {
+            king = Position.BLACK_KING;
+            rook = Position.BLACK_ROOKS;
+            rankOffset = 56;
+            lostRights = STATE_BLACK_KINGSIDE | STATE_BLACK_QUEENSIDE;
+        }
+        int kingSq = rankOffset + 4, kingDestSq = rankOffset + kingDestFile,
+            rookSq = rankOffset + rookFile,
+            rookDestSq = rankOffset + rookDestFile;
 
-        return newPos;
+        long[] pieces = pos.pieceBBArray();
+        pieces[ king ] ^= ( 1L << kingSq ) | ( 1L << kingDestSq );
+        pieces[ rook ] ^= ( 1L << rookSq ) | ( 1L << rookDestSq );
+        int castlingRights = pos.state & STATE_CASTLING_RIGHTS & ~lostRights;
+
+        long zobristKey = pos.zobristKey()
+            ^ Zobrist.pieceSquare( king, kingSq )
+            ^ Zobrist.pieceSquare( king, kingDestSq )
+            ^ Zobrist.pieceSquare( rook, rookSq )
+            ^ Zobrist.pieceSquare( rook, rookDestSq )
+            ^ castlingRightsKey( pos.state )
+            ^ castlingRightsKey( castlingRights )
+            ^ Zobrist.sideToMove( Colour.BLACK )
+            ^ Zobrist.enPassant( pos.enPassantTargetSquare() );
+
+        // Update the mailbox and the piece list of the side to move
+        byte[] pieceAt = pos.pieceAt.clone();
+        pieceAt[ kingSq ] = pieceAt[ rookSq ] = EMPTY_SQUARE;
+        pieceAt[ kingDestSq ] = (byte) king;
+        pieceAt[ rookDestSq ] = (byte) rook;
+        byte[] whitePieceSquares = pos.whitePieceSquares,
+            blackPieceSquares = pos.blackPieceSquares;
+        if ( pos.turn() == Colour.BLACK ) {
+            blackPieceSquares = movePieceInList( movePieceInList(
+                blackPieceSquares, kingSq, kingDestSq ), rookSq, rookDestSq );
+        } else {
+            whitePieceSquares = movePieceInList( movePieceInList(
+                whitePieceSquares, kingSq, kingDestSq ), rookSq, rookDestSq );
+        }
+
+        return createPositionAfterMove( pos, pieces, castlingRights, null,
+            false, zobristKey, pieceAt, whitePieceSquares, blackPieceSquares );
     }
 
-    private static Position makeRegularMove( Move move ) throws Exception {
-        Position pos = move.context();
-        Square from = move.from(), to = move.to();
+    // Pawn moves are the only regular moves with side effects: an en
+    // passant capture removes a pawn from a square other than 'to', a
+    // promotion replaces the pawn with another piece and a double push sets
+    // the en passant target square. A promotion without a piece type in
+    // the flags of the packed move (e.g., one entered on the GUI) is a
+    // promotion to a queen.
+    private static Position makeRegularMove(
+        Position pos, Square from, Square to, int move ) {
         long[] pieces = pos.pieceBBArray(); // The 12 piece placement BB's
 
         // The piece being moved corresponds to one of the 12 bitboards
         // in pieces[]
-        int fromSBPieceIndex = resolvePieceIndexOfFROM( move.context(), from );
+        int fromSBPieceIndex = pieceIndex( from.bit(), pos );
         // If the move is a capture, then to.bit() corresponds to one out of
-        // ten bitboards in pieces[] (any non-king piece). If moving to an
-        // empty square, the pieceIndex() call returns -1.
-        int toSBPieceIndex = resolvePieceIndexOfTO( move.context(), to );
-
-        // Create a bitboard with exactly two bits set: the 'from' and 'to'
-        // square bits
-        long fromToBB = from.bit() | to.bit();
-        // Unset the 'from' bit and set the 'to' bit using a clever XOR
-        // operation. This means moving the piece from one square to another.
-        pieces[ fromSBPieceIndex ] ^= fromToBB;
-        if ( moveIsCapture( pos.turn(), toSBPieceIndex ) ) {
+        // ten bitboards in pieces[] (any non-king enemy piece). If moving to
+        // an empty square, the pieceIndex() call returns -1.
+        int toSBPieceIndex = pieceIndex( to.bit(), pos );
+        boolean pawnMove = fromSBPieceIndex == Position.WHITE_PAWNS
+            || fromSBPieceIndex == Position.BLACK_PAWNS;
+
+        // The captured piece is normally on the 'to' square. In an en
+        // passant capture it's the pawn that has just passed the target
+        // square.
+        int capturedSqIndex = to.ordinal();
+        if ( pawnMove && to == pos.enPassantTargetSquare()
+            && ( from.ordinal() & 7 ) != ( to.ordinal() & 7 ) ) {
+            capturedSqIndex += ( pos.turn() == Colour.WHITE ) ? -8 : 8;
+            toSBPieceIndex = pieceIndex( 1L << capturedSqIndex, pos );
+        }
+        boolean moveIsCapture = toSBPieceIndex != EMPTY_SQUARE;
+
+        // The piece that ends up on the 'to' square
+        int toSBNewPieceIndex = fromSBPieceIndex;
+        if ( pawnMove && ( to.bit() & ( CSS.RANK_1 | CSS.RANK_8 ) ) != 0 ) {
+            PieceType promotion = PackedMove.isPromotion( move )
+                ? PackedMove.promotion( move ) : PieceType.QUEEN;
+            toSBNewPieceIndex = fromSBPieceIndex + promotion.ordinal();
+        }
+
+        // Unset the 'from' bit and set the 'to' bit. Without a promotion
+        // this is a single XOR with a bitboard of the two square bits.
+        pieces[ fromSBPieceIndex ] ^= from.bit();
+        pieces[ toSBNewPieceIndex ] ^= to.bit();
+        // The Zobrist key is updated the same way: the piece is XOR'ed out
+        // of its old square and into the new one
+        long zobristKey = pos.zobristKey()
+            ^ Zobrist.pieceSquare( fromSBPieceIndex, from.ordinal() )
+            ^ Zobrist.pieceSquare( toSBNewPieceIndex, to.ordinal() )
+            ^ Zobrist.sideToMove( Colour.BLACK )
+            ^ Zobrist.enPassant( pos.enPassantTargetSquare() );
+        if ( moveIsCapture ) {
             // Unset the bit of the captured piece, i.e., remove it from
             // its bitboard
-            pieces[ toSBPieceIndex ] ^= to.bit(); // 1 XOR 1 equals 0
+            pieces[ toSBPieceIndex ] ^= 1L << capturedSqIndex; // 1 XOR 1 is 0
+            zobristKey ^= Zobrist.pieceSquare( toSBPieceIndex, capturedSqIndex );
         }
 
-        return createPositionAfterRegularMove(
-            pos, pieces, moveIsCapture( pos.turn(), toSBPieceIndex ) );
-    }
+        // A double push sets the square the pawn passed as the en passant
+        // target square
+        Square enPassantTargetSquare = null;
+        if ( pawnMove && Math.abs( to.ordinal() - from.ordinal() ) == 16 ) {
+            enPassantTargetSquare
+                = Bitboards.square( ( from.ordinal() + to.ordinal() ) / 2 );
+            zobristKey ^= Zobrist.enPassant( enPassantTargetSquare );
+        }
 
-    private static int resolvePieceIndexOfFROM( Position pos, Square from )
-        throws Exception {
-        int fromSBPieceIndex = pieceIndex( from.bit(), pos );
-        if ( fromSBPieceIndex < 0 || fromSBPieceIndex > 11 ) { // Serious error
-            throw new Exception( "Invalid value in fromSBPieceIndex: "
-                + fromSBPieceIndex );
+        // A king move takes away both castling rights of the side and a
+        // move from or to a corner square the right of that corner, since
+        // the rook either leaves the corner or gets captured there
+        int castlingRights = pos.state & STATE_CASTLING_RIGHTS
+            & ~castlingRightsLost( from.ordinal() )
+            & ~castlingRightsLost( to.ordinal() );
+        if ( castlingRights != ( pos.state & STATE_CASTLING_RIGHTS ) ) {
+            zobristKey ^= castlingRightsKey( pos.state )
+                ^ castlingRightsKey( castlingRights );
         }
-        return fromSBPieceIndex;
-    }
 
-    private static int resolvePieceIndexOfTO( Position pos, Square to )
-        throws Exception {
-        int toSBPieceIndex = pieceIndex( to.bit(), pos );
-        if ( toSBPieceIndex == Position.WHITE_KING
-            || toSBPieceIndex == Position.BLACK_KING ) { // Serious error
-            throw new Exception( "King about to be captured: toSBPieceIndex: "
-                + toSBPieceIndex );
+        // The mailbox and the piece lists get the same treatment
+        byte[] pieceAt = pos.pieceAt.clone();
+        pieceAt[ from.ordinal() ] = EMPTY_SQUARE;
+        pieceAt[ capturedSqIndex ] = EMPTY_SQUARE;
+        pieceAt[ to.ordinal() ] = (byte) toSBNewPieceIndex;
+        byte[] whitePieceSquares = pos.whitePieceSquares,
+            blackPieceSquares = pos.blackPieceSquares;
+        if ( pos.turn() == Colour.WHITE ) {
+            whitePieceSquares = movePieceInList(
+                whitePieceSquares, from.ordinal(), to.ordinal() );
+            if ( moveIsCapture ) {
+                blackPieceSquares
+                    = removePieceFromList( blackPieceSquares, capturedSqIndex );
+            }
+        } else {
+            blackPieceSquares = movePieceInList(
+                blackPieceSquares, from.ordinal(), to.ordinal() );
+            if ( moveIsCapture ) {
+                whitePieceSquares
+                    = removePieceFromList( whitePieceSquares, capturedSqIndex );
+            }
         }
-        return toSBPieceIndex;
+
+        return createPositionAfterMove( pos, pieces, castlingRights,
+            enPassantTargetSquare, moveIsCapture || pawnMove, zobristKey,
+            pieceAt, whitePieceSquares, blackPieceSquares );
     }
 
-    private static boolean moveIsCapture( Colour turn, int toSBPieceIndex )
+    // The checks Position.makeMove( Move ) does before handing the move to
+    // the unchecked makeMove( Position, int ): there must be a piece of the
+    // side to move on the source square and the destination may hold
+    // neither a king nor a friendly piece.
+    private static void validateMove( Position pos, Square from, Square to )
         throws Exception {
-        boolean moveIsCapture = false; // Guess: toSBPieceIndex == -1
-
-        // Non-capture move
-        if ( toSBPieceIndex == -1 ) {
-            // Do nothing
-        } // White captures black piece
-        else if ( turn == Colour.WHITE
-            && ( toSBPieceIndex >= Position.BLACK_PAWNS
-            && toSBPieceIndex <= Position.BLACK_KING ) ) {
-            //Game.debugMsgRef.sendMessage( "DB: White captured black\n" );
-            moveIsCapture = true;
-        } // Black captures white piece
-        else if ( turn == Colour.BLACK
-            && ( toSBPieceIndex >= Position.WHITE_PAWNS
-            && toSBPieceIndex <= Position.WHITE_KING ) ) {
-            //Game.debugMsgRef.sendMessage( "DB: Black captured white\n" );
-            moveIsCapture = true;
-        } // Invalid index
-        else if ( toSBPieceIndex > Position.BLACK_KING ) {
-            throw new Exception( "Invalid value in toSBPieceIndex: "
+        int fromSBPieceIndex = pieceIndex( from.bit(), pos ),
+            toSBPieceIndex = pieceIndex( to.bit(), pos );
+        boolean whiteToMove = pos.turn() == Colour.WHITE;
+        if ( fromSBPieceIndex == EMPTY_SQUARE
+            || ( fromSBPieceIndex <= Position.WHITE_KING ) != whiteToMove ) {
+            throw new Exception( "Invalid value in fromSBPieceIndex: "
+                + fromSBPieceIndex );
+        } else if ( toSBPieceIndex == Position.WHITE_KING
+            || toSBPieceIndex == Position.BLACK_KING ) { // Serious error
+            throw new Exception( "King about to be captured: toSBPieceIndex: "
                 + toSBPieceIndex );
-        } else { // Did a piece attempt to kill its own kind?
-            throw new Exception( "Cannibalism? Turn: " + turn
+        } else if ( toSBPieceIndex != EMPTY_SQUARE
+            && ( toSBPieceIndex <= Position.WHITE_KING ) == whiteToMove ) {
+            throw new Exception( "Cannibalism? Turn: " + pos.turn()
                 + ", toSBPieceIndex: " + toSBPieceIndex );
         }
-
-        return moveIsCapture;
     }
 
-    private static Position createPositionAfterRegularMove(
-        Position pos, long[] pieces, boolean moveIsCapture ) {
+    // The castling rights are given as bits of the state word
+    private static Position createPositionAfterMove(
+        Position pos, long[] pieces, int castlingRights,
+        Square enPassantTargetSquare,
+        boolean resetHalfmoveClock, long zobristKey,
+        byte[] pieceAt, byte[] whitePieceSquares, byte[] blackPieceSquares ) {
         Position newPos = new Position(
             pieces[ Position.WHITE_PAWNS ],
             pieces[ Position.WHITE_BISHOPS ],
@@ -1121,16 +1417,33 @@ public class Position {
             pieces[ Position.BLACK_QUEEN ],
             pieces[ Position.BLACK_KING ],
             ( pos.turn() == Colour.WHITE ) ? Colour.BLACK : Colour.WHITE,
-            pos.whiteCanCastleKingside(), pos.whiteCanCastleQueenside(),
-            pos.blackCanCastleKingside(), pos.blackCanCastleQueenside(),
-            null,
-            moveIsCapture ? 0 : ( 1 + pos.halfmoveClock() ),
+            ( castlingRights & STATE_WHITE_KINGSIDE ) != 0,
+            ( castlingRights & STATE_WHITE_QUEENSIDE ) != 0,
+            ( castlingRights & STATE_BLACK_KINGSIDE ) != 0,
+            ( castlingRights & STATE_BLACK_QUEENSIDE ) != 0,
+            enPassantTargetSquare,
+            resetHalfmoveClock ? 0 : ( 1 + pos.halfmoveClock() ),
             ( pos.turn() == Colour.BLACK ) ? ( 1 + pos.fullmoveNumber() )
-                : ( pos.fullmoveNumber() )
+                : ( pos.fullmoveNumber() ),
+            zobristKey, pieceAt, whitePieceSquares, blackPieceSquares
         );
         return newPos;
     }
 
+    // Works out the checkers and the pinned pieces of the side to move. Two
+    // threads may both end up doing it, but with the same result.
+    private void findCheckersAndPins() {
+        int kingSqIndex = kingSquare( turn() );
+        if ( kingSqIndex >= 0 ) {
+            Side side = Side.of( turn() );
+            this.checkersBB = Attacks.attackersTo(
+                this, kingSqIndex, bothArmies(), side.enemyColour );
+            this.pinnedPiecesBB
+                = MoveGenerator.pinnedPieces( kingSqIndex, this, side );
+        }
+        this.checkersAndPinsKnown = true;
+    }
+
     // Each of the 12 distinct pieces correspond to an index in the array
     // returned by pieceBBArray(). The pieceIndex() method is used to look up
     // the index of the bitboard that matches the squareBit parameter. For
@@ -1139,19 +1452,117 @@ public class Position {
     //
     // The value returned is between -1 to 11, inclusive. The value -1
     // indicates that the squareBit parameter corresponds to an empty square.
-    private static int pieceIndex( long squareBit, Position pos )
-        throws Exception {
+    private static int pieceIndex( long squareBit, Position pos ) {
+        return pos.pieceAt[ Bitboards.lsb( squareBit ) ];
+    }
+
+    // The castling rights a move from or to the square takes away: those
+    // of the king's initial square and of the rooks' corners
+    private static int castlingRightsLost( int sqIndex ) {
+        switch ( sqIndex ) {
+            case 0:
+                return STATE_WHITE_QUEENSIDE;
+            case 4:
+                return STATE_WHITE_KINGSIDE | STATE_WHITE_QUEENSIDE;
+            case 7:
+                return STATE_WHITE_KINGSIDE;
+            case 56:
+                return STATE_BLACK_QUEENSIDE;
+            case 60:
+                return STATE_BLACK_KINGSIDE | STATE_BLACK_QUEENSIDE;
+            case 63:
+                return STATE_BLACK_KINGSIDE;
+            default:
+                return 0;
+        }
+    }
+
+    // The Zobrist key part of the castling rights bits of a state word
+    private static long castlingRightsKey( int state ) {
+        return Zobrist.castlingRights(
+            ( state & STATE_WHITE_KINGSIDE ) != 0,
+            ( state & STATE_WHITE_QUEENSIDE ) != 0,
+            ( state & STATE_BLACK_KINGSIDE ) != 0,
+            ( state & STATE_BLACK_QUEENSIDE ) != 0 );
+    }
+
+    // Packs the side to move, the castling rights, the en passant target
+    // square and the halfmove clock into a state word. Only the file of the
+    // en passant target square is kept. The clock must be between 0 and
+    // MAX_HALFMOVE_CLOCK.
+    private static int state( Colour turn,
+        boolean whiteCanCastleKingside, boolean whiteCanCastleQueenside,
+        boolean blackCanCastleKingside, boolean blackCanCastleQueenside,
+        Square enPassantTargetSquare, int halfmoveClock ) {
+        return ( ( turn == Colour.BLACK ) ? STATE_BLACK_TO_MOVE : 0 )
+            | ( whiteCanCastleKingside ? STATE_WHITE_KINGSIDE : 0 )
+            | ( whiteCanCastleQueenside ? STATE_WHITE_QUEENSIDE : 0 )
+            | ( blackCanCastleKingside ? STATE_BLACK_KINGSIDE : 0 )
+            | ( blackCanCastleQueenside ? STATE_BLACK_QUEENSIDE : 0 )
+            | ( ( enPassantTargetSquare == null ) ? 0
+                : ( ( enPassantTargetSquare.ordinal() & 7 ) + 1 )
+                << STATE_EN_PASSANT_SHIFT )
+            | ( halfmoveClock << STATE_HALFMOVE_CLOCK_SHIFT );
+    }
+
+    // Builds the mailbox from the bitboards. Should the bitboards overlap
+    // (see the randomizing constructor), the square gets the lowest piece
+    // index.
+    private static byte[] mailbox( Position pos ) {
         long[] pieces = pos.pieceBBArray();
-        int pieceIndex = -1;
+        byte[] pieceAt = new byte[ 64 ];
+
+        for ( int sq = 0; sq < 64; sq++ ) {
+            pieceAt[ sq ] = EMPTY_SQUARE;
+            for ( int i = 0; i < 12; i++ ) {
+                if ( ( pieces[ i ] & ( 1L << sq ) ) != 0 ) {
+                    pieceAt[ sq ] = (byte) i;
+                    break;
+                }
+            }
+        }
+
+        return pieceAt;
+    }
+
+    // Builds a piece list from an army bitboard
+    private static byte[] pieceList( long army ) {
+        byte[] pieceSquares = new byte[ Bitboards.popCount( army ) ];
+
+        for ( int i = 0; army != 0; i++ ) {
+            pieceSquares[ i ] = (byte) Bitboards.lsb( army );
+            army &= army - 1;
+        }
+
+        return pieceSquares;
+    }
 
-        for ( int i = 0; i < 12; i++ ) {
-            if ( ( squareBit & pieces[ i ] ) != 0 ) {
-                pieceIndex = i;
+    // Returns a copy of the piece list with 'from' replaced by 'to'
+    private static byte[] movePieceInList( byte[] pieceSquares, int from,
+        int to ) {
+        byte[] newPieceSquares = pieceSquares.clone();
+
+        for ( int i = 0; i < newPieceSquares.length; i++ ) {
+            if ( newPieceSquares[ i ] == from ) {
+                newPieceSquares[ i ] = (byte) to;
                 break;
             }
         }
 
-        return pieceIndex;
+        return newPieceSquares;
+    }
+
+    // Returns a copy of the piece list without the given square
+    private static byte[] removePieceFromList( byte[] pieceSquares, int sq ) {
+        byte[] newPieceSquares = new byte[ pieceSquares.length - 1 ];
+
+        for ( int i = 0, j = 0; i < pieceSquares.length; i++ ) {
+            if ( pieceSquares[ i ] != sq && j < newPieceSquares.length ) {
+                newPieceSquares[ j++ ] = pieceSquares[ i ];
+            }
+        }
+
+        return newPieceSquares;
     }
 
     //
@@ -1177,13 +1588,21 @@ public class Position {
      *
      * @param fENRecord a FEN string
      * @return the Position object created
-     * @throws Exception
+     * @throws Exception if the FEN string is invalid or either side doesn't
+     * have exactly one king
      */
     public static Position fENToPosition( String fENRecord ) throws Exception {
         String[] fENFields = SUM.splitFENRecord( fENRecord );
         String[] fENRanks = SUM.splitFirstFENField( fENRecord );
 
         long[] pieces = SUM.fENRanksToBBArray( fENRanks );
+        // The move generator takes the king of each side for granted, so
+        // a position without one is rejected here, not in the generator
+        if ( Bitboards.popCount( pieces[ Position.WHITE_KING ] ) != 1
+            || Bitboards.popCount( pieces[ Position.BLACK_KING ] ) != 1 ) {
+            throw new Exception(
+                "Each side must have exactly one king: " + fENRecord );
+        }
 
         Colour turn = fENActiveColor( fENFields[ 1 ] );
 
@@ -1216,21 +1635,41 @@ public class Position {
      * @param move the move to make
      * @return the position that resulted from making the move in the previous
      * position
-     * @throws Exception
+     * @throws Exception if the move has no context or is obviously invalid
+     * in it, e.g., moves a piece of the wrong color
      */
     public static Position makeMove( Move move ) throws Exception {
         if ( move.context() == null ) {
             throw new Exception( "Received Move object with null context" );
         }
+        validateMove( move.context(), move.from(), move.to() );
+
+        return makeMove( move.context(), move.packed() );
+    }
+
+    /**
+     * Makes a packed move (see class PackedMove) in the given position. The
+     * details of the move are worked out from the position, so the flags of
+     * the packed move don't need to be set. The move isn't validated: it
+     * must be a legal move of the position, e.g., one produced by
+     * MoveGenerator.
+     *
+     * @param pos the position to make the move in
+     * @param move the packed move to make
+     * @return the position that resulted from making the move
+     */
+    public static Position makeMove( Position pos, int move ) {
+        Square from = PackedMove.fromSquare( move ),
+            to = PackedMove.toSquare( move );
 
         // Kingside castling
-        if ( isKingsideCastlingMove( move ) ) {
-            return makeKingsideCastlingMove( move.context() );
+        if ( isKingsideCastlingMove( pos, from, to ) ) {
+            return makeKingsideCastlingMove( pos );
         } // Queenside castling
-        else if ( isQueensideCastlingMove( move ) ) {
-            return makeQueensideCastlingMove( move.context() );
+        else if ( isQueensideCastlingMove( pos, from, to ) ) {
+            return makeQueensideCastlingMove( pos );
         } // Non-castling move
 
-        return makeRegularMove( move );
+        return makeRegularMove( pos, from, to, move );
     }
 }
@@ -0,0 +1,194 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.Bitboards;
+import chessosisnbproject.data.Direction;
+
+/**
+ * Precomputed tables of neighbours and rays. For each square and Direction
+ * the tables give the adjacent square and the ray, i.e., all the squares
+ * from the square (exclusive) to the edge of the board. For each pair of
+ * squares they give the squares between and on the line through them. Two
+ * squares are aligned if a rook or a bishop could move from one to the
+ * other on an empty board. For aligned squares the tables hold the squares
+ * strictly between them and the whole line (file, rank or diagonal) running
+ * through them. For squares that aren't aligned both tables hold the empty
+ * bitboard.
+ * <p>
+ * The tables are what makes legal move generation without trial moves
+ * possible: a piece pinned against its king may only move along the line
+ * through the king and itself, and a single check by a slider can be
+ * blocked on any square between the checker and the king.
+ * <p>
+ * The between and line tables are indexed by the bit indexes of the two
+ * squares and are symmetric, i.e., the order of the squares doesn't matter.
+ * The neighbour and ray tables are indexed by the bit index of the square
+ * and the ordinal of the Direction constant. The tables are built by
+ * stepping across the board square by square, so the class depends on no
+ * other lookup tables; MagicBitboards uses it to fill in its own tables.
+ *
+ * @author Henrik Lindberg
+ */
+public class Rays {
+
+    // The file and rank steps of the directions in the order of Direction
+    // (NORTH, NORTHEAST, EAST, SOUTHEAST, SOUTH, SOUTHWEST, WEST, NORTHWEST)
+    private static final int[] FILE_STEPS = { 0, 1, 1, 1, 0, -1, -1, -1 },
+        RANK_STEPS = { 1, 1, 0, -1, -1, -1, 0, 1 };
+
+    private static final int[][] NEIGHBOUR = new int[ 64 ][ 8 ];
+
+    private static final long[][] RAY = new long[ 64 ][ 8 ],
+        BETWEEN = new long[ 64 ][ 64 ], LINE = new long[ 64 ][ 64 ];
+
+    // The rays of each square in the four cardinal and the four diagonal
+    // directions united, i.e., rook and bishop attacks on an empty board
+    private static final long[] ORTHOGONAL_RAYS = new long[ 64 ],
+        DIAGONAL_RAYS = new long[ 64 ];
+
+    static {
+        for ( int sq = 0; sq < 64; sq++ ) {
+            for ( int dir = 0; dir < 8; dir++ ) {
+                int file = sq % 8 + FILE_STEPS[ dir ],
+                    rank = sq / 8 + RANK_STEPS[ dir ];
+                NEIGHBOUR[ sq ][ dir ] = onBoard( file, rank )
+                    ? ( 8 * rank + file ) : -1;
+                while ( onBoard( file, rank ) ) {
+                    RAY[ sq ][ dir ] |= 1L << ( 8 * rank + file );
+                    file += FILE_STEPS[ dir ];
+                    rank += RANK_STEPS[ dir ];
+                }
+                // The cardinal directions have even ordinals
+                if ( dir % 2 == 0 ) {
+                    ORTHOGONAL_RAYS[ sq ] |= RAY[ sq ][ dir ];
+                } else {
+                    DIAGONAL_RAYS[ sq ] |= RAY[ sq ][ dir ];
+                }
+            }
+        }
+
+        for ( int a = 0; a < 64; a++ ) {
+            for ( int dir = 0; dir < 8; dir++ ) {
+                long ray = RAY[ a ][ dir ];
+                for ( long bb = ray; bb != 0; bb &= bb - 1 ) {
+                    int b = Bitboards.lsb( bb );
+                    // The ray from b in the same direction is the part of
+                    // a's ray beyond b
+                    BETWEEN[ a ][ b ] = ray & ~RAY[ b ][ dir ] & ~( 1L << b );
+                    LINE[ a ][ b ] = ray | RAY[ a ][ ( dir + 4 ) % 8 ]
+                        | ( 1L << a );
+                }
+            }
+        }
+    }
+
+    // Private constructor -- no instances, no Javadoc
+    private Rays() {
+    }
+
+    /**
+     * Returns the square adjacent to the given square in the given
+     * direction.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @param direction the direction of the adjacent square
+     * @return bit index of the adjacent square, or -1 if the square is on
+     * the edge of the board in that direction
+     */
+    public static int neighbour( int sqIndex, Direction direction ) {
+        return NEIGHBOUR[ sqIndex ][ direction.ordinal() ];
+    }
+
+    /**
+     * Returns the ray from the given square in the given direction: the
+     * squares a rook or a bishop on the square could move to in that
+     * direction on an empty board. For example, the northeast ray of F6 is
+     * G7 and H8.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @param direction the direction of the ray
+     * @return the squares of the ray, the square itself excluded
+     */
+    public static long ray( int sqIndex, Direction direction ) {
+        return RAY[ sqIndex ][ direction.ordinal() ];
+    }
+
+    /**
+     * Returns the squares a slider on the given square attacks in the given
+     * direction: the ray up to and including the first occupied square.
+     *
+     * @param sqIndex bit index of the slider's square, between 0 and 63
+     * @param direction the direction of the ray
+     * @param occupancy all the pieces on the board
+     * @return the attacked squares of the ray
+     */
+    public static long rayAttacks(
+        int sqIndex, Direction direction, long occupancy ) {
+        int dir = direction.ordinal();
+        long attacks = RAY[ sqIndex ][ dir ],
+            blockers = attacks & occupancy;
+
+        if ( blockers != 0 ) {
+            // North, northeast, east and northwest run towards the higher
+            // bit indexes, the rest towards the lower ones
+            int firstBlocker = ( dir <= 2 || dir == 7 )
+                ? Bitboards.lsb( blockers )
+                : 63 - Long.numberOfLeadingZeros( blockers );
+            attacks ^= RAY[ firstBlocker ][ dir ];
+        }
+
+        return attacks;
+    }
+
+    /**
+     * Returns the union of the rays of the given square in the four cardinal
+     * directions, i.e., the rook attacks on an empty board.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return the file and the rank of the square minus the square itself
+     */
+    public static long orthogonalRays( int sqIndex ) {
+        return ORTHOGONAL_RAYS[ sqIndex ];
+    }
+
+    /**
+     * Returns the union of the rays of the given square in the four
+     * intermediate directions, i.e., the bishop attacks on an empty board.
+     *
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return the diagonals of the square minus the square itself
+     */
+    public static long diagonalRays( int sqIndex ) {
+        return DIAGONAL_RAYS[ sqIndex ];
+    }
+
+    /**
+     * Returns the squares strictly between two aligned squares. For
+     * example, between A1 and D4 are the squares B2 and C3.
+     *
+     * @param sqIndexA bit index of the first square, between 0 and 63
+     * @param sqIndexB bit index of the second square, between 0 and 63
+     * @return the squares between, or an empty bitboard if the squares
+     * aren't aligned or are adjacent
+     */
+    public static long between( int sqIndexA, int sqIndexB ) {
+        return BETWEEN[ sqIndexA ][ sqIndexB ];
+    }
+
+    /**
+     * Returns the whole line (file, rank or diagonal) through two aligned
+     * squares, both squares included. For example, the line through B2 and
+     * C3 is the long diagonal A1-H8.
+     *
+     * @param sqIndexA bit index of the first square, between 0 and 63
+     * @param sqIndexB bit index of the second square, between 0 and 63
+     * @return the line through the squares, or an empty bitboard if the
+     * squares aren't aligned
+     */
+    public static long line( int sqIndexA, int sqIndexB ) {
+        return LINE[ sqIndexA ][ sqIndexB ];
+    }
+
+    private static boolean onBoard( int file, int rank ) {
+        return file >= 0 && file < 8 && rank >= 0 && rank < 8;
+    }
+}
@@ -1,5 +1,6 @@
 package chessosisnbproject.logic;
 
+import chessosisnbproject.data.Bitboards;
 import chessosisnbproject.data.CSS;
 import chessosisnbproject.data.Colour;
 import chessosisnbproject.data.Direction;
@@ -21,6 +22,11 @@ import java.util.regex.Pattern;
  */
 public class SUM {
 
+    // Cached values() arrays indexed by the piece indexes of Position (and
+    // the same modulo 6 for the piece types)
+    private static final Piece[] PIECES = Piece.values();
+    private static final PieceType[] PIECE_TYPES = PieceType.values();
+
     // Private constructor -- no instances, no Javadoc
     private SUM() {
     }
@@ -38,35 +44,13 @@ public class SUM {
      * @param pos the context
      * @return the set of pieces that have pseudo-legal access to the given
      * square
-     * @throws Exception
      */
-    public static EnumSet<Square> pseudoLegalAccess( Square sq, Position pos )
-        throws Exception {
-        EnumSet<Square> activePiecesWithAccess
-            = EnumSet.noneOf( Square.class );
+    public static EnumSet<Square> pseudoLegalAccess( Square sq, Position pos ) {
         Colour activeColor
             = ( pos.turn() == Colour.WHITE ) ? Colour.WHITE : Colour.BLACK;
 
-        // Pawns
-        activePiecesWithAccess.addAll(
-            pLegalAccessPawns( sq, pos, activeColor ) );
-        // Bishops
-        activePiecesWithAccess.addAll(
-            pLegalAccessBishops( sq, pos, activeColor, false ) );
-        // Knights
-        activePiecesWithAccess.addAll(
-            pLegalAccessKnights( sq, pos, activeColor ) );
-        // Rooks
-        activePiecesWithAccess.addAll(
-            pLegalAccessRooks( sq, pos, activeColor, false ) );
-        // Queens
-        activePiecesWithAccess.addAll(
-            pLegalAccessQueens( sq, pos, activeColor ) );
-        // Kings
-        activePiecesWithAccess.addAll(
-            pLegalAccessKing( sq, pos, activeColor ) );
-
-        return activePiecesWithAccess;
+        return bitboardToSqSet( Attacks.attackersTo(
+            pos, sq.ordinal(), pos.bothArmies(), activeColor ) );
     }
 
     /**
@@ -76,25 +60,9 @@ public class SUM {
      *
      * @param bitboard the Java long to convert
      * @return a Square EnumSet
-     * @throws Exception might be thrown in squareBitToSquare()
      */
-    public static EnumSet<Square> bitboardToSqSet( long bitboard )
-        throws Exception {
-        // Extract the individual square bits from the bitboard
-        Set<Long> setOfSquareBits
-            = splitBitboardIntoSetOfSquareBits( bitboard );
-
-        // This creates an empty EnumSet
-        EnumSet<Square> squareSet = EnumSet.noneOf( Square.class );
-
-        // Convert the square bits to Square constants and add them
-        // to the EnumSet
-        for ( Long squareBit : setOfSquareBits ) {
-            Square square = squareBitToSquare( squareBit );
-            squareSet.add( square );
-        }
-
-        return squareSet;
+    public static EnumSet<Square> bitboardToSqSet( long bitboard ) {
+        return Bitboards.toSquareSet( bitboard );
     }
 
     /**
@@ -139,13 +107,7 @@ public class SUM {
             throw new Exception( "squareBit: " + squareBit );
         }
 
-        for ( Square square : Square.values() ) {
-            if ( square.bit() == squareBit ) {
-                return square;
-            }
-        }
-
-        return null;
+        return Bitboards.lsbSquare( squareBit );
     }
 
     /**
@@ -157,12 +119,7 @@ public class SUM {
      * @return true when bitboard is a square bit
      */
     public static boolean validSquareBit( long bitboard ) {
-        for ( Square square : Square.values() ) {
-            if ( square.bit() == bitboard ) {
-                return true;
-            }
-        }
-        return false;
+        return Bitboards.isSquareBit( bitboard );
     }
 
     /**
@@ -178,16 +135,12 @@ public class SUM {
         // LinkedHashSet orders its elements based on the order in which
         // they were inserted into the set. The set is empty to begin with.
         Set<Long> setOfSquareBits = new LinkedHashSet<>();
-        long leftShiftingValue = 1;
 
-        do {
-            // If the condition is true, bitboard has a bit set at the
-            // position indicated by leftShiftingValue
-            if ( ( leftShiftingValue & bitboard ) != 0 ) {
-                setOfSquareBits.add( leftShiftingValue );
-            }
-            leftShiftingValue <<= 1;
-        } while ( leftShiftingValue != 0 );
+        // The lowest set bit is bitboard & -bitboard
+        while ( bitboard != 0 ) {
+            setOfSquareBits.add( bitboard & -bitboard );
+            bitboard = Bitboards.clearLsb( bitboard );
+        }
 
         return setOfSquareBits;
     }
@@ -199,19 +152,7 @@ public class SUM {
      * @return a value between 0 and 64
      */
     public static int numberOfSetBits( long bitboard ) {
-        int setBitCount = 0;
-        long leftShiftingValue = 1;
-
-        do {
-            // A set bit has been found if the bitwise AND produces
-            // a non-zero result
-            if ( ( leftShiftingValue & bitboard ) != 0 ) {
-                setBitCount++;
-            }
-            leftShiftingValue <<= 1;
-        } while ( leftShiftingValue != 0 );
-
-        return setBitCount;
+        return Bitboards.popCount( bitboard );
     }
 
     /**
@@ -299,59 +240,18 @@ public class SUM {
      * +--------------+       S
      * </pre>
      *
-     * View the bitboard index diagram at the beginning of CSS.java to get an
-     * idea on how the method accomplishes its task.
+     * The adjacent square is looked up in the neighbour table of class
+     * Rays.
      *
      * @param square the square to operate on
      * @param direction the direction of the adjacent square
      * @return the adjacent square or null if no such square exists
-     * @throws Exception
      */
-    public static Square adjacentSquare( Square square, Direction direction )
-        throws Exception {
-        long adjacentSquareBB; // BB, bitboard
-        switch ( direction ) {
-            case NORTH:
-                adjacentSquareBB = square.bit() << 8;
-                // Moving off the north of the board results in the square
-                // bit becoming equal to zero
-                if ( adjacentSquareBB == 0 ) {
-                    return null;
-                }
-                return SUM.squareBitToSquare( adjacentSquareBB );
-            case EAST:
-                adjacentSquareBB = square.bit() << 1;
-                // If the square bit has just moved off the rank, the bitwise
-                // AND produces zero
-                if ( ( adjacentSquareBB & SUM.rankOfSquare( square ) ) == 0 ) {
-                    return null;
-                }
-                return SUM.squareBitToSquare( adjacentSquareBB );
-            case SOUTH:
-                adjacentSquareBB = square.bit() >>> 8;
-                // Moving off the south of the board results in zero
-                if ( adjacentSquareBB == 0 ) {
-                    return null;
-                }
-                return SUM.squareBitToSquare( adjacentSquareBB );
-            case WEST:
-                adjacentSquareBB = square.bit() >>> 1;
-                // Square bit moves off rank, bitwise AND produces zero
-                if ( ( adjacentSquareBB & SUM.rankOfSquare( square ) ) == 0 ) {
-                    return null;
-                }
-                return SUM.squareBitToSquare( adjacentSquareBB );
-            // Same action for the remaining four cases
-            case NORTHEAST:
-            case NORTHWEST:
-            case SOUTHEAST:
-            case SOUTHWEST:
-                return adjacentSquareOnDiagonal( square, direction );
-            // The default case should be impossible
-            default:
-                throw new Exception(
-                    "Executed supposedly impossible default case of switch" );
-        }
+    public static Square adjacentSquare( Square square, Direction direction ) {
+        int adjacentSqIndex = Rays.neighbour( square.ordinal(), direction );
+
+        return ( adjacentSqIndex < 0 )
+            ? null : Bitboards.square( adjacentSqIndex );
     }
 
     /**
@@ -363,38 +263,10 @@ public class SUM {
      * @param pos the context
      * @return the piece found on the square
      */
-    public static Piece resolvePiece( Square sq, Position pos ) {
-        PieceType pieceType = resolvePieceType( sq, pos );
-        if ( pieceType == null ) {
-            return null;
-        }
-        Colour pieceColor = ( ( pos.whiteArmy() & sq.bit() ) != 0 )
-            ? Colour.WHITE : Colour.BLACK;
-        if ( pieceColor == Colour.WHITE && pieceType == PieceType.PAWN ) {
-            return Piece.WHITE_PAWN;
-        } else if ( pieceColor == Colour.WHITE && pieceType == PieceType.BISHOP ) {
-            return Piece.WHITE_BISHOP;
-        } else if ( pieceColor == Colour.WHITE && pieceType == PieceType.KNIGHT ) {
-            return Piece.WHITE_KNIGHT;
-        } else if ( pieceColor == Colour.WHITE && pieceType == PieceType.ROOK ) {
-            return Piece.WHITE_ROOK;
-        } else if ( pieceColor == Colour.WHITE && pieceType == PieceType.QUEEN ) {
-            return Piece.WHITE_QUEEN;
-        } else if ( pieceColor == Colour.WHITE && pieceType == PieceType.KING ) {
-            return Piece.WHITE_KING;
-        } else if ( pieceType == PieceType.PAWN ) {
-            return Piece.BLACK_PAWN;
-        } else if ( pieceType == PieceType.BISHOP ) {
-            return Piece.BLACK_BISHOP;
-        } else if ( pieceType == PieceType.KNIGHT ) {
-            return Piece.BLACK_KNIGHT;
-        } else if ( pieceType == PieceType.ROOK ) {
-            return Piece.BLACK_ROOK;
-        } else if ( pieceType == PieceType.QUEEN ) {
-            return Piece.BLACK_QUEEN;
-        } else { // Black king
-            return Piece.BLACK_KING;
-        }
+    public static Piece resolvePiece( Square sq, Board pos ) {
+        int pieceIndex = pos.pieceIndexAt( sq.ordinal() );
+        return ( pieceIndex == Position.EMPTY_SQUARE )
+            ? null : PIECES[ pieceIndex ];
     }
 
     /**
@@ -405,17 +277,13 @@ public class SUM {
      * @param pos the context
      * @return the color of the piece or null
      */
-    public static Colour resolvePieceColor( Square sq, Position pos ) {
-        Piece piece = resolvePiece( sq, pos );
-        if ( piece == null ) { // Empty square
+    public static Colour resolvePieceColor( Square sq, Board pos ) {
+        int pieceIndex = pos.pieceIndexAt( sq.ordinal() );
+        if ( pieceIndex == Position.EMPTY_SQUARE ) { // Empty square
             return null;
-        } else if ( piece == Piece.WHITE_PAWN || piece == Piece.WHITE_BISHOP
-            || piece == Piece.WHITE_KNIGHT || piece == Piece.WHITE_ROOK
-            || piece == Piece.WHITE_QUEEN || piece == Piece.WHITE_KING ) {
-            return Colour.WHITE;
-        } else {
-            return Colour.BLACK;
         }
+        return ( pieceIndex <= Position.WHITE_KING )
+            ? Colour.WHITE : Colour.BLACK;
     }
 
     /**
@@ -428,33 +296,11 @@ public class SUM {
      * @return the type of the chessman on the square
      */
     public static PieceType resolvePieceType(
-        Square square, Position position ) {
-        // Pawns
-        if ( ( square.bit() & position.whitePawns() ) != 0
-            || ( square.bit() & position.blackPawns() ) != 0 ) {
-            return PieceType.PAWN;
-        } // Bishops
-        else if ( ( square.bit() & position.whiteBishops() ) != 0
-            || ( square.bit() & position.blackBishops() ) != 0 ) {
-            return PieceType.BISHOP;
-        } // Knights
-        else if ( ( square.bit() & position.whiteKnights() ) != 0
-            || ( square.bit() & position.blackKnights() ) != 0 ) {
-            return PieceType.KNIGHT;
-        } // Rooks
-        else if ( ( square.bit() & position.whiteRooks() ) != 0
-            || ( square.bit() & position.blackRooks() ) != 0 ) {
-            return PieceType.ROOK;
-        } // Queens
-        else if ( ( square.bit() & position.whiteQueens() ) != 0
-            || ( square.bit() & position.blackQueens() ) != 0 ) {
-            return PieceType.QUEEN;
-        } // Kings
-        else if ( ( square.bit() & position.whiteKing() ) != 0
-            || ( square.bit() & position.blackKing() ) != 0 ) {
-            return PieceType.KING;
-        }
-        return null;
+        Square square, Board position ) {
+        int pieceIndex = position.pieceIndexAt( square.ordinal() );
+        // The six piece indexes of each color are in the order of PieceType
+        return ( pieceIndex == Position.EMPTY_SQUARE )
+            ? null : PIECE_TYPES[ pieceIndex % 6 ];
     }
 
     /**
@@ -1138,165 +984,6 @@ public class SUM {
         }
     }
 
-    // The following method deals with adjacent squares on diagonals.
-    private static Square adjacentSquareOnDiagonal(
-        Square square, Direction direction ) throws Exception {
-        // Call the private method for dealing with getting the single
-        // diagonal square of a corner square
-        if ( ( square.bit() & CSS.CORNER_SQUARES ) != 0 ) {
-            return adjacentSquareOnDiagonalOfCornerSquare( square, direction );
-        } // The following two if's deal with non-corner squares on rank 1 and 8
-        else if ( ( square.bit() & CSS.RANK_1 ) != 0 ) {
-            return adjacentSquareOnDiagonalOfSquareOnRank1( square, direction );
-        } else if ( ( square.bit() & CSS.RANK_8 ) != 0 ) {
-            return adjacentSquareOnDiagonalOfSquareOnRank8( square, direction );
-        } // The following two if's deal with non-corner squares on file A and H
-        else if ( ( square.bit() & CSS.FILE_A ) != 0 ) {
-            return adjacentSquareOnDiagonalOfSquareOnFileA( square, direction );
-        } else if ( ( square.bit() & CSS.FILE_H ) != 0 ) {
-            return adjacentSquareOnDiagonalOfSquareOnFileH( square, direction );
-        } // The square is not on the edge of the board
-        else {
-            return adjacentSquareOnDiagonalOfSquareNotOnEdge( square, direction );
-        }
-    }
-
-    private static Square adjacentSquareOnDiagonalOfSquareNotOnEdge(
-        Square square, Direction direction ) throws Exception {
-        Square squareToReturn = null;
-
-        switch ( direction ) {
-            case NORTHEAST:
-                squareToReturn = SUM.squareBitToSquare( square.bit() << 9 );
-                break;
-            case NORTHWEST:
-                squareToReturn = SUM.squareBitToSquare( square.bit() << 7 );
-                break;
-            case SOUTHEAST:
-                squareToReturn = SUM.squareBitToSquare( square.bit() >>> 7 );
-                break;
-            case SOUTHWEST:
-                squareToReturn = SUM.squareBitToSquare( square.bit() >>> 9 );
-                break;
-            // This method cannot return null as we are dealing with a
-            // non-corner square; there are squares in every direction
-            default:
-                throw new Exception(
-                    "Executed forbidden default case of switch with value "
-                    + direction );
-        }
-
-        return squareToReturn;
-    }
-
-    // Deals with non-corner squares on the a-file
-    private static Square adjacentSquareOnDiagonalOfSquareOnFileA(
-        Square square, Direction direction ) throws Exception {
-        Square squareToReturn = null;
-        // The assumption is the square argument is always valid (is on
-        // file A)
-        switch ( direction ) {
-            case NORTHEAST:
-                squareToReturn = SUM.squareBitToSquare( square.bit() << 9 );
-                break;
-            case SOUTHEAST:
-                squareToReturn = SUM.squareBitToSquare( square.bit() >>> 7 );
-                break;
-        }
-
-        return squareToReturn;
-    }
-
-    // Deals with non-corner squares on the h-file
-    private static Square adjacentSquareOnDiagonalOfSquareOnFileH(
-        Square square, Direction direction ) throws Exception {
-        Square squareToReturn = null;
-        // The assumption is that the square argument is always valid
-        // (is on file H)
-        switch ( direction ) {
-            case NORTHWEST:
-                squareToReturn = SUM.squareBitToSquare( square.bit() << 7 );
-                break;
-            case SOUTHWEST:
-                squareToReturn = SUM.squareBitToSquare( square.bit() >>> 9 );
-                break;
-        }
-
-        return squareToReturn;
-    }
-
-    // Deals with non-corner squares on the first rank
-    private static Square adjacentSquareOnDiagonalOfSquareOnRank1(
-        Square square, Direction direction ) throws Exception {
-        Square squareToReturn = null;
-        // It is assumed the square argument is always valid (is on the
-        // first rank)
-        switch ( direction ) {
-            case NORTHEAST:
-                // Moving nine bits towards the most significant bit
-                squareToReturn = SUM.squareBitToSquare( square.bit() << 9 );
-                break;
-            case NORTHWEST:
-                // Moving seven bits
-                squareToReturn = SUM.squareBitToSquare( square.bit() << 7 );
-                break;
-        }
-
-        // A null return value is legal
-        return squareToReturn;
-    }
-
-    // Deals with non-corner squares on the eighth rank
-    private static Square adjacentSquareOnDiagonalOfSquareOnRank8(
-        Square square, Direction direction ) throws Exception {
-        Square squareToReturn = null;
-        // It is assumed the square argument is always valid (is on the
-        // eighth rank)
-        switch ( direction ) {
-            case SOUTHEAST:
-                squareToReturn = SUM.squareBitToSquare( square.bit() >>> 7 );
-                break;
-            case SOUTHWEST:
-                squareToReturn = SUM.squareBitToSquare( square.bit() >>> 9 );
-                break;
-        }
-
-        return squareToReturn;
-    }
-
-    // Gets the adjacent diagonal squares of the corner squares
-    private static Square adjacentSquareOnDiagonalOfCornerSquare(
-        Square square, Direction direction ) throws Exception {
-        // Let's assume the square argument is always valid (is a
-        // corner square)
-        Square squareToReturn = null;
-        switch ( square ) {
-            case A1:
-                if ( direction == Direction.NORTHEAST ) {
-                    squareToReturn = Square.B2;
-                }
-                break;
-            case A8:
-                if ( direction == Direction.SOUTHEAST ) {
-                    squareToReturn = Square.B7;
-                }
-                break;
-            case H1:
-                if ( direction == Direction.NORTHWEST ) {
-                    squareToReturn = Square.G2;
-                }
-                break;
-            case H8:
-                if ( direction == Direction.SOUTHWEST ) {
-                    squareToReturn = Square.G7;
-                }
-                break;
-        }
-
-        // Returning null is legal for this method
-        return squareToReturn;
-    }
-
     private static String unicodeChessSymbolOfSquare(
         Position pos, Square sq ) {
 
@@ -1328,119 +1015,4 @@ public class SUM {
             return "";
         }
     }
-
-    private static EnumSet<Square> pLegalAccessPawns( // p for pseudo
-        Square sq, Position pos, Colour activeColor ) throws Exception {
-        EnumSet<Square> pawnsWithAccess = EnumSet.noneOf( Square.class );
-
-        EnumSet<Square> pawnsSquares
-            = MoveGenerator.pawnsSquares( sq, resolvePieceColor( sq, pos ) );
-        for ( Square pSq : pawnsSquares ) {
-            if ( resolvePieceType( pSq, pos ) == PieceType.PAWN
-                && resolvePieceColor( pSq, pos ) == activeColor ) {
-                pawnsWithAccess.add( pSq );
-            }
-        }
-
-        return pawnsWithAccess;
-    }
-
-    private static EnumSet<Square> pLegalAccessBishops( // p for pseudo
-        Square sq, Position pos, Colour activeColor, boolean queensInstead )
-        throws Exception {
-        // Search for queens instead of bishops?
-        PieceType bishopOrQueen
-            = queensInstead ? PieceType.QUEEN : PieceType.BISHOP;
-
-        EnumSet<Square> bishopsWithAccess = EnumSet.noneOf( Square.class );
-
-        for ( Direction dir : Direction.intermediateDirections() ) {
-            Square nextSq = sq;
-            while ( true ) {
-                nextSq = adjacentSquare( nextSq, dir );
-                if ( nextSq == null ) {
-                    break;
-                } else if ( resolvePieceType( nextSq, pos ) != null ) {
-                    if ( resolvePieceType( nextSq, pos ) == bishopOrQueen
-                        && resolvePieceColor( nextSq, pos ) == activeColor ) {
-                        bishopsWithAccess.add( nextSq );
-                    }
-                    break;
-                }
-            }
-        }
-
-        return bishopsWithAccess;
-    }
-
-    private static EnumSet<Square> pLegalAccessKnights( // p for pseudo
-        Square sq, Position pos, Colour activeColor ) throws Exception {
-        EnumSet<Square> knightsWithAccess = EnumSet.noneOf( Square.class );
-
-        EnumSet<Square> knightsSquares = MoveGenerator.knightsSquares( sq );
-        for ( Square kSq : knightsSquares ) {
-            if ( resolvePieceType( kSq, pos ) == PieceType.KNIGHT
-                && resolvePieceColor( kSq, pos ) == activeColor ) {
-                knightsWithAccess.add( kSq );
-            }
-        }
-
-        return knightsWithAccess;
-    }
-
-    private static EnumSet<Square> pLegalAccessRooks( // p for pseudo
-        Square sq, Position pos, Colour activeColor, boolean queensInstead )
-        throws Exception {
-        // Search for queens instead of rooks?
-        PieceType rookOrQueen
-            = queensInstead ? PieceType.QUEEN : PieceType.ROOK;
-
-        EnumSet<Square> rooksWithAccess = EnumSet.noneOf( Square.class );
-
-        for ( Direction dir : Direction.cardinalDirections() ) {
-            Square nextSq = sq;
-            while ( true ) {
-                nextSq = adjacentSquare( nextSq, dir );
-                if ( nextSq == null ) {
-                    break;
-                } else if ( resolvePieceType( nextSq, pos ) != null ) {
-                    if ( resolvePieceType( nextSq, pos ) == rookOrQueen
-                        && resolvePieceColor( nextSq, pos ) == activeColor ) {
-                        rooksWithAccess.add( nextSq );
-                    }
-                    break;
-                }
-            }
-        }
-
-        return rooksWithAccess;
-    }
-
-    private static EnumSet<Square> pLegalAccessQueens( // p for pseudo
-        Square sq, Position pos, Colour activeColor ) throws Exception {
-        EnumSet<Square> queensWithAccess = EnumSet.noneOf( Square.class );
-
-        queensWithAccess.addAll(
-            pLegalAccessBishops( sq, pos, activeColor, true ) );
-        queensWithAccess.addAll(
-            pLegalAccessRooks( sq, pos, activeColor, true ) );
-
-        return queensWithAccess;
-    }
-
-    private static EnumSet<Square> pLegalAccessKing( // p for pseudo
-        Square sq, Position pos, Colour activeColor ) throws Exception {
-        EnumSet<Square> kingWithAccess = EnumSet.noneOf( Square.class );
-
-        EnumSet<Square> kingsSquares = MoveGenerator.kingsSquares( sq );
-        for ( Square kSq : kingsSquares ) {
-            if ( resolvePieceType( kSq, pos ) == PieceType.KING
-                && resolvePieceColor( kSq, pos ) == activeColor ) {
-                kingWithAccess.add( kSq );
-                break; // There's only one king
-            }
-        }
-
-        return kingWithAccess;
-    }
 }
@@ -0,0 +1,266 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.CSS;
+import chessosisnbproject.data.Colour;
+import chessosisnbproject.data.Square;
+
+/**
+ * Everything the move generator needs to know about the side to move,
+ * held by one constant object for each side. The generator looks up the
+ * object once per call and passes it along, so the inner loops read the
+ * push direction, the castling squares and the friendly and enemy pieces
+ * from it instead of testing pos.turn() over and over again. There are
+ * exactly two instances, WHITE and BLACK.
+ *
+ * @author Henrik Lindberg
+ */
+abstract class Side {
+
+    static final Side WHITE = new White(), BLACK = new Black();
+
+    // The color of the side and its opponent
+    final Colour colour, enemyColour;
+
+    // The bit index difference of a one-rank pawn push
+    final int forward;
+
+    // The rank a pawn lands on with the first step of a double push
+    final long doublePushRank;
+
+    // The piece index of the side's rooks (see Position.WHITE_ROOKS)
+    final int rookIndex;
+
+    // The squares of kingside castling: the king's initial square, the
+    // square it passes and its destination, and the rook's initial square.
+    // The rook lands on the square the king passes.
+    final Square kingSq, kingPassedSq, kingDestSq, rookSq;
+
+    // The same squares for queenside castling. The squares between the
+    // king and the rook must be empty, which includes the B-file square
+    // only the rook passes.
+    final Square queensideKingPassedSq, queensideKingDestSq, queensideRookSq;
+    final long queensidePath;
+
+    private Side( Colour colour, Colour enemyColour, int forward,
+        long doublePushRank, int rookIndex, Square kingSq,
+        Square kingPassedSq, Square kingDestSq, Square rookSq,
+        Square queensideKingPassedSq, Square queensideKingDestSq,
+        Square queensideRookSq ) {
+        this.colour = colour;
+        this.enemyColour = enemyColour;
+        this.forward = forward;
+        this.doublePushRank = doublePushRank;
+        this.rookIndex = rookIndex;
+        this.kingSq = kingSq;
+        this.kingPassedSq = kingPassedSq;
+        this.kingDestSq = kingDestSq;
+        this.rookSq = rookSq;
+        this.queensideKingPassedSq = queensideKingPassedSq;
+        this.queensideKingDestSq = queensideKingDestSq;
+        this.queensideRookSq = queensideRookSq;
+        this.queensidePath = queensideKingPassedSq.bit()
+            | queensideKingDestSq.bit() | ( queensideRookSq.bit() << 1 );
+    }
+
+    /**
+     * Returns the Side object of the given color. The color of a Board is
+     * never null, so anything but WHITE is taken for BLACK.
+     *
+     * @param colour WHITE or BLACK
+     * @return Side.WHITE or Side.BLACK
+     */
+    static Side of( Colour colour ) {
+        return ( colour == Colour.WHITE ) ? WHITE : BLACK;
+    }
+
+    // The pieces of the side and its opponent
+    abstract long friendlyPieces( Board pos );
+
+    abstract long enemyPieces( Board pos );
+
+    abstract long king( Board pos );
+
+    abstract long enemyKing( Board pos );
+
+    abstract long pawns( Board pos );
+
+    // The diagonal and the orthogonal sliders of the side
+    abstract long bishopsQueens( Board pos );
+
+    abstract long rooksQueens( Board pos );
+
+    abstract long enemyBishopsQueens( Board pos );
+
+    abstract long enemyRooksQueens( Board pos );
+
+    abstract boolean canCastleKingside( Board pos );
+
+    abstract boolean canCastleQueenside( Board pos );
+
+    // Shifts a bitboard of pawns one rank forward, and one rank forward and
+    // one file towards the A or H file. The file masks drop the squares
+    // that would wrap around the edge of the board.
+    abstract long pushes( long pawns );
+
+    abstract long westCaptures( long pawns );
+
+    abstract long eastCaptures( long pawns );
+
+    private static final class White extends Side {
+
+        White() {
+            super( Colour.WHITE, Colour.BLACK, 8, CSS.RANK_3,
+                Position.WHITE_ROOKS, Square.E1, Square.F1, Square.G1,
+                Square.H1, Square.D1, Square.C1, Square.A1 );
+        }
+
+        @Override
+        long friendlyPieces( Board pos ) {
+            return pos.whiteArmy();
+        }
+
+        @Override
+        long enemyPieces( Board pos ) {
+            return pos.blackArmy();
+        }
+
+        @Override
+        long king( Board pos ) {
+            return pos.whiteKing();
+        }
+
+        @Override
+        long enemyKing( Board pos ) {
+            return pos.blackKing();
+        }
+
+        @Override
+        long pawns( Board pos ) {
+            return pos.whitePawns();
+        }
+
+        @Override
+        long bishopsQueens( Board pos ) {
+            return pos.whiteBishops() | pos.whiteQueens();
+        }
+
+        @Override
+        long rooksQueens( Board pos ) {
+            return pos.whiteRooks() | pos.whiteQueens();
+        }
+
+        @Override
+        long enemyBishopsQueens( Board pos ) {
+            return pos.blackBishops() | pos.blackQueens();
+        }
+
+        @Override
+        long enemyRooksQueens( Board pos ) {
+            return pos.blackRooks() | pos.blackQueens();
+        }
+
+        @Override
+        boolean canCastleKingside( Board pos ) {
+            return pos.whiteCanCastleKingside();
+        }
+
+        @Override
+        boolean canCastleQueenside( Board pos ) {
+            return pos.whiteCanCastleQueenside();
+        }
+
+        @Override
+        long pushes( long pawns ) {
+            return pawns << 8;
+        }
+
+        @Override
+        long westCaptures( long pawns ) {
+            return ( pawns << 7 ) & ~CSS.FILE_H;
+        }
+
+        @Override
+        long eastCaptures( long pawns ) {
+            return ( pawns << 9 ) & ~CSS.FILE_A;
+        }
+    }
+
+    private static final class Black extends Side {
+
+        Black() {
+            super( Colour.BLACK, Colour.WHITE, -8, CSS.RANK_6,
+                Position.BLACK_ROOKS, Square.E8, Square.F8, Square.G8,
+                Square.H8, Square.D8, Square.C8, Square.A8 );
+        }
+
+        @Override
+        long friendlyPieces( Board pos ) {
+            return pos.blackArmy();
+        }
+
+        @Override
+        long enemyPieces( Board pos ) {
+            return pos.whiteArmy();
+        }
+
+        @Override
+        long king( Board pos ) {
+            return pos.blackKing();
+        }
+
+        @Override
+        long enemyKing( Board pos ) {
+            return pos.whiteKing();
+        }
+
+        @Override
+        long pawns( Board pos ) {
+            return pos.blackPawns();
+        }
+
+        @Override
+        long bishopsQueens( Board pos ) {
+            return pos.blackBishops() | pos.blackQueens();
+        }
+
+        @Override
+        long rooksQueens( Board pos ) {
+            return pos.blackRooks() | pos.blackQueens();
+        }
+
+        @Override
+        long enemyBishopsQueens( Board pos ) {
+            return pos.whiteBishops() | pos.whiteQueens();
+        }
+
+        @Override
+        long enemyRooksQueens( Board pos ) {
+            return pos.whiteRooks() | pos.whiteQueens();
+        }
+
+        @Override
+        boolean canCastleKingside( Board pos ) {
+            return pos.blackCanCastleKingside();
+        }
+
+        @Override
+        boolean canCastleQueenside( Board pos ) {
+            return pos.blackCanCastleQueenside();
+        }
+
+        @Override
+        long pushes( long pawns ) {
+            return pawns >>> 8;
+        }
+
+        @Override
+        long westCaptures( long pawns ) {
+            return ( pawns >>> 9 ) & ~CSS.FILE_H;
+        }
+
+        @Override
+        long eastCaptures( long pawns ) {
+            return ( pawns >>> 7 ) & ~CSS.FILE_A;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.Bitboards;
+import chessosisnbproject.data.Colour;
+import chessosisnbproject.data.Square;
+import java.util.Random;
+
+/**
+ * Zobrist hashing of chess positions. Every (piece, square) pair, the side
+ * to move, each of the four castling rights and each en passant file gets a
+ * random 64-bit number. The key of a position is the XOR of the numbers of
+ * the features present in it. Since XOR is its own inverse, making a move
+ * only requires XOR'ing out the features that disappear and XOR'ing in the
+ * ones that appear, e.g., two piece-square numbers for a quiet move.
+ * <p>
+ * The random numbers are generated from a fixed seed, so the key of a
+ * position is the same from one run of the program to the next. The
+ * halfmove clock and the fullmove number are not part of the key.
+ * <p>
+ * The methods of the class return the number (or numbers XOR'ed together)
+ * for a feature. The piece indexes are the constants Position.WHITE_PAWNS
+ * to Position.BLACK_KING.
+ *
+ * @author Henrik Lindberg
+ */
+public class Zobrist {
+
+    private static final long[][] PIECE_SQUARE = new long[ 12 ][ 64 ];
+    private static final long[] CASTLING = new long[ 4 ],
+        EN_PASSANT_FILE = new long[ 8 ];
+    private static final long BLACK_TO_MOVE;
+
+    static {
+        Random random = new Random( 20150621L );
+        for ( int piece = 0; piece < 12; piece++ ) {
+            for ( int sq = 0; sq < 64; sq++ ) {
+                PIECE_SQUARE[ piece ][ sq ] = random.nextLong();
+            }
+        }
+        for ( int i = 0; i < 4; i++ ) {
+            CASTLING[ i ] = random.nextLong();
+        }
+        for ( int file = 0; file < 8; file++ ) {
+            EN_PASSANT_FILE[ file ] = random.nextLong();
+        }
+        BLACK_TO_MOVE = random.nextLong();
+    }
+
+    // Private constructor -- no instances, no Javadoc
+    private Zobrist() {
+    }
+
+    /**
+     * Computes the key of a position from scratch.
+     *
+     * @param pos the position
+     * @return the Zobrist key
+     */
+    public static long key( Board pos ) {
+        return key( new long[]{
+            pos.whitePawns(), pos.whiteBishops(), pos.whiteKnights(),
+            pos.whiteRooks(), pos.whiteQueens(), pos.whiteKing(),
+            pos.blackPawns(), pos.blackBishops(), pos.blackKnights(),
+            pos.blackRooks(), pos.blackQueens(), pos.blackKing() },
+            pos.turn(),
+            pos.whiteCanCastleKingside(), pos.whiteCanCastleQueenside(),
+            pos.blackCanCastleKingside(), pos.blackCanCastleQueenside(),
+            pos.enPassantTargetSquare() );
+    }
+
+    /**
+     * Computes the key of a position from scratch given the contents of the
+     * position as separate values. Used by Position's constructors, which
+     * need the key before the object is complete.
+     *
+     * @param pieces the 12 piece placement bitboards in the order of
+     * Position.pieceBBArray()
+     * @param turn the side to move
+     * @param whiteKingside castling right indicators
+     * @param whiteQueenside
+     * @param blackKingside
+     * @param blackQueenside
+     * @param enPassantTargetSquare the square or null
+     * @return the Zobrist key
+     */
+    public static long key( long[] pieces, Colour turn,
+        boolean whiteKingside, boolean whiteQueenside,
+        boolean blackKingside, boolean blackQueenside,
+        Square enPassantTargetSquare ) {
+        long key = 0;
+
+        for ( int piece = 0; piece < 12; piece++ ) {
+            long bitboard = pieces[ piece ];
+            while ( bitboard != 0 ) {
+                key ^= PIECE_SQUARE[ piece ][ Bitboards.lsb( bitboard ) ];
+                bitboard &= bitboard - 1;
+            }
+        }
+
+        return key ^ sideToMove( turn )
+            ^ castlingRights( whiteKingside, whiteQueenside,
+                blackKingside, blackQueenside )
+            ^ enPassant( enPassantTargetSquare );
+    }
+
+    /**
+     * Returns the number of a piece on a square.
+     *
+     * @param pieceIndex Position.WHITE_PAWNS to Position.BLACK_KING
+     * @param sqIndex bit index of the square, between 0 and 63
+     * @return the random number of the (piece, square) pair
+     */
+    public static long pieceSquare( int pieceIndex, int sqIndex ) {
+        return PIECE_SQUARE[ pieceIndex ][ sqIndex ];
+    }
+
+    /**
+     * Returns the side to move part of the key. It's zero when White is to
+     * move, so toggling the side to move is an XOR with sideToMove(
+     * Colour.BLACK ) either way.
+     *
+     * @param turn the side to move
+     * @return zero or the random number for Black to move
+     */
+    public static long sideToMove( Colour turn ) {
+        return ( turn == Colour.BLACK ) ? BLACK_TO_MOVE : 0;
+    }
+
+    /**
+     * Returns the castling rights part of the key.
+     *
+     * @param whiteKingside castling right indicators
+     * @param whiteQueenside
+     * @param blackKingside
+     * @param blackQueenside
+     * @return the numbers of the rights that are set XOR'ed together
+     */
+    public static long castlingRights( boolean whiteKingside,
+        boolean whiteQueenside, boolean blackKingside,
+        boolean blackQueenside ) {
+        return ( whiteKingside ? CASTLING[ 0 ] : 0 )
+            ^ ( whiteQueenside ? CASTLING[ 1 ] : 0 )
+            ^ ( blackKingside ? CASTLING[ 2 ] : 0 )
+            ^ ( blackQueenside ? CASTLING[ 3 ] : 0 );
+    }
+
+    /**
+     * Returns the en passant part of the key. Only the file of the en
+     * passant target square is significant since the rank follows from the
+     * side to move.
+     *
+     * @param enPassantTargetSquare the square or null
+     * @return the number of the file or zero if the square is null
+     */
+    public static long enPassant( Square enPassantTargetSquare ) {
+        return ( enPassantTargetSquare == null )
+            ? 0 : EN_PASSANT_FILE[ enPassantTargetSquare.ordinal() & 7 ];
+    }
+}
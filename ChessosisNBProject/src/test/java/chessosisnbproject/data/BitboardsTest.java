@@ -0,0 +1,71 @@
+package chessosisnbproject.data;
+
+import java.util.EnumSet;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class BitboardsTest {
+
+    /*
+     Iterating a bitboard with lsb() and clearLsb() must visit the set bits
+     in ascending order, popCount() of them in total.
+     */
+    @Test
+    public void lsbIterationVisitsEverySetBit() {
+        long[] bitboards = { CSS.EMPTY_BOARD, CSS.A1, CSS.H8, CSS.RANK_2,
+            CSS.DARK_SQUARES, CSS.CORNER_SQUARES, ~CSS.EMPTY_BOARD };
+
+        for ( long bitboard : bitboards ) {
+            long rebuilt = 0;
+            int count = 0, previous = -1;
+            for ( long bb = bitboard; bb != 0; bb = Bitboards.clearLsb( bb ) ) {
+                int sq = Bitboards.lsb( bb );
+                assertTrue( sq > previous );
+                previous = sq;
+                rebuilt |= 1L << sq;
+                ++count;
+            }
+            assertEquals( bitboard, rebuilt );
+            assertEquals( Bitboards.popCount( bitboard ), count );
+        }
+    }
+
+    /*
+     Only bitboards with exactly one bit set are square bits, and the
+     square of a square bit is the Square constant with the same bit.
+     */
+    @Test
+    public void squareBitsAndSquares() {
+        for ( Square square : Square.values() ) {
+            assertTrue( Bitboards.isSquareBit( square.bit() ) );
+            assertEquals( square, Bitboards.lsbSquare( square.bit() ) );
+            assertEquals( square, Bitboards.square( square.ordinal() ) );
+        }
+        assertFalse( Bitboards.isSquareBit( CSS.EMPTY_BOARD ) );
+        assertFalse( Bitboards.isSquareBit( CSS.A1 | CSS.B1 ) );
+        assertEquals( EnumSet.of( Square.A1, Square.H1, Square.A8, Square.H8 ),
+            Bitboards.toSquareSet( CSS.CORNER_SQUARES ) );
+    }
+
+    /*
+     flipVertical() and mirrorHorizontal() must move each square to its
+     counterpart on the other rank or file, and each is its own inverse.
+     */
+    @Test
+    public void flipAndMirrorMoveEverySquare() {
+        for ( Square square : Square.values() ) {
+            int sq = square.ordinal();
+            assertEquals( 1L << ( sq ^ 56 ),
+                Bitboards.flipVertical( square.bit() ) );
+            assertEquals( 1L << ( sq ^ 7 ),
+                Bitboards.mirrorHorizontal( square.bit() ) );
+        }
+        assertEquals( CSS.RANK_7, Bitboards.flipVertical( CSS.RANK_2 ) );
+        assertEquals( CSS.FILE_H, Bitboards.mirrorHorizontal( CSS.FILE_A ) );
+        long bitboard = 0x0123456789abcdefL;
+        assertEquals( bitboard, Bitboards.flipVertical(
+            Bitboards.flipVertical( bitboard ) ) );
+        assertEquals( bitboard, Bitboards.mirrorHorizontal(
+            Bitboards.mirrorHorizontal( bitboard ) ) );
+    }
+}
@@ -0,0 +1,48 @@
+package chessosisnbproject.data;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MoveListTest {
+
+    /*
+     A list with a tiny initial capacity must grow as moves are added and
+     keep the moves in insertion order.
+     */
+    @Test
+    public void listGrowsAndKeepsOrder() {
+        MoveList moves = new MoveList( 1 );
+
+        for ( int i = 0; i < 1000; i++ ) {
+            moves.add( i );
+        }
+
+        assertEquals( 1000, moves.size() );
+        for ( int i = 0; i < 1000; i++ ) {
+            assertEquals( i, moves.get( i ) );
+        }
+    }
+
+    /*
+     Clearing and truncating only change the size of the list. A cleared
+     list can be filled again.
+     */
+    @Test
+    public void clearAndTruncate() {
+        MoveList moves = new MoveList();
+        moves.add( 7 );
+        moves.add( 8 );
+        moves.add( 9 );
+
+        moves.truncate( 2 );
+        assertEquals( 2, moves.size() );
+        assertTrue( moves.contains( 8 ) );
+        assertFalse( moves.contains( 9 ) );
+
+        moves.clear();
+        assertTrue( moves.isEmpty() );
+        moves.add( 10 );
+        assertEquals( 10, moves.get( 0 ) );
+        assertEquals( 1, moves.size() );
+    }
+}
@@ -0,0 +1,78 @@
+package chessosisnbproject.data;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PackedMoveTest {
+
+    /*
+     Packs every combination of source square, destination square and flags
+     and checks that the three fields can be read back unchanged.
+     */
+    @Test
+    public void fieldsSurviveRoundTrip() {
+        for ( int from = 0; from < 64; from++ ) {
+            for ( int to = 0; to < 64; to++ ) {
+                for ( int flags = 0; flags < 16; flags++ ) {
+                    int move = PackedMove.of( from, to, flags );
+                    assertEquals( from, PackedMove.from( move ) );
+                    assertEquals( to, PackedMove.to( move ) );
+                    assertEquals( flags, PackedMove.flags( move ) );
+                    assertTrue( move >= 0 && move < 0x10000 );
+                }
+            }
+        }
+    }
+
+    /*
+     The Square constants returned must match the bit indexes of the move.
+     */
+    @Test
+    public void squaresMatchBitIndexes() {
+        int move = PackedMove.of(
+            Square.G1.ordinal(), Square.F3.ordinal(), PackedMove.QUIET );
+        assertEquals( Square.G1, PackedMove.fromSquare( move ) );
+        assertEquals( Square.F3, PackedMove.toSquare( move ) );
+        assertEquals( "G1-F3", PackedMove.toString( move ) );
+    }
+
+    /*
+     Checks the capture, promotion and castling predicates as well as the
+     promotion piece type against each of the 16 flag values. The unused
+     values 6 and 7 count as captures since they have the capture bit set.
+     */
+    @Test
+    public void flagPredicatesAreConsistent() {
+        for ( int flags = 0; flags < 16; flags++ ) {
+            int move = PackedMove.of(
+                Square.E7.ordinal(), Square.E8.ordinal(), flags );
+            assertEquals( ( flags & PackedMove.CAPTURE ) != 0,
+                PackedMove.isCapture( move ) );
+            assertEquals( flags >= 8, PackedMove.isPromotion( move ) );
+            assertEquals( flags == PackedMove.KINGSIDE_CASTLING
+                || flags == PackedMove.QUEENSIDE_CASTLING,
+                PackedMove.isCastling( move ) );
+            assertEquals( flags >= 8, PackedMove.promotion( move ) != null );
+        }
+    }
+
+    /*
+     The promotion piece type is selected by the two lowest flag bits and
+     is the same with or without a capture.
+     */
+    @Test
+    public void promotionPieceTypes() {
+        int from = Square.B7.ordinal(), to = Square.A8.ordinal();
+
+        assertEquals( PieceType.KNIGHT, PackedMove.promotion(
+            PackedMove.of( from, to, PackedMove.KNIGHT_PROMOTION ) ) );
+        assertEquals( PieceType.BISHOP, PackedMove.promotion(
+            PackedMove.of( from, to, PackedMove.BISHOP_PROMOTION_CAPTURE ) ) );
+        assertEquals( PieceType.ROOK, PackedMove.promotion(
+            PackedMove.of( from, to, PackedMove.ROOK_PROMOTION ) ) );
+        assertEquals( PieceType.QUEEN, PackedMove.promotion(
+            PackedMove.of( from, to, PackedMove.QUEEN_PROMOTION_CAPTURE ) ) );
+        assertEquals( "B7-A8Q", PackedMove.toString(
+            PackedMove.of( from, to, PackedMove.QUEEN_PROMOTION_CAPTURE ) ) );
+    }
+}
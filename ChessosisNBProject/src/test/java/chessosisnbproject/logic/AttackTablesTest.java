@@ -0,0 +1,103 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.CSS;
+import chessosisnbproject.data.Colour;
+import chessosisnbproject.data.Square;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class AttackTablesTest {
+
+    /*
+     Compares the knight table against the knight's squares computed by
+     brute force from file and rank offsets. All 64 squares are tested.
+     */
+    @Test
+    public void knightAttacksMatchOffsetCalculation() {
+        int[][] jumps = {
+            { 1, 2 }, { 2, 1 }, { 2, -1 }, { 1, -2 },
+            { -1, -2 }, { -2, -1 }, { -2, 1 }, { -1, 2 } };
+
+        for ( Square sq : Square.values() ) {
+            assertEquals( sq.toString(), offsetAttacks( sq, jumps ),
+                AttackTables.knightAttacks( sq.ordinal() ) );
+        }
+    }
+
+    /*
+     Same as above but for the king.
+     */
+    @Test
+    public void kingAttacksMatchOffsetCalculation() {
+        int[][] steps = {
+            { 0, 1 }, { 1, 1 }, { 1, 0 }, { 1, -1 },
+            { 0, -1 }, { -1, -1 }, { -1, 0 }, { -1, 1 } };
+
+        for ( Square sq : Square.values() ) {
+            assertEquals( sq.toString(), offsetAttacks( sq, steps ),
+                AttackTables.kingAttacks( sq.ordinal() ) );
+        }
+    }
+
+    /*
+     Same as above but for pawns of both colors. Also checks that
+     pawnAttacks() picks the right table for the color argument.
+     */
+    @Test
+    public void pawnAttacksMatchOffsetCalculation() {
+        int[][] whiteCaptures = { { 1, 1 }, { -1, 1 } },
+            blackCaptures = { { 1, -1 }, { -1, -1 } };
+
+        for ( Square sq : Square.values() ) {
+            assertEquals( offsetAttacks( sq, whiteCaptures ),
+                AttackTables.whitePawnAttacks( sq.ordinal() ) );
+            assertEquals( offsetAttacks( sq, blackCaptures ),
+                AttackTables.blackPawnAttacks( sq.ordinal() ) );
+            assertEquals( AttackTables.whitePawnAttacks( sq.ordinal() ),
+                AttackTables.pawnAttacks( Colour.WHITE, sq.ordinal() ) );
+            assertEquals( AttackTables.blackPawnAttacks( sq.ordinal() ),
+                AttackTables.pawnAttacks( Colour.BLACK, sq.ordinal() ) );
+        }
+    }
+
+    /*
+     The total number of knight moves on an empty board is 336 and the
+     total number of king moves 420.
+     */
+    @Test
+    public void totalMobilityOnEmptyBoard() {
+        int knightTotal = 0, kingTotal = 0;
+
+        for ( int index = 0; index < 64; index++ ) {
+            knightTotal += SUM.numberOfSetBits(
+                AttackTables.knightAttacks( index ) );
+            kingTotal += SUM.numberOfSetBits(
+                AttackTables.kingAttacks( index ) );
+        }
+
+        assertEquals( 336, knightTotal );
+        assertEquals( 420, kingTotal );
+    }
+
+    //
+    // =============================
+    // == Private utility methods ==
+    // =============================
+    //
+    //
+    // Applies each (file, rank) offset to the square and collects the
+    // resulting squares that are still on the board
+    private static long offsetAttacks( Square sq, int[][] offsets ) {
+        int file = sq.ordinal() % 8, rank = sq.ordinal() / 8;
+        long attacks = CSS.EMPTY_BOARD;
+
+        for ( int[] offset : offsets ) {
+            int f = file + offset[ 0 ], r = rank + offset[ 1 ];
+            if ( f >= 0 && f < 8 && r >= 0 && r < 8 ) {
+                attacks |= 1L << ( 8 * r + f );
+            }
+        }
+
+        return attacks;
+    }
+}
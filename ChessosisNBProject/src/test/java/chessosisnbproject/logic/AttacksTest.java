@@ -0,0 +1,85 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.CSS;
+import chessosisnbproject.data.Colour;
+import chessosisnbproject.data.Square;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class AttacksTest {
+
+    private static final String[] TEST_FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r1bqk2r/1p2bppp/p1nppn2/8/2BNP3/2N1B3/PPP1QPPP/2KR3R b kq - 5 9",
+        "6k1/r1q1b2n/6QP/p3R3/1p3p2/1P6/1PP2P2/2K4R b - - 1 35",
+        "k3r3/8/8/8/Q7/3n4/8/4K3 w - - 0 1"
+    };
+
+    /*
+     In the standard starting position White attacks the whole of the 2nd
+     and 3rd ranks and every square of the 1st rank except the corners.
+     */
+    @Test
+    public void attackedSquaresInStartingPosition() {
+        Position pos = new Position();
+
+        assertEquals( CSS.RANK_2 | CSS.RANK_3
+            | ( CSS.RANK_1 & ~CSS.A1 & ~CSS.H1 ),
+            Attacks.attackedSquares( pos, Colour.WHITE ) );
+        assertEquals( CSS.RANK_7 | CSS.RANK_6
+            | ( CSS.RANK_8 & ~CSS.A8 & ~CSS.H8 ),
+            Attacks.attackedSquares( pos, Colour.BLACK ) );
+    }
+
+    /*
+     The three queries must agree with each other and with the
+     square-set based pseudoLegalAccess() on every square of the test
+     positions.
+     */
+    @Test
+    public void queriesAreConsistent() throws Exception {
+        for ( String fen : TEST_FENS ) {
+            Position pos = Position.fENToPosition( fen );
+            for ( Colour colour : Colour.values() ) {
+                long attacked = CSS.EMPTY_BOARD;
+                for ( Square sq : Square.values() ) {
+                    long attackers = Attacks.attackersTo(
+                        pos, sq.ordinal(), pos.bothArmies(), colour );
+                    assertEquals( fen + " " + sq, attackers != 0,
+                        Attacks.isSquareAttacked( pos, sq.ordinal(), colour ) );
+                    if ( attackers != 0 ) {
+                        attacked |= sq.bit();
+                    }
+                }
+                assertEquals( fen, attacked,
+                    Attacks.attackedSquares( pos, colour ) );
+            }
+            for ( Square sq : Square.values() ) {
+                assertEquals( Attacks.attackersTo(
+                    pos, sq.ordinal(), pos.bothArmies(), pos.turn() ),
+                    SUM.squareSetToBitboard(
+                        SUM.pseudoLegalAccess( sq, pos ) ) );
+            }
+        }
+    }
+
+    /*
+     The occupancy parameter is what the sliders' attacks are computed
+     with. An imaginary blocker on E7 stops the rook's attack on E8.
+     */
+    @Test
+    public void occupancyParameterIsUsedForSliders() throws Exception {
+        Position pos = Position.fENToPosition(
+            "4k3/8/8/8/8/8/8/K3R3 b - - 0 1" );
+        int e8 = Square.E8.ordinal();
+
+        assertEquals( CSS.E1, Attacks.attackersTo(
+            pos, e8, pos.bothArmies(), Colour.WHITE ) );
+        assertEquals( false, Attacks.isSquareAttacked(
+            pos, Square.D8.ordinal(), Colour.WHITE ) );
+        assertEquals( false, Attacks.isSquareAttacked(
+            pos, e8, Colour.WHITE, pos.bothArmies() | CSS.E7 ) );
+        assertEquals( CSS.EMPTY_BOARD, Attacks.attackersTo(
+            pos, e8, pos.bothArmies() | CSS.E7, Colour.WHITE ) );
+    }
+}
@@ -42,4 +42,18 @@ public class GameTest {
     public void getMovesTest() throws Exception {
         assertEquals( 20, game.getMoves().size() );
     }
+
+    /*
+     newMove() is where moves enter the program, so an illegal move must be
+     rejected there and leave the game as it was.
+     */
+    @Test
+    public void newMoveRejectsIllegalMove() throws Exception {
+        try {
+            game.newMove( new Move( Square.E2, Square.E5, game.getPos() ) );
+            fail();
+        } catch ( Exception expected ) {
+        }
+        assertTrue( new Position().deepEquals( game.getPos() ) );
+    }
 }
@@ -0,0 +1,111 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.CSS;
+import chessosisnbproject.data.Direction;
+import chessosisnbproject.data.Square;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class MagicBitboardsTest {
+
+    /*
+     Compares the magic bitboard attack sets against the square-by-square
+     ray walker (built on SUM.adjacentSquare()) on random occupancies.
+     Sparse, medium and dense occupancies are used so that both long and
+     short rays get tested. The seed is fixed to keep the test repeatable.
+     */
+    @Test
+    public void sliderAttacksMatchRayWalkerOnRandomOccupancies()
+        throws Exception {
+        Random random = new Random( 19061506L );
+
+        for ( int i = 0; i < 1000; i++ ) {
+            long occupancy;
+            switch ( i % 3 ) {
+                case 0: // Sparse, about 8 pieces
+                    occupancy = random.nextLong() & random.nextLong()
+                        & random.nextLong();
+                    break;
+                case 1: // About 16 pieces
+                    occupancy = random.nextLong() & random.nextLong();
+                    break;
+                default: // About 32 pieces
+                    occupancy = random.nextLong();
+                    break;
+            }
+            for ( Square sq : Square.values() ) {
+                long rookAttacks
+                    = rayWalker( sq, occupancy, Direction.cardinalDirections() ),
+                    bishopAttacks = rayWalker(
+                        sq, occupancy, Direction.intermediateDirections() );
+                assertEquals( rookAttacks,
+                    MagicBitboards.rookAttacks( sq.ordinal(), occupancy ) );
+                assertEquals( bishopAttacks,
+                    MagicBitboards.bishopAttacks( sq.ordinal(), occupancy ) );
+                assertEquals( rookAttacks | bishopAttacks,
+                    MagicBitboards.queenAttacks( sq.ordinal(), occupancy ) );
+            }
+        }
+    }
+
+    /*
+     On an empty board a rook always attacks 14 squares and the attack
+     sets of the rook equal the file and rank of the square combined.
+     */
+    @Test
+    public void rookAttacksOnEmptyBoardEqualFileXorRank() {
+        for ( Square sq : Square.values() ) {
+            assertEquals( SUM.fileOfSquare( sq ) ^ SUM.rankOfSquare( sq ),
+                MagicBitboards.rookAttacks( sq.ordinal(), CSS.EMPTY_BOARD ) );
+        }
+    }
+
+    /*
+     The squares of the occupancy outside the slider's rays must not
+     affect the attack set. Filling the board except for the rays
+     should give the same result as the empty board.
+     */
+    @Test
+    public void occupancyOffTheRaysIsIgnored() {
+        for ( Square sq : Square.values() ) {
+            long rookEmpty
+                = MagicBitboards.rookAttacks( sq.ordinal(), CSS.EMPTY_BOARD ),
+                bishopEmpty
+                = MagicBitboards.bishopAttacks( sq.ordinal(), CSS.EMPTY_BOARD );
+            assertEquals( rookEmpty, MagicBitboards.rookAttacks(
+                sq.ordinal(), ~rookEmpty ) & rookEmpty );
+            assertEquals( bishopEmpty, MagicBitboards.bishopAttacks(
+                sq.ordinal(), ~bishopEmpty ) & bishopEmpty );
+        }
+    }
+
+    //
+    // =============================
+    // == Private utility methods ==
+    // =============================
+    //
+    //
+    // The reference implementation: walks each ray with adjacentSquare()
+    // and stops after the first occupied square
+    private static long rayWalker(
+        Square sq, long occupancy, Direction[] dirs ) throws Exception {
+        long attacks = CSS.EMPTY_BOARD;
+
+        for ( Direction dir : dirs ) {
+            Square nextSq = sq;
+            while ( true ) {
+                nextSq = SUM.adjacentSquare( nextSq, dir );
+                if ( nextSq == null ) {
+                    break;
+                }
+                attacks |= nextSq.bit();
+                if ( ( nextSq.bit() & occupancy ) != 0 ) {
+                    break;
+                }
+            }
+        }
+
+        return attacks;
+    }
+}
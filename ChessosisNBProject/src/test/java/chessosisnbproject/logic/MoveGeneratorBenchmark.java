@@ -0,0 +1,102 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.MoveList;
+
+/**
+ * A rough benchmark of the move generator, run by hand with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=chessosisnbproject.logic.MoveGeneratorBenchmark
+ * </pre>
+ * or straight from the IDE. It isn't a unit test, so Surefire leaves it
+ * alone. The benchmark walks the game tree of a few positions to a fixed
+ * depth with MutableBoard and counts the leaf nodes, so the time is
+ * dominated by the move generator. The moves of the last ply are counted
+ * without being made, so the figure to look at is the time per
+ * moveGenerator() call rather than the leaf nodes per second. The same
+ * tree is then walked with the last ply counted by countLegalMoves()
+ * instead, which is how a bulk-counting perft does it. The first rounds
+ * warm up the JIT and only the best of the measured rounds is reported.
+ *
+ * @author Henrik Lindberg
+ */
+public class MoveGeneratorBenchmark {
+
+    private static final String[] FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r1bqk2r/1p2bppp/p1nppn2/8/2BNP3/2N1B3/PPP1QPPP/2KR3R b kq - 5 9"
+    };
+
+    private static final int DEPTH = 4, WARMUP_ROUNDS = 10, ROUNDS = 20;
+
+    // The number of moveGenerator() and countLegalMoves() calls of the
+    // current round
+    private static long generatorCalls;
+
+    // Private constructor -- no instances, no Javadoc
+    private MoveGeneratorBenchmark() {
+    }
+
+    public static void main( String[] args ) throws Exception {
+        run( false );
+        run( true );
+    }
+
+    // Times the tree walk, with the last ply either generated or counted
+    private static void run( boolean bulkCounting ) throws Exception {
+        MoveList[] moveLists = new MoveList[ DEPTH ];
+        for ( int i = 0; i < DEPTH; i++ ) {
+            moveLists[ i ] = new MoveList();
+        }
+
+        long bestNanos = Long.MAX_VALUE, leafNodes = 0;
+        for ( int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++ ) {
+            long start = System.nanoTime();
+            leafNodes = 0;
+            generatorCalls = 0;
+            for ( String fen : FENS ) {
+                leafNodes += leafNodes( new MutableBoard(
+                    Position.fENToPosition( fen ) ), DEPTH, moveLists,
+                    bulkCounting );
+            }
+            long nanos = System.nanoTime() - start;
+            if ( round >= WARMUP_ROUNDS ) {
+                bestNanos = Math.min( bestNanos, nanos );
+            }
+        }
+
+        System.out.printf( "%-14s ",
+            bulkCounting ? "bulk counting:" : "generating:" );
+        System.out.printf(
+            "%d leaf nodes, %d generator calls in %.1f ms, %.0f ns per call%n",
+            leafNodes, generatorCalls, bestNanos / 1e6,
+            (double) bestNanos / generatorCalls );
+    }
+
+    // Counts the leaf nodes of the game tree to the given depth
+    private static long leafNodes( MutableBoard board, int depth,
+        MoveList[] moveLists, boolean bulkCounting ) throws Exception {
+        if ( depth == 1 && bulkCounting ) {
+            ++generatorCalls;
+            return MoveGenerator.countLegalMoves( board );
+        }
+        MoveList moves = moveLists[ depth - 1 ];
+        MoveGenerator.moveGenerator( board, moves );
+        ++generatorCalls;
+        if ( depth == 1 ) {
+            return moves.size();
+        }
+
+        long nodes = 0;
+        for ( int i = 0; i < moves.size(); i++ ) {
+            board.make( moves.get( i ) );
+            nodes += leafNodes(
+                board, depth - 1, moveLists, bulkCounting );
+            board.unmake();
+        }
+
+        return nodes;
+    }
+}
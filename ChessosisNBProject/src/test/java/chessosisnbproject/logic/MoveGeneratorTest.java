@@ -1,6 +1,9 @@
 package chessosisnbproject.logic;
 
 import chessosisnbproject.data.Move;
+import chessosisnbproject.data.MoveList;
+import chessosisnbproject.data.MoveVisitor;
+import chessosisnbproject.data.PackedMove;
 import chessosisnbproject.data.Colour;
 import chessosisnbproject.data.CSS;
 import chessosisnbproject.data.Square;
@@ -27,7 +30,7 @@ public class MoveGeneratorTest {
      * on kingsSquares()...
      */
     @Test
-    public void kingsSquaresComprehensiveInputTest() throws Exception {
+    public void kingsSquaresComprehensiveInputTest() {
         EnumSet<Square> actualSquareSet, expectedSquareSet;
 
         for ( Square square : Square.values() ) {
@@ -46,7 +49,7 @@ public class MoveGeneratorTest {
      * 64 possible Square parameter values.
      */
     @Test
-    public void kingsSquaresNeverReturnsNull() throws Exception {
+    public void kingsSquaresNeverReturnsNull() {
         for ( Square square : Square.values() ) {
             if ( MoveGenerator.kingsSquares( square ) == null ) {
                 fail();
@@ -62,8 +65,7 @@ public class MoveGeneratorTest {
      * surroundingSquares().
      */
     @Test
-    public void sizeOfEnumSetsReturnedByKingsSquaresCorrect()
-        throws Exception {
+    public void sizeOfEnumSetsReturnedByKingsSquaresCorrect() {
         EnumSet<Square> squareSet;
         for ( Square square : Square.values() ) {
             squareSet = MoveGenerator.kingsSquares( square );
@@ -87,12 +89,21 @@ public class MoveGeneratorTest {
      * set should be 14 with all Square constant inputs.
      */
     @Test
-    public void sizeOfRooksSquaresSetEqualTo14() throws Exception {
+    public void sizeOfRooksSquaresSetEqualTo14() {
         for ( Square square : Square.values() ) {
             assertEquals( 14, MoveGenerator.rooksSquares( square ).size() );
         }
     }
 
+    /*
+     * pawnsSquares() can't tell the direction of a pawn without its color,
+     * so a null color must be rejected.
+     */
+    @Test( expected = IllegalArgumentException.class )
+    public void pawnsSquaresRejectsNullColor() {
+        MoveGenerator.pawnsSquares( Square.E4, null );
+    }
+
     /*
      * The set of squares returned by accessibleRooksSquares() must in all
      * cases be a subset of the squares returned by rooksSquares() (provided
@@ -305,6 +316,352 @@ public class MoveGeneratorTest {
         manualMoveGeneratorMethodTestWorkhorse( testPos, expectedMoves );
     }
 
+    /*
+     * Pins: the knight on D2 is pinned by the bishop and can't move at all.
+     * The rook on E2 is pinned by the enemy rook but may move along the
+     * E-file, up to and including capturing the pinner.
+     */
+    @Test
+    public void manualMoveGeneratorMethodTest011() throws Exception {
+        Position testPos = Position.fENToPosition(
+            "k3r3/8/8/8/1b6/8/3NR3/4K3 w - - 0 1" );
+
+        String[] expectedMoves = {
+            "E1-D1", "E1-F1", "E1-F2",
+            "E2-E3", "E2-E4", "E2-E5", "E2-E6", "E2-E7", "E2-E8"
+        };
+
+        manualMoveGeneratorMethodTestWorkhorse( testPos, expectedMoves );
+    }
+
+    /*
+     * Double check by the rook and the knight. Only king moves are legal
+     * even though the queen could capture the rook.
+     */
+    @Test
+    public void manualMoveGeneratorMethodTest012() throws Exception {
+        Position testPos = Position.fENToPosition(
+            "k3r3/8/8/8/Q7/3n4/8/4K3 w - - 0 1" );
+
+        String[] expectedMoves = { "E1-D1", "E1-D2", "E1-F1" };
+
+        manualMoveGeneratorMethodTestWorkhorse( testPos, expectedMoves );
+    }
+
+    /*
+     * Single check by the rook. Besides king moves, the check can only be
+     * blocked (A4-E4 and C3-E5). E1-E2 is illegal because the king would
+     * still be on the rook's file.
+     */
+    @Test
+    public void manualMoveGeneratorMethodTest013() throws Exception {
+        Position testPos = Position.fENToPosition(
+            "k3r3/8/8/8/R7/2B5/8/4K3 w - - 0 1" );
+
+        String[] expectedMoves = {
+            "E1-D1", "E1-D2", "E1-F1", "E1-F2",
+            "A4-E4", "C3-E5"
+        };
+
+        manualMoveGeneratorMethodTestWorkhorse( testPos, expectedMoves );
+    }
+
+    /*
+     * The bishop attacks F1 (and E2), so White can't castle kingside even
+     * though the castling right exists and F1 and G1 are empty.
+     */
+    @Test
+    public void manualMoveGeneratorMethodTest014() throws Exception {
+        Position testPos = Position.fENToPosition(
+            "k7/8/8/8/2b5/8/8/4K2R w K - 0 1" );
+
+        String[] expectedMoves = {
+            "E1-D1", "E1-D2", "E1-F2",
+            "H1-G1", "H1-F1",
+            "H1-H2", "H1-H3", "H1-H4", "H1-H5", "H1-H6", "H1-H7", "H1-H8"
+        };
+
+        manualMoveGeneratorMethodTestWorkhorse( testPos, expectedMoves );
+    }
+
+    /*
+     * Black has just played D7-D5, so the pawn on E5 may capture it en
+     * passant.
+     */
+    @Test
+    public void manualMoveGeneratorMethodTest015() throws Exception {
+        Position testPos = Position.fENToPosition(
+            "4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 2" );
+
+        String[] expectedMoves = {
+            "E1-D1", "E1-D2", "E1-E2", "E1-F1", "E1-F2",
+            "E5-E6", "E5-D6"
+        };
+
+        manualMoveGeneratorMethodTestWorkhorse( testPos, expectedMoves );
+    }
+
+    /*
+     * The en passant capture E5-D6 would remove both pawns from the fifth
+     * rank and expose the king to the rook even though neither pawn is
+     * pinned on its own.
+     */
+    @Test
+    public void manualMoveGeneratorMethodTest016() throws Exception {
+        Position testPos = Position.fENToPosition(
+            "8/8/8/K2pP2r/8/8/8/7k w - d6 0 2" );
+
+        String[] expectedMoves = {
+            "A5-A4", "A5-A6", "A5-B4", "A5-B5", "A5-B6",
+            "E5-E6"
+        };
+
+        manualMoveGeneratorMethodTestWorkhorse( testPos, expectedMoves );
+    }
+
+    /*
+     * Both the push and the capture of the pawn on E7 are promotions, each
+     * to four different piece types. The rook keeps the king off the d-file.
+     */
+    @Test
+    public void manualMoveGeneratorMethodTest017() throws Exception {
+        Position testPos = Position.fENToPosition(
+            "3r4/4P3/8/8/8/8/8/k3K3 w - - 0 1" );
+
+        String[] expectedMoves = {
+            "E1-E2", "E1-F1", "E1-F2",
+            "E7-E8Q", "E7-E8R", "E7-E8B", "E7-E8N",
+            "E7-D8Q", "E7-D8R", "E7-D8B", "E7-D8N"
+        };
+
+        manualMoveGeneratorMethodTestWorkhorse( testPos, expectedMoves );
+    }
+
+    /*
+     The quiet checks must be exactly the quiet moves after which the enemy
+     king is attacked. The positions include discovered checks by a knight,
+     a pawn and the king, pieces blocking their own sliders on the line
+     through the enemy king and a castling move with a checking rook.
+     */
+    @Test
+    public void quietCheckGeneratorMatchesFilteredQuietMoves()
+        throws Exception {
+        String[] fens = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "4k3/8/8/8/4N3/8/8/4R1K1 w - - 0 1",
+            "7k/8/8/8/8/2P5/8/B3K3 w - - 0 1",
+            "3k4/8/3P4/8/8/8/3R3K/8 w - - 0 1",
+            "8/8/8/k1K4R/8/8/8/8 w - - 0 1",
+            "5k2/8/8/8/8/8/8/4K2R w K - 0 1",
+            "4r3/8/8/8/4n3/3p4/8/4K2k b - - 0 1"
+        };
+        MoveList quiets = new MoveList(), checks = new MoveList();
+
+        for ( String fen : fens ) {
+            Position pos = Position.fENToPosition( fen );
+            MoveGenerator.quietMoveGenerator( pos, quiets );
+            MoveGenerator.quietCheckGenerator( pos, checks );
+
+            Set<Integer> expected = new HashSet<>(), actual = new HashSet<>();
+            for ( int i = 0; i < quiets.size(); i++ ) {
+                Position after = Position.makeMove( pos, quiets.get( i ) );
+                long enemyKing = ( pos.turn() == Colour.WHITE )
+                    ? after.blackKing() : after.whiteKing();
+                if ( Attacks.attackersTo( after, Long.numberOfTrailingZeros(
+                    enemyKing ), after.bothArmies(), pos.turn() ) != 0 ) {
+                    expected.add( quiets.get( i ) );
+                }
+            }
+            for ( int i = 0; i < checks.size(); i++ ) {
+                assertTrue( fen, actual.add( checks.get( i ) ) );
+            }
+            assertEquals( fen, expected, actual );
+        }
+    }
+
+    /*
+     A visitor must be given the same moves the MoveList overload produces,
+     in the same order, and the generation must stop right after the
+     visitor returns false. hasLegalMoves() must be false only in checkmate
+     and stalemate.
+     */
+    @Test
+    public void visitLegalMovesPushesMovesAndStops() throws Exception {
+        Position pos = Position.fENToPosition(
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1" );
+        MoveList expected = new MoveList(), visited = new MoveList();
+        MoveGenerator.moveGenerator( pos, expected );
+        assertTrue( MoveGenerator.visitLegalMoves( pos, visited ) );
+        assertEquals( expected.toString(), visited.toString() );
+
+        final int[] count = { 0 };
+        assertFalse( MoveGenerator.visitLegalMoves( pos, new MoveVisitor() {
+            @Override
+            public boolean visit( int from, int to, int flags ) {
+                return ++count[ 0 ] < 5;
+            }
+        } ) );
+        assertEquals( 5, count[ 0 ] );
+
+        assertTrue( MoveGenerator.hasLegalMoves( pos ) );
+        // Fool's mate and a stalemate
+        assertFalse( MoveGenerator.hasLegalMoves( Position.fENToPosition(
+            "rnb1kbnr/pppp1ppp/8/4p3/6Pq/5P2/PPPPP2P/RNBQKBNR w KQkq - 1 3" ) ) );
+        assertFalse( MoveGenerator.hasLegalMoves( Position.fENToPosition(
+            "7k/5Q2/6K1/8/8/8/8/8 b - - 0 1" ) ) );
+    }
+
+    /*
+     For every square, legalDestinations() must give the destinations of
+     the full generator's moves from that square. The positions include a
+     check, pins, en passant and promotions.
+     */
+    @Test
+    public void legalDestinationsMatchMoveGenerator() throws Exception {
+        String[] fens = {
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "k3r3/8/8/8/R7/2B5/8/4K3 w - - 0 1",
+            "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+            "8/PPPk4/8/8/8/8/4Kppp/8 b - - 0 1"
+        };
+        MoveList moves = new MoveList();
+
+        for ( String fen : fens ) {
+            Position pos = Position.fENToPosition( fen );
+            MoveGenerator.moveGenerator( pos, moves );
+            long[] expected = new long[ 64 ];
+            for ( int i = 0; i < moves.size(); i++ ) {
+                expected[ PackedMove.from( moves.get( i ) ) ]
+                    |= 1L << PackedMove.to( moves.get( i ) );
+            }
+            for ( Square sq : Square.values() ) {
+                assertEquals( fen + " " + sq, expected[ sq.ordinal() ],
+                    MoveGenerator.legalDestinations( pos, sq ) );
+            }
+        }
+    }
+
+    /*
+     countLegalMoves() must agree with the size of the move list in every
+     position two plies deep from positions with checks, pins, en passant
+     and promotions.
+     */
+    @Test
+    public void countLegalMovesMatchesMoveGenerator() throws Exception {
+        String[] fens = {
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "k3r3/8/8/8/R7/2B5/8/4K3 w - - 0 1",
+            "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+            "8/PPPk4/8/8/8/8/4Kppp/8 b - - 0 1"
+        };
+        MoveList moves = new MoveList(), replies = new MoveList();
+
+        for ( String fen : fens ) {
+            MutableBoard board
+                = new MutableBoard( Position.fENToPosition( fen ) );
+            MoveGenerator.moveGenerator( board, moves );
+            assertEquals( fen, moves.size(),
+                MoveGenerator.countLegalMoves( board ) );
+            for ( int i = 0; i < moves.size(); i++ ) {
+                board.make( moves.get( i ) );
+                MoveGenerator.moveGenerator( board, replies );
+                assertEquals( fen + " " + PackedMove.toString( moves.get( i ) ),
+                    replies.size(), MoveGenerator.countLegalMoves( board ) );
+                board.unmake();
+            }
+        }
+    }
+
+    /*
+     The pseudo-legal moves that isLegal() accepts must be the legal moves
+     of moveGenerator(), in the same order, in every position two plies deep
+     from positions with checks, pins, en passant, castling and
+     promotions.
+     */
+    @Test
+    public void legalPseudoLegalMovesMatchMoveGenerator() throws Exception {
+        String[] fens = {
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "k3r3/8/8/8/R7/2B5/8/4K3 w - - 0 1",
+            "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+            "8/PPPk4/8/8/8/8/4Kppp/8 b - - 0 1"
+        };
+        MoveList moves = new MoveList(), replies = new MoveList();
+
+        for ( String fen : fens ) {
+            MutableBoard board
+                = new MutableBoard( Position.fENToPosition( fen ) );
+            assertLegalPseudoLegalMovesMatch( board, moves );
+            for ( int i = 0; i < moves.size(); i++ ) {
+                board.make( moves.get( i ) );
+                assertLegalPseudoLegalMovesMatch( board, replies );
+                board.unmake();
+            }
+        }
+    }
+
+    /*
+     A position, its color flip and (without castling rights) its mirror
+     image are the same position seen differently, so they must have the
+     same number of legal moves. Tried in every position two plies deep.
+     */
+    @Test
+    public void moveCountsAreSymmetric() throws Exception {
+        String[] fens = {
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w - f6 0 3",
+            "8/PPPk4/8/8/8/8/4Kppp/8 b - - 0 1"
+        };
+        MoveList moves = new MoveList(), replies = new MoveList();
+
+        for ( String fen : fens ) {
+            Position pos = Position.fENToPosition( fen );
+            MoveGenerator.moveGenerator( pos, moves );
+            for ( int i = 0; i < moves.size(); i++ ) {
+                Position next = Position.makeMove( pos, moves.get( i ) );
+                MoveGenerator.moveGenerator( next, replies );
+                String context = fen + " " + PackedMove.toString( moves.get( i ) );
+                assertEquals( context, replies.size(),
+                    MoveGenerator.countLegalMoves( next.flipColours() ) );
+                if ( !PositionTest.hasCastlingRights( next ) ) {
+                    assertEquals( context, replies.size(),
+                        MoveGenerator.countLegalMoves(
+                            next.mirrorHorizontal() ) );
+                }
+            }
+        }
+    }
+
+    /*
+     A position without a king for the side to move has no legal moves,
+     and none of the generator's entry points may fail on it.
+     */
+    @Test
+    public void positionWithoutOwnKingHasNoMoves() {
+        Position pos = new Position(
+            CSS.E2, CSS.EMPTY_BOARD, CSS.EMPTY_BOARD,
+            CSS.EMPTY_BOARD, CSS.EMPTY_BOARD, CSS.EMPTY_BOARD,
+            CSS.EMPTY_BOARD, CSS.EMPTY_BOARD, CSS.EMPTY_BOARD,
+            CSS.EMPTY_BOARD, CSS.EMPTY_BOARD, CSS.E8,
+            Colour.WHITE );
+        MoveList moves = new MoveList();
+
+        assertTrue( MoveGenerator.moveGenerator( pos ).isEmpty() );
+        MoveGenerator.pseudoLegalMoves( pos, moves );
+        assertEquals( 0, moves.size() );
+        MoveGenerator.quietCheckGenerator( pos, moves );
+        assertEquals( 0, moves.size() );
+        assertEquals( 0, MoveGenerator.countLegalMoves( pos ) );
+        assertFalse( MoveGenerator.hasLegalMoves( pos ) );
+        assertFalse( MoveGenerator.isLegal( pos,
+            PackedMove.of( Square.E2.ordinal(), Square.E4.ordinal(),
+                PackedMove.DOUBLE_PAWN_PUSH ) ) );
+    }
+
     //
     // ============================
     // == Private helper methods ==
@@ -322,23 +679,43 @@ public class MoveGeneratorTest {
         // Construct the set of expected moves from the String array
         for ( String expectedMoveString : expectedMovesSA ) {
             // The move strings are of the form "A1-B1" so they are always
-            // five characters long. The following tries to avoid (detect)
+            // five characters long, or six with the piece type letter of a
+            // promotion ("E7-E8Q"). The following tries to avoid (detect)
             // problems caused by a typo.
-            if ( expectedMoveString.length() != 5 ) {
+            if ( expectedMoveString.length() != 5
+                && expectedMoveString.length() != 6 ) {
                 throw new Exception(
                     "expectedMoveString.length(): "
                     + expectedMoveString.length() );
             }
             String fromSquareString = expectedMoveString.substring( 0, 2 );
-            String toSquareString = expectedMoveString.substring( 3 );
+            String toSquareString = expectedMoveString.substring( 3, 5 );
+            int flags = PackedMove.QUIET;
+            if ( expectedMoveString.length() == 6 ) {
+                flags = PackedMove.KNIGHT_PROMOTION
+                    + "NBRQ".indexOf( expectedMoveString.charAt( 5 ) );
+            }
             expectedMoves.add(
                 new Move(
-                    Square.valueOf( fromSquareString ),
-                    Square.valueOf( toSquareString ),
+                    PackedMove.of(
+                        Square.valueOf( fromSquareString ).ordinal(),
+                        Square.valueOf( toSquareString ).ordinal(), flags ),
                     position ) );
         }
 
         assertEquals( expectedMoves, actualMoves );
+
+        // The MoveList overload must produce the same moves. The list is
+        // deliberately dirty to begin with; the generator should clear it.
+        MoveList moveList = new MoveList();
+        moveList.add( PackedMove.of( 0, 63, PackedMove.QUIET ) );
+        MoveGenerator.moveGenerator( position, moveList );
+        Set<Move> movesFromList = new HashSet<>();
+        for ( int i = 0; i < moveList.size(); i++ ) {
+            movesFromList.add( new Move( moveList.get( i ), position ) );
+        }
+        assertEquals( expectedMoves.size(), moveList.size() );
+        assertEquals( expectedMoves, movesFromList );
     }
 
     // Square name validity check. A square name is a two-character string
@@ -420,4 +797,19 @@ public class MoveGeneratorTest {
 
         return comparisonSquareSet;
     }
+
+    // Asserts that the pseudo-legal moves accepted by isLegal() are the
+    // moves of moveGenerator(), which are left in the list
+    private static void assertLegalPseudoLegalMovesMatch(
+        Board pos, MoveList moves ) {
+        MoveList legalMoves = new MoveList();
+        MoveGenerator.pseudoLegalMoves( pos, moves );
+        for ( int i = 0; i < moves.size(); i++ ) {
+            if ( MoveGenerator.isLegal( pos, moves.get( i ) ) ) {
+                legalMoves.add( moves.get( i ) );
+            }
+        }
+        MoveGenerator.moveGenerator( pos, moves );
+        assertEquals( moves.toString(), legalMoves.toString() );
+    }
 }
@@ -0,0 +1,85 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.MoveList;
+import chessosisnbproject.data.PackedMove;
+import chessosisnbproject.data.Square;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MovePickerTest {
+
+    private static final String[] TEST_FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r1bqk2r/1p2bppp/p1nppn2/8/2BNP3/2N1B3/PPP1QPPP/2KR3R b kq - 5 9",
+        "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+        "8/PPPk4/8/8/8/8/4Kppp/8 w - - 0 1",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1"
+    };
+
+    /*
+     Whatever the hash move and the killers are, the picker must hand out
+     exactly the legal moves of the position, each of them once. The hash
+     move and the killers are taken from the legal moves when possible and
+     one of them is illegal in every position.
+     */
+    @Test
+    public void picksEveryLegalMoveOnce() throws Exception {
+        MoveList legal = new MoveList(), quiets = new MoveList();
+
+        for ( String fen : TEST_FENS ) {
+            Position pos = Position.fENToPosition( fen );
+            MoveGenerator.moveGenerator( pos, legal );
+            MoveGenerator.quietMoveGenerator( pos, quiets );
+            int illegal = PackedMove.of(
+                Square.A4.ordinal(), Square.H5.ordinal(), PackedMove.QUIET );
+            int[][] hints = {
+                { PackedMove.NONE, PackedMove.NONE, PackedMove.NONE },
+                { legal.get( 0 ), legal.get( legal.size() - 1 ), illegal },
+                { illegal, quiets.isEmpty() ? illegal : quiets.get( 0 ),
+                    quiets.isEmpty() ? illegal : quiets.get( 0 ) }
+            };
+
+            for ( int[] hint : hints ) {
+                MovePicker picker
+                    = new MovePicker( pos, hint[ 0 ], hint[ 1 ], hint[ 2 ] );
+                Set<Integer> picked = new HashSet<>();
+                for ( int move = picker.next(); move != PackedMove.NONE;
+                    move = picker.next() ) {
+                    assertTrue( fen, legal.contains( move ) );
+                    assertTrue( fen, picked.add( move ) );
+                }
+                assertEquals( fen, legal.size(), picked.size() );
+                assertEquals( PackedMove.NONE, picker.next() );
+            }
+        }
+    }
+
+    /*
+     The stages come in order: the hash move, the captures with the most
+     valuable victim first, the killers and finally the rest of the quiet
+     moves.
+     */
+    @Test
+    public void picksStagesInOrder() throws Exception {
+        // White pawn on D5 can take the queen on E6 or the knight on C6,
+        // the knight on F4 can take the queen as well
+        Position pos = Position.fENToPosition(
+            "4k3/8/2n1q3/3P4/5N2/8/8/7K w - - 0 1" );
+        int hashMove = PackedMove.of(
+            Square.H1.ordinal(), Square.G1.ordinal(), PackedMove.QUIET ),
+            killer = PackedMove.of(
+                Square.F4.ordinal(), Square.H5.ordinal(), PackedMove.QUIET );
+        MovePicker picker = new MovePicker( pos, hashMove, killer, killer );
+
+        assertEquals( hashMove, picker.next() );
+        assertEquals( "D5-E6", PackedMove.toString( picker.next() ) );
+        assertEquals( "F4-E6", PackedMove.toString( picker.next() ) );
+        assertEquals( "D5-C6", PackedMove.toString( picker.next() ) );
+        assertEquals( killer, picker.next() );
+        int move = picker.next();
+        assertFalse( PackedMove.isCapture( move ) );
+        assertFalse( move == hashMove || move == killer );
+    }
+}
@@ -0,0 +1,167 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.Bitboards;
+import chessosisnbproject.data.Colour;
+import chessosisnbproject.data.MoveList;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MutableBoardTest {
+
+    private static final String[] TEST_FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r1bqk2r/1p2bppp/p1nppn2/8/2BNP3/2N1B3/PPP1QPPP/2KR3R b kq - 5 9",
+        "4k2r/5ppp/8/8/8/8/5PPP/4K2R w Kk - 0 1",
+        "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+        "8/PPPk4/8/8/8/8/4Kppp/8 w - - 0 1"
+    };
+
+    /*
+     A freshly created board must be a faithful copy of its Position.
+     */
+    @Test
+    public void toPositionReturnsCopy() throws Exception {
+        for ( String fen : TEST_FENS ) {
+            Position pos = Position.fENToPosition( fen );
+            assertTrue(
+                fen, new MutableBoard( pos ).toPosition().deepEquals( pos ) );
+        }
+    }
+
+    /*
+     Plays random games from the test positions. After each make() the
+     board must match the position created by Position.makeMove() and the
+     move generator must produce the same moves for the board and the
+     position. The Zobrist keys and the mailboxes must match too, and the
+     mailbox and piece lists of the position must agree with its bitboards.
+     At the end of the game every move is taken back and each intermediate
+     position must reappear in reverse order.
+     */
+    @Test
+    public void makeAndUnmakeAgreeWithPositionMakeMove() throws Exception {
+        Random random = new Random( 20150620L );
+        MoveList boardMoves = new MoveList(), positionMoves = new MoveList();
+
+        for ( String fen : TEST_FENS ) {
+            for ( int game = 0; game < 10; game++ ) {
+                Position[] history = new Position[ 301 ];
+                history[ 0 ] = Position.fENToPosition( fen );
+                MutableBoard board = new MutableBoard( history[ 0 ] );
+
+                int plies = 0;
+                while ( plies < 300 ) {
+                    MoveGenerator.moveGenerator( board, boardMoves );
+                    MoveGenerator.moveGenerator(
+                        history[ plies ], positionMoves );
+                    assertEquals( positionMoves.toString(),
+                        boardMoves.toString() );
+                    if ( boardMoves.isEmpty() ) {
+                        break;
+                    }
+
+                    int move = boardMoves.get(
+                        random.nextInt( boardMoves.size() ) );
+                    board.make( move );
+                    history[ plies + 1 ]
+                        = Position.makeMove( history[ plies ], move );
+                    ++plies;
+                    assertTrue( board.toPosition().deepEquals(
+                        history[ plies ] ) );
+                    // The incrementally updated keys must match the key
+                    // computed from scratch
+                    assertEquals( Zobrist.key( board ), board.zobristKey() );
+                    assertEquals( board.zobristKey(),
+                        history[ plies ].zobristKey() );
+                    PositionTest.assertMailboxAndPieceListsMatch(
+                        history[ plies ] );
+                    for ( int sq = 0; sq < 64; sq++ ) {
+                        assertEquals( history[ plies ].pieceIndexAt( sq ),
+                            board.pieceIndexAt( sq ) );
+                    }
+                }
+
+                assertEquals( plies, board.ply() );
+                while ( plies > 0 ) {
+                    board.unmake();
+                    --plies;
+                    assertTrue( board.toPosition().deepEquals(
+                        history[ plies ] ) );
+                    assertEquals( history[ plies ].zobristKey(),
+                        board.zobristKey() );
+                    for ( int sq = 0; sq < 64; sq++ ) {
+                        assertEquals( history[ plies ].pieceIndexAt( sq ),
+                            board.pieceIndexAt( sq ) );
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     Plays random games from the test positions on a board with attack
+     tracking on and takes the moves back. In every position on the way
+     the incrementally updated attack data must match the attacks looked
+     up from scratch with class Attacks.
+     */
+    @Test
+    public void trackedAttacksMatchAttacksFromScratch() throws Exception {
+        Random random = new Random( 20150704L );
+        MoveList moves = new MoveList();
+
+        for ( String fen : TEST_FENS ) {
+            for ( int game = 0; game < 5; game++ ) {
+                MutableBoard board
+                    = new MutableBoard( Position.fENToPosition( fen ), true );
+                assertAttacksMatch( board );
+                while ( board.ply() < 200 ) {
+                    MoveGenerator.moveGenerator( board, moves );
+                    if ( moves.isEmpty() ) {
+                        break;
+                    }
+                    board.make( moves.get( random.nextInt( moves.size() ) ) );
+                    assertAttacksMatch( board );
+                }
+                while ( board.ply() > 0 ) {
+                    board.unmake();
+                    assertAttacksMatch( board );
+                }
+            }
+        }
+    }
+
+    /*
+     The attack data can't be read without attack tracking.
+     */
+    @Test( expected = IllegalStateException.class )
+    public void attackedSquaresWithoutTrackingThrows() throws Exception {
+        new MutableBoard( new Position() ).attackedSquares( Colour.WHITE );
+    }
+
+    /*
+     Taking back a move that was never made is an error.
+     */
+    @Test( expected = Exception.class )
+    public void unmakeWithoutMakeThrows() throws Exception {
+        new MutableBoard( new Position() ).unmake();
+    }
+
+    //
+    // ============================
+    // == Private helper methods ==
+    // ============================
+    //
+    //
+    private static void assertAttacksMatch( MutableBoard board ) {
+        long occupancy = board.bothArmies();
+        for ( Colour colour : Colour.values() ) {
+            assertEquals( Attacks.attackedSquares( board, colour ),
+                board.attackedSquares( colour ) );
+            for ( int sq = 0; sq < 64; sq++ ) {
+                assertEquals( Bitboards.popCount( Attacks.attackersTo(
+                    board, sq, occupancy, colour ) ),
+                    board.attackerCount( sq, colour ) );
+            }
+        }
+    }
+}
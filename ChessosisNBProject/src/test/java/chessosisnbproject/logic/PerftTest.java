@@ -0,0 +1,110 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.MoveList;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PerftTest {
+
+    // The reference positions of class Perft with their published counts
+    // at depths that keep the test fast
+    private static final String KIWIPETE
+        = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+    private static final String[] FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        KIWIPETE,
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+    private static final int[] DEPTHS = { 4, 3, 5, 4, 3, 3 };
+    private static final long[] COUNTS
+        = { 197281, 97862, 674624, 422333, 62379, 89890 };
+
+    /*
+     perft() must reproduce the published node counts of the reference
+     positions, which takes castling on both wings, the castling rights,
+     en passant and promotions to be right.
+     */
+    @Test
+    public void perftMatchesPublishedCounts() throws Exception {
+        for ( int i = 0; i < FENS.length; i++ ) {
+            MutableBoard board
+                = new MutableBoard( Position.fENToPosition( FENS[ i ] ) );
+            assertEquals( FENS[ i ], COUNTS[ i ],
+                Perft.perft( board, DEPTHS[ i ] ) );
+        }
+    }
+
+    /*
+     divide() must print one line per legal move, return the total of
+     perft() and leave the board as it was.
+     */
+    @Test
+    public void divideSumsToPerft() throws Exception {
+        MutableBoard board
+            = new MutableBoard( Position.fENToPosition( KIWIPETE ) );
+        long key = board.zobristKey();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        assertEquals( 2039, Perft.divide( board, 2, new PrintStream( bytes ) ) );
+        assertEquals( 48, bytes.toString().trim().split( "\n" ).length );
+        assertTrue( bytes.toString().contains( "E1-C1: 43" ) );
+        assertEquals( key, board.zobristKey() );
+        assertEquals( 0, board.ply() );
+    }
+
+    /*
+     The moves made with Position.makeMove() must give the same counts as
+     MutableBoard, and the incrementally updated Zobrist key of each
+     position must equal the key computed from scratch.
+     */
+    @Test
+    public void positionMakeMoveMatchesPerft() throws Exception {
+        assertEquals( 97862, positionPerft(
+            Position.fENToPosition( KIWIPETE ), 3 ) );
+        assertEquals( 9467, positionPerft(
+            Position.fENToPosition( FENS[ 3 ] ), 3 ) );
+    }
+
+    /*
+     parallelPerft() must give the same counts as perft() whatever the
+     number of threads, and report the worker utilization.
+     */
+    @Test
+    public void parallelPerftMatchesPerft() throws Exception {
+        for ( int threads = 1; threads <= 4; threads *= 2 ) {
+            for ( int i = 0; i < FENS.length; i++ ) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                assertEquals( FENS[ i ], COUNTS[ i ], Perft.parallelPerft(
+                    Position.fENToPosition( FENS[ i ] ), DEPTHS[ i ],
+                    threads, new PrintStream( bytes ) ) );
+                assertTrue( bytes.toString().contains( "worker utilization" ) );
+            }
+        }
+    }
+
+    //
+    // ============================
+    // == Private helper methods ==
+    // ============================
+    //
+    private static long positionPerft( Position pos, int depth ) {
+        assertEquals( Zobrist.key( pos ), pos.zobristKey() );
+        if ( depth == 0 ) {
+            return 1;
+        }
+
+        MoveList moves = new MoveList();
+        MoveGenerator.moveGenerator( pos, moves );
+        long nodes = 0;
+        for ( int i = 0; i < moves.size(); i++ ) {
+            nodes += positionPerft(
+                Position.makeMove( pos, moves.get( i ) ), depth - 1 );
+        }
+        return nodes;
+    }
+}
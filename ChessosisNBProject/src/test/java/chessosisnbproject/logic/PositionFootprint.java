@@ -0,0 +1,68 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.MoveList;
+import java.util.Random;
+
+/**
+ * Measures the memory taken by Position objects, run by hand with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=chessosisnbproject.logic.PositionFootprint
+ * </pre>
+ * like MoveGeneratorBenchmark. The positions of random games are kept in
+ * an array and the growth of the used heap is divided by their number.
+ * Positions created by makeMove() share the arrays that a move leaves
+ * unchanged, so the figure is what a game database or a cache of
+ * positions pays per position, not the size of a lone Position. The
+ * garbage collector is run until the used heap settles before each
+ * reading.
+ *
+ * @author Henrik Lindberg
+ */
+public class PositionFootprint {
+
+    private static final int POSITIONS = 500000, MAX_GAME_LENGTH = 200;
+
+    // Private constructor -- no instances, no Javadoc
+    private PositionFootprint() {
+    }
+
+    public static void main( String[] args ) {
+        Position[] positions = new Position[ POSITIONS ];
+        MoveList moves = new MoveList();
+        Random random = new Random( 20150801L );
+
+        long before = usedHeap();
+        Position pos = new Position();
+        for ( int i = 0; i < POSITIONS; i++ ) {
+            MoveGenerator.moveGenerator( pos, moves );
+            if ( moves.isEmpty() || pos.fullmoveNumber() > MAX_GAME_LENGTH ) {
+                pos = new Position();
+                MoveGenerator.moveGenerator( pos, moves );
+            }
+            pos = Position.makeMove(
+                pos, moves.get( random.nextInt( moves.size() ) ) );
+            positions[ i ] = pos;
+        }
+        long after = usedHeap();
+
+        System.out.printf( "%d positions, %.1f bytes per position%n",
+            positions.length, (double) ( after - before ) / POSITIONS );
+    }
+
+    // The used heap after garbage collection. One System.gc() call doesn't
+    // always collect everything, so it's called until the figure settles.
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for ( int i = 0; i < 10; i++ ) {
+            System.gc();
+            long nowUsed = runtime.totalMemory() - runtime.freeMemory();
+            if ( nowUsed >= used ) {
+                break;
+            }
+            used = nowUsed;
+        }
+        return used;
+    }
+}
@@ -2,9 +2,16 @@ package chessosisnbproject.logic;
 
 import chessosisnbproject.data.CSS;
 import chessosisnbproject.data.Colour;
+import chessosisnbproject.data.MoveList;
+import chessosisnbproject.data.PackedMove;
+import chessosisnbproject.data.Square;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Before;
@@ -105,13 +112,14 @@ public class PositionTest {
      * http://www.ibm.com/developerworks/library/j-jtp05273/
      */
     @Test
-    public void equalsSymmetryTest() {
-        Position rpo = randomPositionObject( false, -1, null );
+    public void equalsSymmetryTest() throws Exception {
+        Random random = new Random();
+        for ( int i = 1; i <= 100; i++ ) {
+            Position rpo = randomGamePosition( random );
+            Position rpoCopy = copyOf( rpo );
 
-        Position rpoCopy = randomPositionObject(
-            true, rpo.fullmoveNumber(), rpo.turn() );
-
-        assertTrue( rpo.equals( rpoCopy ) && rpoCopy.equals( rpo ) );
+            assertTrue( rpo.equals( rpoCopy ) && rpoCopy.equals( rpo ) );
+        }
     }
 
     /*
@@ -122,7 +130,7 @@ public class PositionTest {
     @Test
     public void equalsReflexivityTest() {
         for ( int i = 1; i <= 1000; i++ ) {
-            Position rpo = randomPositionObject( false, -1, null );
+            Position rpo = randomPositionObject();
 
             assertTrue( rpo.equals( rpo ) );
         }
@@ -134,17 +142,14 @@ public class PositionTest {
      * http://www.ibm.com/developerworks/library/j-jtp05273/
      */
     @Test
-    public void equalsTransitivityTest() {
+    public void equalsTransitivityTest() throws Exception {
+        Random random = new Random();
         Position rpo1, rpo2, rpo3;
 
-        for ( int i = 1; i <= 1000; i++ ) {
-            rpo1 = randomPositionObject( false, -1, null );
-            //rpo2 = rpo1;
-            //rpo3 = rpo2;
-            rpo2 = randomPositionObject(
-                true, rpo1.fullmoveNumber(), rpo1.turn() );
-            rpo3 = randomPositionObject(
-                true, rpo2.fullmoveNumber(), rpo2.turn() );
+        for ( int i = 1; i <= 100; i++ ) {
+            rpo1 = randomGamePosition( random );
+            rpo2 = copyOf( rpo1 );
+            rpo3 = copyOf( rpo2 );
             if ( rpo1.equals( rpo2 )
                 && rpo2.equals( rpo3 )
                 && rpo1.equals( rpo3 ) ) {
@@ -159,26 +164,44 @@ public class PositionTest {
      * "Consistency with hashCode(): Two equal objects must have the same
      * hashCode() value."
      * http://www.ibm.com/developerworks/library/j-jtp05273/
+     * The equal objects are copies of positions from random games and the
+     * same position reached by two move orders.
      */
     @Test
-    public void equalsConsistencyWithHashCodeTest() {
-        Position rpo1, rpo2;
-        // Counts the number of times the two Move objects had the same
-        // 'from' and 'to' field values.
-        int equalsCounter = 0;
-
-        do {
-            rpo1 = randomPositionObject( false, -1, null );
-            rpo2 = randomPositionObject( false, -1, null );
+    public void equalsConsistencyWithHashCodeTest() throws Exception {
+        Random random = new Random();
+        for ( int i = 1; i <= 100; i++ ) {
+            Position rpo1 = randomGamePosition( random ),
+                rpo2 = copyOf( rpo1 );
+
+            assertTrue( rpo1.equals( rpo2 ) );
+            assertEquals( rpo1.hashCode(), rpo2.hashCode() );
+        }
 
-            if ( rpo1.equals( rpo2 ) ) {
-                equalsCounter++;
-                if ( rpo1.hashCode() != rpo2.hashCode() ) {
-                    fail();
-                }
-            }
+        Position pos1 = play( stdStartPos, "G1-F3", "G8-F6", "B1-C3" ),
+            pos2 = play( stdStartPos, "B1-C3", "G8-F6", "G1-F3" );
+        assertTrue( pos1 != pos2 && pos1.equals( pos2 ) );
+        assertEquals( pos1.hashCode(), pos2.hashCode() );
+    }
 
-        } while ( equalsCounter < 10 );
+    /*
+     equals() and hashCode(): Positions with the same side to move and the
+     same fullmove number but a different placement of the pieces are
+     different, and their hash codes differ too, so they don't collide in
+     a HashSet.
+     */
+    @Test
+    public void equalsComparesPlacement() throws Exception {
+        Position e4 = play( stdStartPos, "E2-E4" ),
+            d4 = play( stdStartPos, "D2-D4" );
+
+        assertFalse( e4.equals( d4 ) );
+        assertTrue( e4.hashCode() != d4.hashCode() );
+        Set<Position> positions = new HashSet<>();
+        for ( String move : new String[]{ "E2-E4", "D2-D4", "E2-E4" } ) {
+            positions.add( play( stdStartPos, move ) );
+        }
+        assertEquals( 2, positions.size() );
     }
 
     /*
@@ -567,6 +590,15 @@ public class PositionTest {
         }
     }
 
+    /*
+     A FEN record without exactly one king per side is rejected when it's
+     parsed; the move generator relies on the kings being there.
+     */
+    @Test( expected = Exception.class )
+    public void fENToPositionRejectsMissingKing() throws Exception {
+        Position.fENToPosition( "8/8/8/8/8/8/4P3/4K3 w - - 0 1" );
+    }
+
     @Test
     public void fENToPositionConversionTest2() throws Exception {
         Position expectedPos = new Position(
@@ -608,11 +640,261 @@ public class PositionTest {
         assertEquals( true, pos.deepEquals( new Position() ) );
     }
 
+    /*
+     zobristKey(): The knights going out and coming back gives the starting
+     position again (only the move counters differ), so the keys must be
+     equal even though equals() says the positions are different.
+     */
+    @Test
+    public void zobristKeyOfTransposition() throws Exception {
+        Position pos = play( stdStartPos, "G1-F3", "G8-F6", "F3-G1", "F6-G8" );
+
+        assertEquals( stdStartPos.zobristKey(), pos.zobristKey() );
+        assertEquals( false, stdStartPos.equals( pos ) );
+        assertEquals( Zobrist.key( pos ), pos.zobristKey() );
+    }
+
+    /*
+     zobristKey(): The side to move, the castling rights and the en passant
+     file must all affect the key.
+     */
+    @Test
+    public void zobristKeyCoversStateFields() throws Exception {
+        String placement = "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR";
+        long key = Position.fENToPosition(
+            placement + " b KQkq - 0 1" ).zobristKey();
+
+        assertTrue( key != Position.fENToPosition(
+            placement + " w KQkq - 0 1" ).zobristKey() );
+        assertTrue( key != Position.fENToPosition(
+            placement + " b KQk - 0 1" ).zobristKey() );
+        assertTrue( key != Position.fENToPosition(
+            placement + " b KQkq e3 0 1" ).zobristKey() );
+        // The clocks are not part of the key
+        assertEquals( key, Position.fENToPosition(
+            placement + " b KQkq - 7 30" ).zobristKey() );
+    }
+
+    /*
+     pieceIndexAt(), pieceCount() and pieceSquare(): The mailbox and the
+     piece lists must agree with the bitboards, also after castling and a
+     capture.
+     */
+    @Test
+    public void mailboxAndPieceListsMatchBitboards() throws Exception {
+        Position pos = Position.fENToPosition(
+            "4k2r/5ppp/8/8/8/8/3n1PPP/4K2R w Kk - 0 1" );
+        assertMailboxAndPieceListsMatch( pos );
+        pos = Position.makeMove( pos, PackedMove.of(
+            Square.E1.ordinal(), Square.G1.ordinal(), PackedMove.NONE ) );
+        assertMailboxAndPieceListsMatch( pos );
+        assertEquals( Position.WHITE_KING, pos.pieceIndexAt(
+            Square.G1.ordinal() ) );
+        assertEquals( Position.EMPTY_SQUARE, pos.pieceIndexAt(
+            Square.E1.ordinal() ) );
+        pos = Position.makeMove( pos, PackedMove.of(
+            Square.D2.ordinal(), Square.F1.ordinal(), PackedMove.NONE ) );
+        assertMailboxAndPieceListsMatch( pos );
+        assertEquals( 4, pos.pieceCount( Colour.WHITE ) );
+        assertEquals( 6, pos.pieceCount( Colour.BLACK ) );
+    }
+
+    /*
+     makeMove(): A double push sets the en passant target square, an en
+     passant capture removes the pawn that passed it and a promotion
+     replaces the pawn with the piece type in the flags (a queen if the
+     flags don't say). Pawn moves reset the halfmove clock.
+     */
+    @Test
+    public void makeMoveHandlesPawnSpecialMoves() throws Exception {
+        Position pos = Position.fENToPosition(
+            "4k3/2p5/8/1P6/8/8/6p1/4K2R b - - 3 40" );
+        pos = Position.makeMove( pos, PackedMove.of( Square.C7.ordinal(),
+            Square.C5.ordinal(), PackedMove.DOUBLE_PAWN_PUSH ) );
+        assertEquals( Square.C6, pos.enPassantTargetSquare() );
+        assertEquals( 0, pos.halfmoveClock() );
+        pos = Position.makeMove( pos, PackedMove.of( Square.B5.ordinal(),
+            Square.C6.ordinal(), PackedMove.EN_PASSANT_CAPTURE ) );
+        assertEquals( CSS.G2, pos.blackPawns() );
+        assertEquals( CSS.C6, pos.whitePawns() );
+        assertEquals( null, pos.enPassantTargetSquare() );
+        Position knightPromotion = Position.makeMove( pos, PackedMove.of(
+            Square.G2.ordinal(), Square.H1.ordinal(),
+            PackedMove.KNIGHT_PROMOTION_CAPTURE ) );
+        assertEquals( CSS.H1, knightPromotion.blackKnights() );
+        assertEquals( CSS.EMPTY_BOARD, knightPromotion.whiteRooks() );
+        assertEquals( CSS.EMPTY_BOARD, knightPromotion.blackPawns() );
+        Position queenPromotion = Position.makeMove( pos, PackedMove.of(
+            Square.G2.ordinal(), Square.G1.ordinal(), PackedMove.NONE ) );
+        assertEquals( CSS.G1, queenPromotion.blackQueens() );
+        assertMailboxAndPieceListsMatch( knightPromotion );
+        assertMailboxAndPieceListsMatch( queenPromotion );
+        assertEquals( Zobrist.key( queenPromotion ), queenPromotion.zobristKey() );
+    }
+
+    /*
+     whiteArmy(), blackArmy(), kingSquare(), checkers() and pinnedPieces():
+     The state derived from the bitboards must be right in a position with
+     a check and a pin and after a king move that ends both, and it must
+     agree with MutableBoard, which works it out on every call.
+     */
+    @Test
+    public void derivedStateMatchesBitboards() throws Exception {
+        Position pos = Position.fENToPosition(
+            "4k3/8/8/8/1b6/8/3N4/4K2r w - - 0 1" );
+        assertEquals( CSS.D2 | CSS.E1, pos.whiteArmy() );
+        assertEquals( CSS.B4 | CSS.E8 | CSS.H1, pos.blackArmy() );
+        assertEquals( Square.E1.ordinal(), pos.kingSquare( Colour.WHITE ) );
+        assertEquals( Square.E8.ordinal(), pos.kingSquare( Colour.BLACK ) );
+        assertEquals( CSS.H1, pos.checkers() );
+        assertEquals( CSS.D2, pos.pinnedPieces() );
+        MutableBoard board = new MutableBoard( pos );
+        assertEquals( pos.checkers(), board.checkers() );
+        assertEquals( pos.pinnedPieces(), board.pinnedPieces() );
+
+        // The king steps out of the check and off the pin line
+        pos = Position.makeMove( pos, PackedMove.of(
+            Square.E1.ordinal(), Square.F2.ordinal(), PackedMove.NONE ) );
+        pos = Position.makeMove( pos, PackedMove.of(
+            Square.H1.ordinal(), Square.A1.ordinal(), PackedMove.NONE ) );
+        assertEquals( Square.F2.ordinal(), pos.kingSquare( Colour.WHITE ) );
+        assertEquals( CSS.D2 | CSS.F2, pos.whiteArmy() );
+        assertEquals( CSS.EMPTY_BOARD, pos.checkers() );
+        assertEquals( CSS.EMPTY_BOARD, pos.pinnedPieces() );
+        assertEquals( -1, new Position( CSS.EMPTY_BOARD, CSS.EMPTY_BOARD,
+            CSS.EMPTY_BOARD, CSS.EMPTY_BOARD, CSS.EMPTY_BOARD,
+            CSS.EMPTY_BOARD, CSS.EMPTY_BOARD, CSS.EMPTY_BOARD,
+            CSS.EMPTY_BOARD, CSS.EMPTY_BOARD, CSS.EMPTY_BOARD, CSS.E8,
+            Colour.WHITE, false, false, false, false, null, 0, 1 )
+            .kingSquare( Colour.WHITE ) );
+    }
+
+    /*
+     The side to move, the castling rights, the en passant target square
+     and the halfmove clock share a single state word. Each of them must
+     come back unchanged, also at the limits of its range.
+     */
+    @Test
+    public void stateWordKeepsEachField() {
+        long[] pieces = stdStartPos.pieceBBArray();
+        Square[] enPassantTargetSquares = { null, Square.A3, Square.H3 };
+        for ( Square enPassantTargetSquare : enPassantTargetSquares ) {
+            for ( int castling = 0; castling < 16; castling++ ) {
+                Position pos = new Position(
+                    pieces[ 0 ], pieces[ 1 ], pieces[ 2 ], pieces[ 3 ],
+                    pieces[ 4 ], pieces[ 5 ], pieces[ 6 ], pieces[ 7 ],
+                    pieces[ 8 ], pieces[ 9 ], pieces[ 10 ], pieces[ 11 ],
+                    Colour.BLACK,
+                    ( castling & 1 ) != 0, ( castling & 2 ) != 0,
+                    ( castling & 4 ) != 0, ( castling & 8 ) != 0,
+                    enPassantTargetSquare, Position.MAX_HALFMOVE_CLOCK,
+                    Integer.MAX_VALUE );
+                assertEquals( Colour.BLACK, pos.turn() );
+                assertEquals( ( castling & 1 ) != 0,
+                    pos.whiteCanCastleKingside() );
+                assertEquals( ( castling & 2 ) != 0,
+                    pos.whiteCanCastleQueenside() );
+                assertEquals( ( castling & 4 ) != 0,
+                    pos.blackCanCastleKingside() );
+                assertEquals( ( castling & 8 ) != 0,
+                    pos.blackCanCastleQueenside() );
+                assertEquals( enPassantTargetSquare,
+                    pos.enPassantTargetSquare() );
+                assertEquals( Position.MAX_HALFMOVE_CLOCK, pos.halfmoveClock() );
+                assertEquals( Integer.MAX_VALUE, pos.fullmoveNumber() );
+                assertTrue( Arrays.equals( pieces, pos.pieceBBArray() ) );
+            }
+        }
+
+        // The rank of the target square follows from the side to move
+        Position pos = Position.makeMove( stdStartPos, PackedMove.of(
+            Square.E2.ordinal(), Square.E4.ordinal(),
+            PackedMove.DOUBLE_PAWN_PUSH ) );
+        assertEquals( Square.E3, pos.enPassantTargetSquare() );
+        pos = Position.makeMove( pos, PackedMove.of( Square.D7.ordinal(),
+            Square.D5.ordinal(), PackedMove.DOUBLE_PAWN_PUSH ) );
+        assertEquals( Square.D6, pos.enPassantTargetSquare() );
+    }
+
+    /*
+     flipColours() and mirrorHorizontal(): Doing either of them twice must
+     give back the original position (mirroring drops the castling rights,
+     so it's tried on positions without them). A flipped position has the
+     pieces, the castling rights and the en passant target square of the
+     other side, and all equivalent positions have the same canonical form.
+     */
+    @Test
+    public void flipAndMirrorAreInvolutions() throws Exception {
+        String[] fens = {
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K1R1 b Qk - 3 12",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w - f6 0 3"
+        };
+        for ( String fen : fens ) {
+            Position pos = Position.fENToPosition( fen );
+            assertTrue( fen,
+                pos.deepEquals( pos.flipColours().flipColours() ) );
+            Position canonical = pos.canonical();
+            assertEquals( Colour.WHITE, canonical.turn() );
+            assertTrue( fen,
+                canonical.deepEquals( pos.flipColours().canonical() ) );
+            if ( !hasCastlingRights( pos ) ) {
+                assertTrue( fen, pos.deepEquals(
+                    pos.mirrorHorizontal().mirrorHorizontal() ) );
+                assertTrue( fen, canonical.deepEquals(
+                    pos.mirrorHorizontal().flipColours().canonical() ) );
+            }
+        }
+
+        Position flipped = Position.fENToPosition( fens[ 0 ] ).flipColours();
+        assertEquals( Colour.WHITE, flipped.turn() );
+        assertEquals( CSS.A1 | CSS.E1 | CSS.H1, flipped.whiteRooks()
+            | flipped.whiteKing() );
+        assertTrue( flipped.whiteCanCastleKingside() );
+        assertTrue( flipped.blackCanCastleQueenside() );
+        assertEquals( false, flipped.whiteCanCastleQueenside()
+            || flipped.blackCanCastleKingside() );
+        assertEquals( Square.F3, Position.fENToPosition( fens[ 2 ] )
+            .flipColours().enPassantTargetSquare() );
+        assertEquals( Square.C6, Position.fENToPosition( fens[ 2 ] )
+            .mirrorHorizontal().enPassantTargetSquare() );
+    }
+
+    // Tells whether either side has a castling right left. Mirroring a
+    // position drops them.
+    static boolean hasCastlingRights( Position pos ) {
+        return pos.whiteCanCastleKingside() || pos.whiteCanCastleQueenside()
+            || pos.blackCanCastleKingside() || pos.blackCanCastleQueenside();
+    }
+
+    // Checks pieceIndexAt() of every square against the bitboards and the
+    // piece list of each side against the side's army
+    static void assertMailboxAndPieceListsMatch( Position pos ) {
+        long[] pieces = pos.pieceBBArray();
+        for ( int sq = 0; sq < 64; sq++ ) {
+            int pieceIndex = pos.pieceIndexAt( sq );
+            if ( pieceIndex == Position.EMPTY_SQUARE ) {
+                assertEquals( 0, pos.bothArmies() & ( 1L << sq ) );
+            } else {
+                assertTrue( ( pieces[ pieceIndex ] & ( 1L << sq ) ) != 0 );
+            }
+        }
+        for ( Colour colour : Colour.values() ) {
+            long listed = 0;
+            for ( int i = 0; i < pos.pieceCount( colour ); i++ ) {
+                listed |= 1L << pos.pieceSquare( colour, i );
+            }
+            assertEquals( ( colour == Colour.WHITE )
+                ? pos.whiteArmy() : pos.blackArmy(), listed );
+            assertEquals( Long.bitCount( listed ), pos.pieceCount( colour ) );
+        }
+    }
+
     // Compares each and every field of two Position objects and returns
-    // true if they are all equal. Note that the overridden equals() of
-    // Position doesn't compare all fields.
+    // true if they are all equal.
     //
-    // ___Position.deepEquals() does exactly the same job as this method.___
+    // ___Position.equals() and deepEquals() do exactly the same job as this
+    // method.___
     private static boolean identicalPositions(
         Position first, Position second ) throws Exception {
         if ( first == second ) { // One and the same object
@@ -680,16 +962,9 @@ public class PositionTest {
     // There's the similar method Position.randomDataPositionObject() that
     // serves the same basic function as this method and contains much
     // the same code.
-    private static Position randomPositionObject(
-        boolean makeCopy, int fullmove, Colour turn ) {
+    private static Position randomPositionObject() {
         Random rand = new Random();
 
-        int valueForFullmoveNumber
-            = makeCopy ? fullmove : ( 1 + rand.nextInt( 1000 ) );
-        Colour valueForTurn
-            = makeCopy ? turn
-                : ( rand.nextBoolean() ? Colour.WHITE : Colour.BLACK );
-
         Position randPos = new Position(
             // White pawns
             rand.nextLong(),
@@ -716,7 +991,7 @@ public class PositionTest {
             // Black king
             rand.nextLong(),
             // Active color
-            valueForTurn,
+            rand.nextBoolean() ? Colour.WHITE : Colour.BLACK,
             // The four castling rights
             rand.nextBoolean(),
             rand.nextBoolean(),
@@ -727,11 +1002,53 @@ public class PositionTest {
             // Halfmove clock
             rand.nextInt(),
             // Fullmove number
-            valueForFullmoveNumber );
+            1 + rand.nextInt( 1000 ) );
 
         return randPos;
     }
 
+    // A position from a random game of up to 60 plies from the starting
+    // position
+    private static Position randomGamePosition( Random random ) {
+        Position pos = new Position();
+        MoveList moves = new MoveList();
+        for ( int plies = random.nextInt( 61 ); plies > 0; plies-- ) {
+            MoveGenerator.moveGenerator( pos, moves );
+            if ( moves.isEmpty() ) {
+                break;
+            }
+            pos = Position.makeMove(
+                pos, moves.get( random.nextInt( moves.size() ) ) );
+        }
+        return pos;
+    }
+
+    // A new Position object built from the fields of the given one
+    private static Position copyOf( Position pos ) {
+        return new Position(
+            pos.whitePawns(), pos.whiteBishops(), pos.whiteKnights(),
+            pos.whiteRooks(), pos.whiteQueens(), pos.whiteKing(),
+            pos.blackPawns(), pos.blackBishops(), pos.blackKnights(),
+            pos.blackRooks(), pos.blackQueens(), pos.blackKing(),
+            pos.turn(),
+            pos.whiteCanCastleKingside(), pos.whiteCanCastleQueenside(),
+            pos.blackCanCastleKingside(), pos.blackCanCastleQueenside(),
+            pos.enPassantTargetSquare(),
+            pos.halfmoveClock(), pos.fullmoveNumber() );
+    }
+
+    // Makes the moves, given in coordinate notation (e.g., E2-E4), one
+    // after another
+    private static Position play( Position pos, String... moves ) {
+        for ( String move : moves ) {
+            pos = Position.makeMove( pos, PackedMove.of(
+                Square.valueOf( move.substring( 0, 2 ) ).ordinal(),
+                Square.valueOf( move.substring( 3 ) ).ordinal(),
+                PackedMove.QUIET ) );
+        }
+        return pos;
+    }
+
     /*
      @Test(expected=IndexOutOfBoundsException.class)
      public void testForException() {
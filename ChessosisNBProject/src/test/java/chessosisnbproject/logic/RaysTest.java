@@ -0,0 +1,113 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.CSS;
+import chessosisnbproject.data.Direction;
+import chessosisnbproject.data.Square;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class RaysTest {
+
+    /*
+     A few hand-picked examples of between() and line().
+     */
+    @Test
+    public void betweenAndLineExamples() {
+        assertEquals( CSS.B2 | CSS.C3,
+            Rays.between( Square.A1.ordinal(), Square.D4.ordinal() ) );
+        assertEquals( CSS.F1 | CSS.G1,
+            Rays.between( Square.E1.ordinal(), Square.H1.ordinal() ) );
+        assertEquals( CSS.EMPTY_BOARD,
+            Rays.between( Square.E1.ordinal(), Square.E2.ordinal() ) );
+        assertEquals( CSS.A1 | CSS.B2 | CSS.C3 | CSS.D4 | CSS.E5 | CSS.F6
+            | CSS.G7 | CSS.H8,
+            Rays.line( Square.B2.ordinal(), Square.C3.ordinal() ) );
+        assertEquals( CSS.FILE_E,
+            Rays.line( Square.E2.ordinal(), Square.E7.ordinal() ) );
+        // Knight's move apart, not aligned
+        assertEquals( CSS.EMPTY_BOARD,
+            Rays.between( Square.G1.ordinal(), Square.F3.ordinal() ) );
+        assertEquals( CSS.EMPTY_BOARD,
+            Rays.line( Square.G1.ordinal(), Square.F3.ordinal() ) );
+    }
+
+    /*
+     Both tables must be symmetric, the squares between two squares must
+     lie on the line through them and neither end square is ever between.
+     A non-empty line always contains both squares.
+     */
+    @Test
+    public void tablesAreConsistent() {
+        for ( int a = 0; a < 64; a++ ) {
+            for ( int b = 0; b < 64; b++ ) {
+                long between = Rays.between( a, b ), line = Rays.line( a, b );
+                assertEquals( between, Rays.between( b, a ) );
+                assertEquals( line, Rays.line( b, a ) );
+                assertEquals( between, between & line );
+                assertEquals( 0, between & ( ( 1L << a ) | ( 1L << b ) ) );
+                if ( line != CSS.EMPTY_BOARD ) {
+                    assertTrue( ( line & ( 1L << a ) ) != 0
+                        && ( line & ( 1L << b ) ) != 0 );
+                }
+            }
+        }
+    }
+
+    /*
+     A few hand-picked examples of neighbour(), ray() and rayAttacks().
+     */
+    @Test
+    public void neighbourAndRayExamples() {
+        assertEquals( Square.F5.ordinal(),
+            Rays.neighbour( Square.E4.ordinal(), Direction.NORTHEAST ) );
+        assertEquals( -1, Rays.neighbour( Square.H4.ordinal(), Direction.EAST ) );
+        assertEquals( -1, Rays.neighbour( Square.A1.ordinal(), Direction.SOUTH ) );
+        assertEquals( CSS.G7 | CSS.H8,
+            Rays.ray( Square.F6.ordinal(), Direction.NORTHEAST ) );
+        assertEquals( CSS.EMPTY_BOARD,
+            Rays.ray( Square.A4.ordinal(), Direction.WEST ) );
+        // The rook on E4 sees up to and including the blocker on E2
+        assertEquals( CSS.E3 | CSS.E2, Rays.rayAttacks(
+            Square.E4.ordinal(), Direction.SOUTH, CSS.E2 | CSS.E1 ) );
+        assertEquals( CSS.RANK_4 & ~( CSS.A4 | CSS.B4 | CSS.C4 | CSS.D4
+            | CSS.E4 ), Rays.rayAttacks(
+            Square.E4.ordinal(), Direction.EAST, CSS.EMPTY_BOARD ) );
+    }
+
+    /*
+     Each ray must be what stepping from neighbour to neighbour produces,
+     and rayAttacks() must stop at the first occupied square of the walk.
+     The occupancies are random with a fixed seed.
+     */
+    @Test
+    public void raysMatchNeighbourWalk() {
+        Random random = new Random( 20150622L );
+        for ( int sq = 0; sq < 64; sq++ ) {
+            long occupancy = random.nextLong() & random.nextLong();
+            long orthogonal = 0, diagonal = 0;
+            for ( Direction dir : Direction.values() ) {
+                long walk = 0, attacks = 0;
+                boolean blocked = false;
+                for ( int next = Rays.neighbour( sq, dir ); next >= 0;
+                    next = Rays.neighbour( next, dir ) ) {
+                    walk |= 1L << next;
+                    if ( !blocked ) {
+                        attacks |= 1L << next;
+                        blocked = ( occupancy & ( 1L << next ) ) != 0;
+                    }
+                }
+                assertEquals( walk, Rays.ray( sq, dir ) );
+                assertEquals( attacks, Rays.rayAttacks( sq, dir, occupancy ) );
+                if ( dir.ordinal() % 2 == 0 ) {
+                    orthogonal |= walk;
+                } else {
+                    diagonal |= walk;
+                }
+            }
+            assertEquals( orthogonal, Rays.orthogonalRays( sq ) );
+            assertEquals( diagonal, Rays.diagonalRays( sq ) );
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package chessosisnbproject.logic;
+
+import chessosisnbproject.data.Colour;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SideTest {
+
+    /*
+     Side.of() must return the constant of the color.
+     */
+    @Test
+    public void ofReturnsTheSideOfTheColour() {
+        assertSame( Side.WHITE, Side.of( Colour.WHITE ) );
+        assertSame( Side.BLACK, Side.of( Colour.BLACK ) );
+        assertEquals( Colour.BLACK, Side.WHITE.enemyColour );
+        assertEquals( Colour.WHITE, Side.BLACK.enemyColour );
+    }
+
+    /*
+     For a pawn on each square, the two capture shifts together must give
+     the pawn attacks of the attack tables and the push shift must move the
+     pawn by the forward bit index difference.
+     */
+    @Test
+    public void pawnShiftsMatchAttackTables() {
+        for ( Side side : new Side[]{ Side.WHITE, Side.BLACK } ) {
+            for ( int sq = 8; sq < 56; sq++ ) {
+                long pawn = 1L << sq;
+                assertEquals( AttackTables.pawnAttacks( side.colour, sq ),
+                    side.westCaptures( pawn ) | side.eastCaptures( pawn ) );
+                assertEquals( 1L << ( sq + side.forward ), side.pushes( pawn ) );
+            }
+        }
+    }
+}